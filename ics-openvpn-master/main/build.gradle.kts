@@ -11,6 +11,9 @@ plugins {
     id("checkstyle")
 }
 
+/* Prefixes of the system properties that are forwarded to the unit tests */
+val forwardedTestProperties = listOf("soak.", "fakedaemon.", "replay.", "extauthload.", "pembench.")
+
 android {
     buildToolsVersion = "33.0.1"
     buildFeatures {
@@ -39,6 +42,14 @@ android {
 
     //testOptions.unitTests.isIncludeAndroidResources = true
 
+    // The opt-in tests and benchmarks read their settings from system properties, pass them
+    // from the gradle command line to the test JVM, e.g. ./gradlew test -Dsoak.cycles=200
+    testOptions.unitTests.all { test ->
+        System.getProperties().stringPropertyNames()
+            .filter { name -> forwardedTestProperties.any { name.startsWith(it) } }
+            .forEach { test.systemProperty(it, System.getProperty(it)) }
+    }
+
     externalNativeBuild {
         cmake {
             path = File("${projectDir}/src/main/cpp/CMakeLists.txt")
@@ -250,6 +261,7 @@ dependencies {
     uiImplementation(libs.kotlin)
     uiImplementation(libs.mpandroidchart)
     uiImplementation(libs.square.okhttp)
+    uiImplementation(libs.tink.android)
 
     testImplementation(libs.androidx.test.core)
     testImplementation(libs.junit)
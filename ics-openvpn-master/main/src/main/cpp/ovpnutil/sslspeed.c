@@ -31,6 +31,8 @@
 #include <netinet/in.h>
 #include <sys/ioctl.h>
 #include <sys/times.h>
+#include <time.h>
+#include <pthread.h>
 #include <linux/if.h>
 #include <android/log.h>
 #include <unistd.h>
@@ -85,11 +87,12 @@ static const int lengths[SIZE_NUM] = {
     16, 64, 256, 1024, 1500, 8 * 1024, 16 * 1024
 };
 
-static int testnum;
+/* Per thread, so that the benchmark can run the test on several cores at once */
+static __thread int testnum;
 
 # define COND(unused_cond) (run && count<0x7fffffff)
 
-static volatile int run = 0;
+static __thread volatile int run = 0;
 
 #ifdef SIGALRM
 # if defined(__STDC__) || defined(sgi) || defined(_AIX)
@@ -109,19 +112,16 @@ static int usertime = 1;
 double app_tminterval(int stop, int usertime)
 {
     double ret = 0;
-    struct tms rus;
-    clock_t now = times(&rus);
-    static clock_t tmstart;
+    struct timespec now;
+    static __thread struct timespec tmstart;
 
-    if (usertime)
-        now = rus.tms_utime;
+    /* CPU time of this thread only, times() would add up all threads of the process */
+    clock_gettime(usertime ? CLOCK_THREAD_CPUTIME_ID : CLOCK_MONOTONIC, &now);
 
     if (stop == TM_START)
         tmstart = now;
-    else {
-        long int tck = sysconf(_SC_CLK_TCK);
-        ret = (now - tmstart) / (double)tck;
-    }
+    else
+        ret = (now.tv_sec - tmstart.tv_sec) + (now.tv_nsec - tmstart.tv_nsec) / 1e9;
 
     return (ret);
 }
@@ -162,7 +162,7 @@ static int EVP_Update_loop(void *args)
     return count;
 }
 
-static const EVP_MD *evp_md = NULL;
+static __thread const EVP_MD *evp_md = NULL;
 static int EVP_Digest_loop(void *args)
 {
     loopargs_t *tempargs = *(loopargs_t **)args;
@@ -199,14 +199,15 @@ static int run_benchmark(int async_jobs,
 
 static void* stop_run(void* arg)
 {
+    volatile int *benchmark_run = arg;
     __android_log_write(ANDROID_LOG_DEBUG,"openvpn", "stop run thread started");
     sleep(3);
-    run=0;
+    *benchmark_run = 0;
     __android_log_write(ANDROID_LOG_DEBUG,"openvpn", "stop run thread stopped");
     return NULL;
 }
 
-jdoubleArray Java_de_blinkt_openvpn_core_NativeUtils_getOpenSSLSpeed(JNIEnv* env, jclass thiz, jstring algorithm, jint testnumber)
+jdoubleArray Java_de_blinkt_openvpn_core_NativeUtils_runOpenSSLSpeedTest(JNIEnv* env, jclass thiz, jstring algorithm, jint testnumber)
 {
 
     OSSL_PROVIDER *legacy;
@@ -232,6 +233,7 @@ jdoubleArray Java_de_blinkt_openvpn_core_NativeUtils_getOpenSSLSpeed(JNIEnv* env
         0x34, 0x56, 0x78, 0x9a, 0xbc, 0xde, 0xf0, 0x12
     };
     const EVP_CIPHER *evp_cipher = NULL;
+    evp_md = NULL;
 
     const char* alg = (*env)->GetStringUTFChars( env, algorithm , NULL ) ;
 
@@ -254,7 +256,7 @@ jdoubleArray Java_de_blinkt_openvpn_core_NativeUtils_getOpenSSLSpeed(JNIEnv* env
 
     jdoubleArray ret = (*env)->NewDoubleArray(env, 3);
 
-    if (testnum < 0 || testnum >= SIZE_NUM)
+    if (testnumber < 0 || testnumber >= SIZE_NUM)
         goto error;
 
     testnum = testnumber;
@@ -291,18 +293,21 @@ jdoubleArray Java_de_blinkt_openvpn_core_NativeUtils_getOpenSSLSpeed(JNIEnv* env
         Time_F(START);
         pthread_t timer_thread;
 
-        if (pthread_create(&timer_thread, NULL, stop_run, NULL))
+        run = 1;
+        if (pthread_create(&timer_thread, NULL, stop_run, (void *) &run))
             goto error;
 
         count = run_benchmark(async_jobs, EVP_Update_loop, loopargs);
         d = Time_F(STOP);
+        pthread_join(timer_thread, NULL);
         for (int k = 0; k < loopargs_len; k++) {
             EVP_CIPHER_CTX_free(loopargs[k].ctx);
         }
     }
     if (evp_md) {
         pthread_t timer_thread;
-        if (pthread_create(&timer_thread, NULL, stop_run, NULL))
+        run = 1;
+        if (pthread_create(&timer_thread, NULL, stop_run, (void *) &run))
         {
             __android_log_write(ANDROID_LOG_DEBUG,"openvpn", "creating thread failed");
             goto error;
@@ -311,6 +316,7 @@ jdoubleArray Java_de_blinkt_openvpn_core_NativeUtils_getOpenSSLSpeed(JNIEnv* env
         Time_F(START);
         count = run_benchmark(async_jobs, EVP_Digest_loop, loopargs);
         d = Time_F(STOP);
+        pthread_join(timer_thread, NULL);
     }
 
     // Save results in hacky way
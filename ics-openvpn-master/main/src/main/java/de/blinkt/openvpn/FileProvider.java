@@ -112,7 +112,7 @@ implements PipeDataWriter<InputStream> {
 
 		// I think this already random enough, no need for magic secure cookies
 		// 1f9563a4-a1f5-2165-255f2219-111823ef.dmp
-		if (!path.matches("^[0-9a-z-.]*(dmp|dmp.log)$"))
+		if (!path.matches("^[0-9a-z-.]*(dmp|dmp.log|routes.txt|bench.json)$"))
 			throw new FileNotFoundException("url not in expect format " + uri);
 		File cachedir = getContext().getCacheDir();
         return new File(cachedir,path);
@@ -7,7 +7,6 @@ package de.blinkt.openvpn;
 
 import static de.blinkt.openvpn.core.OpenVPNService.EXTRA_DO_NOT_REPLACE_RUNNING_VPN;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
@@ -27,8 +26,6 @@ import android.util.Base64;
 
 import de.blinkt.openvpn.core.*;
 
-import org.spongycastle.util.io.pem.PemObject;
-import org.spongycastle.util.io.pem.PemWriter;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -37,22 +34,21 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Serializable;
-import java.io.StringWriter;
 import java.security.*;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.security.interfaces.RSAPrivateKey;
-import java.security.spec.MGF1ParameterSpec;
 import java.security.spec.PSSParameterSpec;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Locale;
 import java.util.UUID;
 import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 
@@ -172,14 +168,20 @@ public class VpnProfile implements Serializable, Cloneable {
     public boolean mUseUdp = true;
     public boolean mTemporaryProfile = false;
     public String mDataCiphers = "";
+    /* Reorder mDataCiphers by the speed they have on this device */
+    public boolean mAutoTuneDataCiphers = false;
     public boolean mBlockUnusedAddressFamilies = true;
     public boolean mCheckPeerFingerprint = false;
     public String mPeerFingerPrints = "";
     public int mCompatMode = 0;
     public boolean mUseLegacyProvider = false;
     public String mTlSCertProfile = "";
+    /* Maximum number of routes per address family handed to Android, 0 means no limit */
+    public int mRouteBudget = 0;
 
     private transient PrivateKey mPrivateKey;
+    private transient KeyChainSigner mKeyChainSigner;
+    private transient Future<String[]> mExternalCertificates;
     // Public attributes, since I got mad with getter/setter
     // set members to default values
     private UUID mUuid;
@@ -366,6 +368,14 @@ public class VpnProfile implements Serializable, Cloneable {
     }
 
     public String getConfigFile(Context context, boolean configForOvpn3) {
+        return getConfigFile(context, configForOvpn3, false);
+    }
+
+    /**
+     * @param forConnect the config is used to connect and not only shown, only then the
+     *                   data ciphers are ordered by their speed (and measured if needed)
+     */
+    public String getConfigFile(Context context, boolean configForOvpn3, boolean forConnect) {
 
         // 애플리케이션의 캐시 디렉토리 경로를 지정해줌.
         File cacheDir = context.getCacheDir();
@@ -518,7 +528,7 @@ public class VpnProfile implements Serializable, Cloneable {
             case VpnProfile.TYPE_KEYSTORE:
             case VpnProfile.TYPE_EXTERNAL_APP:
                 if (!configForOvpn3) {
-                    String[] ks = getExternalCertificates(context);
+                    String[] ks = awaitExternalCertificates(context);
                     cfg.append("### From Keystore/ext auth app ####\n");
                     if (ks != null) {
                         // mCaFilename 이 지정되어 있다면, 해당 CA 인증서를 파일에서 읽어와 설정에 추가함.
@@ -695,7 +705,10 @@ public class VpnProfile implements Serializable, Cloneable {
         }
 
         if (!TextUtils.isEmpty(mDataCiphers)) {
-            cfg.append("data-ciphers ").append(mDataCiphers).append("\n");
+            String dataCiphers = mDataCiphers;
+            if (mAutoTuneDataCiphers && forConnect)
+                dataCiphers = DataCipherTuner.orderDataCiphers(context, mDataCiphers);
+            cfg.append("data-ciphers ").append(dataCiphers).append("\n");
         }
 
         if (mCompatMode > 0) {
@@ -833,7 +846,7 @@ public class VpnProfile implements Serializable, Cloneable {
         // OutputStreamWriter 파일 이름 설정 매개변수로 받은 out
         OutputStreamWriter cfg = new OutputStreamWriter(out);
         // 실제 내용으로 작성
-        cfg.write(getConfigFile(context, false));
+        cfg.write(getConfigFile(context, false, true));
         // 모든것들 종료
         cfg.flush();
         cfg.close();
@@ -855,7 +868,7 @@ public class VpnProfile implements Serializable, Cloneable {
 
         if ((mAuthenticationType == VpnProfile.TYPE_KEYSTORE || mAuthenticationType == VpnProfile.TYPE_USERPASS_KEYSTORE)
                 && mPrivateKey == null) {
-            new Thread(() -> getExternalCertificates(context)).start();
+            prefetchExternalCertificates(context);
         }
     }
 
@@ -889,7 +902,16 @@ public class VpnProfile implements Serializable, Cloneable {
     }
 
     private X509Certificate[] getKeyStoreCertificates(Context context) throws KeyChainException, InterruptedException {
-        mPrivateKey = KeyChain.getPrivateKey(context, mAlias);
+        PrivateKey privateKey = KeyChain.getPrivateKey(context, mAlias);
+        /* The engines initialised with the key survive reconnects as long as the key stays
+         * the same */
+        if (privateKey != null && (mKeyChainSigner == null || !privateKey.equals(mPrivateKey))) {
+            mKeyChainSigner = new KeyChainSigner(privateKey);
+            mKeyChainSigner.warmUp();
+        } else if (privateKey == null) {
+            mKeyChainSigner = null;
+        }
+        mPrivateKey = privateKey;
 
 
         X509Certificate[] caChain = KeyChain.getCertificateChain(context, mAlias);
@@ -902,8 +924,64 @@ public class VpnProfile implements Serializable, Cloneable {
         return ExtAuthHelper.getCertificateChain(context, mExternalAuthenticator, mAlias);
     }
 
+    private boolean usesExternalCertificates() {
+        return mAuthenticationType == TYPE_KEYSTORE || mAuthenticationType == TYPE_USERPASS_KEYSTORE
+                || mAuthenticationType == TYPE_EXTERNAL_APP;
+    }
+
+    private String getExternalCertificatesKey() {
+        return mAuthenticationType + "|" + mExternalAuthenticator + "|" + mAlias + "|" + mCaFilename;
+    }
+
+    /**
+     * Starts fetching the certificates from the keystore or the external auth app in the
+     * background, {@link #awaitExternalCertificates(Context)} picks up the result
+     */
+    public synchronized void prefetchExternalCertificates(Context context) {
+        if (!usesExternalCertificates() || mExternalCertificates != null)
+            return;
+        final Context appContext = context.getApplicationContext();
+        mExternalCertificates = ExternalCertificateCache.fetch(() -> getExternalCertificates(appContext));
+    }
+
+    /**
+     * Waits for the certificates of {@link #prefetchExternalCertificates(Context)} or fetches
+     * them if they have not been prefetched
+     */
+    public String[] awaitExternalCertificates(Context context) {
+        Future<String[]> prefetched;
+        synchronized (this) {
+            prefetched = mExternalCertificates;
+            mExternalCertificates = null;
+        }
+        if (prefetched != null) {
+            try {
+                String[] certificates = prefetched.get();
+                if (certificates != null)
+                    return certificates;
+            } catch (ExecutionException e) {
+                VpnStatus.logException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        return getExternalCertificates(context);
+    }
+
     public String[] getExternalCertificates(Context context) {
-        return getExternalCertificates(context, 5);
+        String key = getExternalCertificatesKey();
+        /* The key chain also has to hand out the private key, so only skip asking it if we
+         * already got the key */
+        if (mAuthenticationType == TYPE_EXTERNAL_APP || mKeyChainSigner != null) {
+            String[] cached = ExternalCertificateCache.get(key);
+            if (cached != null)
+                return cached;
+        }
+        String[] certificates = getExternalCertificates(context, 5);
+        if (certificates != null)
+            ExternalCertificateCache.put(key, certificates);
+        return certificates;
     }
 
 
@@ -927,15 +1005,10 @@ public class VpnProfile implements Serializable, Cloneable {
             if (caChain.length <= 1 && TextUtils.isEmpty(mCaFilename)) {
                 VpnStatus.logMessage(VpnStatus.LogLevel.ERROR, "", context.getString(R.string.keychain_nocacert));
             } else {
-                StringWriter ksStringWriter = new StringWriter();
-
-                PemWriter pw = new PemWriter(ksStringWriter);
-                for (int i = 1; i < caChain.length; i++) {
-                    X509Certificate cert = caChain[i];
-                    pw.writeObject(new PemObject("CERTIFICATE", cert.getEncoded()));
-                }
-                pw.close();
-                keystoreChain = ksStringWriter.toString();
+                StringBuilder chain = new StringBuilder();
+                for (int i = 1; i < caChain.length; i++)
+                    PemCodec.write(chain, "CERTIFICATE", caChain[i].getEncoded());
+                keystoreChain = chain.toString();
             }
 
 
@@ -943,13 +1016,10 @@ public class VpnProfile implements Serializable, Cloneable {
             if (!TextUtils.isEmpty(mCaFilename)) {
                 try {
                     Certificate[] cacerts = X509Utils.getCertificatesFromFile(mCaFilename);
-                    StringWriter caoutWriter = new StringWriter();
-                    PemWriter pw = new PemWriter(caoutWriter);
-
+                    StringBuilder cas = new StringBuilder();
                     for (Certificate cert : cacerts)
-                        pw.writeObject(new PemObject("CERTIFICATE", cert.getEncoded()));
-                    pw.close();
-                    caout = caoutWriter.toString();
+                        PemCodec.write(cas, "CERTIFICATE", cert.getEncoded());
+                    caout = cas.toString();
 
                 } catch (Exception e) {
                     VpnStatus.logError("Could not read CA certificate" + e.getLocalizedMessage());
@@ -957,17 +1027,9 @@ public class VpnProfile implements Serializable, Cloneable {
             }
 
 
-            StringWriter certout = new StringWriter();
-
-
-            if (caChain.length >= 1) {
-                X509Certificate usercert = caChain[0];
-
-                PemWriter upw = new PemWriter(certout);
-                upw.writeObject(new PemObject("CERTIFICATE", usercert.getEncoded()));
-                upw.close();
-
-            }
+            StringBuilder certout = new StringBuilder();
+            if (caChain.length >= 1)
+                PemCodec.write(certout, "CERTIFICATE", caChain[0].getEncoded());
             String user = certout.toString();
 
 
@@ -981,7 +1043,7 @@ public class VpnProfile implements Serializable, Cloneable {
             }
 
             return new String[]{ca, extra, user};
-        } catch (InterruptedException | IOException | KeyChainException | NoCertReturnedException | IllegalArgumentException
+        } catch (InterruptedException | KeyChainException | NoCertReturnedException | IllegalArgumentException
                 | CertificateException e) {
             e.printStackTrace();
             VpnStatus.logError(R.string.keyChainAccessError, e.getLocalizedMessage());
@@ -1258,36 +1320,29 @@ public class VpnProfile implements Serializable, Cloneable {
     }
 
     private byte[] getKeyChainSignedData(byte[] data, OpenVPNManagement.SignaturePadding padding, String saltlen, String hashalg, boolean needDigest) {
-        PrivateKey privkey = getKeystoreKey();
-
+        KeyChainSigner signer = mKeyChainSigner;
+        if (signer == null) {
+            VpnStatus.logError(R.string.error_rsa_sign, "KeyChainException", "No private key available");
+            return null;
+        }
 
         try {
-            @SuppressLint("GetInstance")
-            String keyalgorithm = privkey.getAlgorithm();
+            String keyalgorithm = signer.getKeyAlgorithm();
 
-            byte[] signed_bytes;
             if (needDigest || keyalgorithm.equals("EC")) {
-                return doDigestSign(privkey, data, padding, hashalg, saltlen);
+                return doDigestSign(signer, data, padding, hashalg, saltlen);
             } else {
              /* ECB is perfectly fine in this special case, since we are using it for
                 the public/private part in the TLS exchange */
-                Cipher signer = null;
                 switch (padding) {
                     case RSA_PKCS1_PADDING:
-                        signer = Cipher.getInstance("RSA/ECB/PKCS1PADDING");
-                        break;
+                        return signer.encrypt("RSA/ECB/PKCS1PADDING", data);
                     case NO_PADDING:
-                        signer = Cipher.getInstance("RSA/ECB/NoPadding");
-                        break;
+                        return signer.encrypt("RSA/ECB/NoPadding", data);
                     case RSA_PKCS1_PSS_PADDING:
+                    default:
                         throw new NoSuchPaddingException("Cannot do PKCS1 PSS padding without also doing the digest");
                 }
-
-                signer.init(Cipher.ENCRYPT_MODE, privkey);
-
-                signed_bytes = signer.doFinal(data);
-
-                return signed_bytes;
             }
         } catch
         (NoSuchAlgorithmException | InvalidKeyException | IllegalBlockSizeException | BadPaddingException | NoSuchPaddingException | SignatureException | InvalidAlgorithmParameterException
@@ -1336,48 +1391,30 @@ public class VpnProfile implements Serializable, Cloneable {
         return hashtype;
     }
 
-    private byte[] doDigestSign(PrivateKey privkey, byte[] data, OpenVPNManagement.SignaturePadding padding, String hashalg, String saltlen) throws SignatureException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException {
-        /* RSA */
-        Signature sig = null;
-
-        if (privkey.getAlgorithm().equals("EC")) {
+    private byte[] doDigestSign(KeyChainSigner signer, byte[] data, OpenVPNManagement.SignaturePadding padding, String hashalg, String saltlen) throws SignatureException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException {
+        if (signer.getKeyAlgorithm().equals("EC")) {
             if (hashalg.equals(""))
                 hashalg = "NONE";
             /* e.g. SHA512withECDSA */
-            hashalg = hashalg + "withECDSA";
-            sig = Signature.getInstance(hashalg.toUpperCase(Locale.ROOT));
+            return signer.sign((hashalg + "withECDSA").toUpperCase(Locale.ROOT), null, data);
         } else if (padding == OpenVPNManagement.SignaturePadding.RSA_PKCS1_PSS_PADDING) {
             /* https://developer.android.com/training/articles/keystore#SupportedSignatures */
             if (!"digest".equals(saltlen))
                 throw new SignatureException("PSS signing requires saltlen=digest");
 
             if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
-                data = addPSSPadding(privkey, hashalg, data);
+                data = addPSSPadding(signer.getKey(), hashalg, data);
                 return getKeyChainSignedData(data, OpenVPNManagement.SignaturePadding.NO_PADDING, "none", "none", false);
             }
 
-            sig = Signature.getInstance(hashalg + "withRSA/PSS");
-
-            PSSParameterSpec pssspec = null;
-            switch (hashalg) {
-                case "SHA256":
-                    pssspec = new PSSParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA256, 32, 1);
-                    break;
-                case "SHA512":
-                    pssspec = new PSSParameterSpec("SHA-512", "MGF1", MGF1ParameterSpec.SHA512, 64, 1);
-                    break;
-                case "SHA384":
-                    pssspec = new PSSParameterSpec("SHA-384", "MGF1", MGF1ParameterSpec.SHA384, 48, 1);
-                    break;
-            }
-            sig.setParameter(pssspec);
+            PSSParameterSpec pssspec = KeyChainSigner.getPSSParameterSpec(hashalg);
+            if (pssspec == null)
+                throw new InvalidAlgorithmParameterException("No PSS parameters for " + hashalg);
+            return signer.sign(hashalg + "withRSA/PSS", pssspec, data);
         } else if (padding == OpenVPNManagement.SignaturePadding.RSA_PKCS1_PADDING) {
-            sig = Signature.getInstance(hashalg + "withRSA");
+            return signer.sign(hashalg + "withRSA", null, data);
         }
-
-        sig.initSign(privkey);
-        sig.update(data);
-        return sig.sign();
+        throw new SignatureException("Unsupported padding " + padding + " for signing with digest");
     }
 
     private boolean usesExtraProxyOptions() {
@@ -19,8 +19,10 @@ class CIDRIP {
     }
 
     public static int calculateLenFromMask(String mask) {
-        long netmask = getInt(mask);
+        return calculateLenFromMask(getInt(mask));
+    }
 
+    static int calculateLenFromMask(long netmask) {
         // Add 33. bit to ensure the loop terminates
         netmask += 1l << 32;
 
@@ -53,9 +55,9 @@ class CIDRIP {
     public boolean normalise() {
         long ip = getInt(mIp);
 
-        long newip = ip & (0xffffffffL << (32 - len));
+        long newip = ip & prefixMask(len);
         if (newip != ip) {
-            mIp = String.format(Locale.US,"%d.%d.%d.%d", (newip & 0xff000000) >> 24, (newip & 0xff0000) >> 16, (newip & 0xff00) >> 8, newip & 0xff);
+            mIp = toDottedQuad(newip);
             return true;
         } else {
             return false;
@@ -63,16 +65,51 @@ class CIDRIP {
 
     }
 
+    /**
+     * Parses a dotted quad into its 32 bit value without splitting the string, this is
+     * called several times for every pushed route
+     */
     static long getInt(String ipaddr) {
-        String[] ipt = ipaddr.split("\\.");
         long ip = 0;
+        int octet = 0;
+        int digits = 0;
+        int dots = 0;
+        for (int i = 0; i < ipaddr.length(); i++) {
+            char c = ipaddr.charAt(i);
+            if (c >= '0' && c <= '9' && digits < 3) {
+                octet = octet * 10 + (c - '0');
+                digits++;
+                if (octet > 255)
+                    throw new NumberFormatException("Invalid IPv4 address: " + ipaddr);
+            } else if (c == '.' && digits > 0 && dots < 3) {
+                ip = (ip << 8) | octet;
+                octet = 0;
+                digits = 0;
+                dots++;
+            } else {
+                throw new NumberFormatException("Invalid IPv4 address: " + ipaddr);
+            }
+        }
+        if (digits == 0 || dots != 3)
+            throw new NumberFormatException("Invalid IPv4 address: " + ipaddr);
 
-        ip += Long.parseLong(ipt[0]) << 24;
-        ip += Integer.parseInt(ipt[1]) << 16;
-        ip += Integer.parseInt(ipt[2]) << 8;
-        ip += Integer.parseInt(ipt[3]);
+        return (ip << 8) | octet;
+    }
+
+    static String toDottedQuad(long ip) {
+        return new StringBuilder(15)
+                .append((ip >> 24) & 0xff).append('.')
+                .append((ip >> 16) & 0xff).append('.')
+                .append((ip >> 8) & 0xff).append('.')
+                .append(ip & 0xff)
+                .toString();
+    }
 
-        return ip;
+    /**
+     * @return the netmask for a prefix length as 32 bit value
+     */
+    static long prefixMask(int len) {
+        return (0xffffffffL << (32 - len)) & 0xffffffffL;
     }
 
     public long getInt() {
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.util.Locale;
+
+/**
+ * 128 bit fingerprint that is updated while a configuration is built up.
+ * <p>
+ * Values added with {@link #addUnordered} are summed up, so the result does not depend
+ * on the order they were added in (like the sorted route sets). Values added with
+ * {@link #addOrdered} are chained, so their order matters (like the DNS server list).
+ * <p>
+ * This is not a cryptographic hash, it only has to make accidental collisions between
+ * two tun configurations unlikely.
+ */
+class ConfigFingerprint {
+    private static final long SEED_LO = 0x9e3779b97f4a7c15L;
+    private static final long SEED_HI = 0xc2b2ae3d27d4eb4fL;
+
+    private long mLo;
+    private long mHi;
+
+    void addUnordered(long a, long b) {
+        mLo += mix(a * SEED_LO + b);
+        mHi += mix(b * SEED_HI + a + SEED_LO);
+    }
+
+    void addUnordered(long a, long b, long c) {
+        addUnordered(mix(a * SEED_HI + c), b);
+    }
+
+    void addOrdered(long a, long b) {
+        mLo = mix(mLo * SEED_HI + mix(a * SEED_LO + b));
+        mHi = mix(mHi * SEED_LO + mix(b * SEED_HI + a + SEED_LO));
+    }
+
+    void addOrdered(String s) {
+        if (s == null) {
+            addOrdered(0, -1);
+            return;
+        }
+        long h = 1125899906842597L;
+        for (int i = 0; i < s.length(); i++)
+            h = 31 * h + s.charAt(i);
+        addOrdered(h, s.length());
+    }
+
+    void addOrdered(ConfigFingerprint other) {
+        addOrdered(other.mLo, other.mHi);
+    }
+
+    void clear() {
+        mLo = 0;
+        mHi = 0;
+    }
+
+    /* Finalisation step of MurmurHash3 */
+    private static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ConfigFingerprint))
+            return false;
+        ConfigFingerprint other = (ConfigFingerprint) o;
+        return mLo == other.mLo && mHi == other.mHi;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(mLo ^ mHi);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%016x%016x", mHi, mLo);
+    }
+}
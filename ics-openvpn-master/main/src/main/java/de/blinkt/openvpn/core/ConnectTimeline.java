@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import android.content.Context;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Records when a connection attempt reaches each of its phases, from the start of the
+ * service until the VPN is connected. Finished attempts are added to histograms per
+ * profile, which are kept in a file, so the connect time of a profile can be compared
+ * over many sessions.
+ */
+public class ConnectTimeline {
+    public enum Phase {
+        SERVICE_START,
+        PROFILE_FETCHED,
+        PROCESS_START,
+        CONFIG_WRITTEN,
+        MANAGEMENT_ACCEPT,
+        RESOLVE,
+        TCP_CONNECT,
+        WAIT,
+        AUTH,
+        GET_CONFIG,
+        ASSIGN_IP,
+        ADD_ROUTES,
+        ROUTES_COMPUTED,
+        ESTABLISH,
+        CONNECTED;
+
+        /**
+         * @return the phase for an OpenVPN state or null if the state is not a phase
+         */
+        static Phase fromState(String state) {
+            switch (state) {
+                case "RESOLVE":
+                    return RESOLVE;
+                case "TCP_CONNECT":
+                    return TCP_CONNECT;
+                case "WAIT":
+                    return WAIT;
+                case "AUTH":
+                    return AUTH;
+                case "GET_CONFIG":
+                    return GET_CONFIG;
+                case "ASSIGN_IP":
+                    return ASSIGN_IP;
+                case "ADD_ROUTES":
+                    return ADD_ROUTES;
+                case "CONNECTED":
+                    return CONNECTED;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private static final String TIMINGS_FILE = "connect_timings.bin";
+    private static final int TIMINGS_FILE_VERSION = 1;
+    private static final Phase[] PHASES = Phase.values();
+
+    /* profile uuid -> histogram of the time from the service start to each phase */
+    private static HashMap<String, LatencyHistogram[]> sHistograms;
+
+    private final long mStartNanos;
+    private final long[] mMarks = new long[PHASES.length];
+    private String mProfileUUID;
+
+    public ConnectTimeline() {
+        mStartNanos = System.nanoTime();
+        Arrays.fill(mMarks, -1);
+        mMarks[Phase.SERVICE_START.ordinal()] = 0;
+    }
+
+    public void setProfileUUID(String uuid) {
+        mProfileUUID = uuid;
+    }
+
+    public String getProfileUUID() {
+        return mProfileUUID;
+    }
+
+    /**
+     * Remembers the time the phase was reached. Only the first time counts, phases that are
+     * repeated (e.g. WAIT after a failed AUTH) are part of the time of the earlier phase.
+     */
+    public synchronized void mark(Phase phase) {
+        if (mMarks[phase.ordinal()] < 0)
+            mMarks[phase.ordinal()] = (System.nanoTime() - mStartNanos) / 1000000;
+    }
+
+    public void markState(String state) {
+        Phase phase = Phase.fromState(state);
+        if (phase != null)
+            mark(phase);
+    }
+
+    public synchronized boolean isConnected() {
+        return mMarks[Phase.CONNECTED.ordinal()] >= 0;
+    }
+
+    /**
+     * @return milliseconds from the service start to the phase or -1 if it was not reached
+     */
+    public synchronized long getMark(Phase phase) {
+        return mMarks[phase.ordinal()];
+    }
+
+    /**
+     * @return the phases in the order they were reached with the time since the service
+     * start and since the previous phase
+     */
+    public synchronized String toLogString() {
+        Integer[] order = new Integer[PHASES.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(mMarks[a], mMarks[b]));
+
+        StringBuilder sb = new StringBuilder();
+        long last = 0;
+        for (int i : order) {
+            if (mMarks[i] < 0)
+                continue;
+            if (sb.length() > 0)
+                sb.append(", ");
+            sb.append(String.format(Locale.US, "%s %d ms (+%d)", PHASES[i], mMarks[i], mMarks[i] - last));
+            last = mMarks[i];
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Adds a finished connection attempt to the histograms of its profile
+     */
+    static synchronized void record(Context c, ConnectTimeline timeline) {
+        if (timeline.mProfileUUID == null)
+            return;
+
+        HashMap<String, LatencyHistogram[]> histograms = getHistograms(c);
+        LatencyHistogram[] profileHistograms = histograms.get(timeline.mProfileUUID);
+        if (profileHistograms == null) {
+            profileHistograms = new LatencyHistogram[PHASES.length];
+            for (int i = 0; i < PHASES.length; i++)
+                profileHistograms[i] = new LatencyHistogram();
+            histograms.put(timeline.mProfileUUID, profileHistograms);
+        }
+
+        /* SERVICE_START is the start of the timeline and always 0 */
+        for (int i = 1; i < PHASES.length; i++) {
+            long mark = timeline.getMark(PHASES[i]);
+            if (mark >= 0)
+                profileHistograms[i].record(mark);
+        }
+    }
+
+    /**
+     * @return a description of the connect time of the profile or null if no attempt of
+     * this profile has been recorded
+     */
+    static synchronized String getSummary(Context c, String uuid) {
+        LatencyHistogram[] profileHistograms = getHistograms(c).get(uuid);
+        if (profileHistograms == null)
+            return null;
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < PHASES.length; i++) {
+            if (profileHistograms[i].getTotalCount() == 0)
+                continue;
+            sb.append(PHASES[i]).append(": ").append(profileHistograms[i].getSummary()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static HashMap<String, LatencyHistogram[]> getHistograms(Context c) {
+        if (sHistograms == null) {
+            sHistograms = new HashMap<>();
+            try {
+                readHistograms(new File(c.getFilesDir(), TIMINGS_FILE), sHistograms);
+            } catch (FileNotFoundException ignored) {
+                // No connection has been recorded yet
+            } catch (IOException e) {
+                VpnStatus.logException(VpnStatus.LogLevel.DEBUG, "Reading connect timings", e);
+                sHistograms.clear();
+            }
+        }
+        return sHistograms;
+    }
+
+    static synchronized void saveHistograms(Context c) {
+        if (sHistograms == null)
+            return;
+
+        File timings = new File(c.getFilesDir(), TIMINGS_FILE);
+        File tmp = new File(c.getFilesDir(), TIMINGS_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(TIMINGS_FILE_VERSION);
+            out.writeInt(sHistograms.size());
+            for (HashMap.Entry<String, LatencyHistogram[]> profile : sHistograms.entrySet()) {
+                out.writeUTF(profile.getKey());
+                out.writeInt(profile.getValue().length);
+                for (Phase phase : PHASES) {
+                    out.writeUTF(phase.name());
+                    profile.getValue()[phase.ordinal()].writeTo(out);
+                }
+            }
+        } catch (IOException e) {
+            VpnStatus.logException(VpnStatus.LogLevel.DEBUG, "Writing connect timings", e);
+            return;
+        }
+        if (!tmp.renameTo(timings))
+            VpnStatus.logDebug("Could not rename " + tmp);
+    }
+
+    private static void readHistograms(File file, HashMap<String, LatencyHistogram[]> histograms) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != TIMINGS_FILE_VERSION)
+                return;
+
+            int profiles = in.readInt();
+            for (int p = 0; p < profiles; p++) {
+                String uuid = in.readUTF();
+                int phases = in.readInt();
+                LatencyHistogram[] profileHistograms = new LatencyHistogram[PHASES.length];
+                for (int i = 0; i < phases; i++) {
+                    String name = in.readUTF();
+                    LatencyHistogram histogram = LatencyHistogram.readFrom(in);
+                    try {
+                        profileHistograms[Phase.valueOf(name).ordinal()] = histogram;
+                    } catch (IllegalArgumentException ignored) {
+                        // Phase of an older version
+                    }
+                }
+                for (int i = 0; i < PHASES.length; i++)
+                    if (profileHistograms[i] == null)
+                        profileHistograms[i] = new LatencyHistogram();
+                histograms.put(uuid, profileHistograms);
+            }
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import android.os.Build;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the OpenSSL speed test of {@link NativeUtils#getOpenSSLSpeed} for every combination
+ * of algorithm, block size and number of threads without any UI. Every run of the native
+ * test takes about three seconds, so a matrix should be kept small. The results can be
+ * written to the log or to a file in the cache directory that {@link de.blinkt.openvpn.FileProvider}
+ * can share.
+ */
+public class CryptoBenchmark {
+    private static final String TAG = "CryptoBenchmark";
+    private static final String DUMP_SUFFIX = ".bench.json";
+
+    /**
+     * The native speed test, replaced in tests
+     */
+    interface SpeedTest {
+        /**
+         * @return block size, blocks processed and CPU seconds, or null if the test failed
+         */
+        double[] run(String algorithm, int testnum);
+    }
+
+    public interface ProgressListener {
+        void onResult(Result result);
+    }
+
+    private final List<String> mAlgorithms;
+    private final int[] mTestNums;
+    private final int[] mThreadCounts;
+    private final int mWarmup;
+    private final int mRepetitions;
+    private SpeedTest mSpeedTest = NativeUtils::getOpenSSLSpeed;
+
+    /**
+     * @param blockSizes  sizes out of {@link NativeUtils#openSSLlengths}
+     * @param warmup      runs of each combination that are not counted
+     * @param repetitions runs of each combination that are counted
+     */
+    public CryptoBenchmark(List<String> algorithms, int[] blockSizes, int[] threadCounts, int warmup, int repetitions) {
+        if (algorithms.isEmpty() || blockSizes.length == 0 || threadCounts.length == 0 || repetitions < 1 || warmup < 0)
+            throw new IllegalArgumentException("Empty benchmark");
+
+        mAlgorithms = new ArrayList<>(algorithms);
+        mTestNums = new int[blockSizes.length];
+        for (int i = 0; i < blockSizes.length; i++) {
+            mTestNums[i] = getTestNum(blockSizes[i]);
+            if (mTestNums[i] < 0)
+                throw new IllegalArgumentException("Unsupported block size " + blockSizes[i]);
+        }
+        for (int threads : threadCounts)
+            if (threads < 1)
+                throw new IllegalArgumentException("Invalid thread count " + threads);
+        mThreadCounts = threadCounts.clone();
+        mWarmup = warmup;
+        mRepetitions = repetitions;
+    }
+
+    /**
+     * The block sizes relevant for VPN packets with one and up to all cores
+     */
+    public static CryptoBenchmark createDefault(List<String> algorithms) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int[] threads = cores > 1 ? new int[]{1, cores} : new int[]{1};
+        return new CryptoBenchmark(algorithms, new int[]{64, 256, 1024, 1500, 8 * 1024}, threads, 1, 3);
+    }
+
+    void setSpeedTest(SpeedTest speedTest) {
+        mSpeedTest = speedTest;
+    }
+
+    private static int getTestNum(int blockSize) {
+        for (int i = 0; i < NativeUtils.openSSLlengths.length; i++)
+            if (NativeUtils.openSSLlengths[i] == blockSize)
+                return i;
+        return -1;
+    }
+
+    public static class Result {
+        public final String algorithm;
+        public final int blockSize;
+        public final int threads;
+        /* Bytes per second of all threads together, one for each repetition */
+        final double[] mThroughput;
+        public boolean failed;
+        /* mean throughput of this thread count divided by the one of a single thread */
+        public double scaling = Double.NaN;
+
+        Result(String algorithm, int blockSize, int threads, int repetitions) {
+            this.algorithm = algorithm;
+            this.blockSize = blockSize;
+            this.threads = threads;
+            mThroughput = new double[repetitions];
+        }
+
+        public double getMean() {
+            double sum = 0;
+            for (double t : mThroughput)
+                sum += t;
+            return sum / mThroughput.length;
+        }
+
+        /**
+         * @return the nearest-rank percentile of the repetitions
+         */
+        public double getPercentile(int percentile) {
+            double[] sorted = mThroughput.clone();
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+            return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+        }
+
+        JSONObject toJSON() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("algorithm", algorithm);
+            json.put("blockSize", blockSize);
+            json.put("threads", threads);
+            json.put("failed", failed);
+            if (!failed) {
+                JSONArray runs = new JSONArray();
+                for (double t : mThroughput)
+                    runs.put(t);
+                json.put("runs", runs);
+                json.put("mean", getMean());
+                json.put("p50", getPercentile(50));
+                json.put("p99", getPercentile(99));
+                if (!Double.isNaN(scaling))
+                    json.put("scaling", scaling);
+            }
+            return json;
+        }
+
+        @Override
+        public String toString() {
+            if (failed)
+                return String.format(Locale.US, "%s %d bytes %d threads: failed", algorithm, blockSize, threads);
+            return String.format(Locale.US, "%s %d bytes %d threads: mean %.1f MB/s, p50 %.1f MB/s, p99 %.1f MB/s",
+                    algorithm, blockSize, threads, getMean() / 1e6, getPercentile(50) / 1e6, getPercentile(99) / 1e6);
+        }
+    }
+
+    /**
+     * Runs the whole matrix on the calling thread, which must not be the main thread
+     *
+     * @param listener gets every result as soon as it is measured, may be null
+     */
+    public List<Result> run(ProgressListener listener) throws InterruptedException {
+        int maxThreads = 1;
+        for (int threads : mThreadCounts)
+            maxThreads = Math.max(maxThreads, threads);
+        ExecutorService executor = Executors.newFixedThreadPool(maxThreads);
+
+        List<Result> results = new ArrayList<>();
+        try {
+            for (String algorithm : mAlgorithms) {
+                for (int testnum : mTestNums) {
+                    Result single = null;
+                    for (int threads : mThreadCounts) {
+                        Result result = measure(executor, algorithm, testnum, threads);
+                        if (threads == 1)
+                            single = result;
+                        else if (single != null && !single.failed && !result.failed)
+                            result.scaling = result.getMean() / single.getMean();
+                        results.add(result);
+                        if (listener != null)
+                            listener.onResult(result);
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+    private Result measure(ExecutorService executor, String algorithm, int testnum, int threads) throws InterruptedException {
+        Result result = new Result(algorithm, NativeUtils.openSSLlengths[testnum], threads, mRepetitions);
+        for (int i = -mWarmup; i < mRepetitions; i++) {
+            double throughput = runParallel(executor, algorithm, testnum, threads);
+            if (throughput < 0) {
+                result.failed = true;
+                break;
+            }
+            if (i >= 0)
+                result.mThroughput[i] = throughput;
+        }
+        return result;
+    }
+
+    /**
+     * @return bytes per second of all threads together or -1 if a thread failed
+     */
+    private double runParallel(ExecutorService executor, String algorithm, int testnum, int threads) throws InterruptedException {
+        List<Future<double[]>> runs = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++)
+            runs.add(executor.submit(() -> mSpeedTest.run(algorithm, testnum)));
+
+        double bytes = 0;
+        boolean failed = false;
+        for (Future<double[]> run : runs) {
+            try {
+                double[] speed = run.get();
+                if (speed == null || speed[2] <= 0)
+                    failed = true;
+                else
+                    bytes += speed[0] * speed[1];
+            } catch (ExecutionException e) {
+                Log.w(TAG, "Speed test of " + algorithm + " failed", e.getCause());
+                failed = true;
+            }
+        }
+        /* The threads run in parallel, so the wall clock is what the combined rate is based on */
+        long elapsed = System.nanoTime() - start;
+        if (failed || elapsed <= 0)
+            return -1;
+        return bytes * 1e9 / elapsed;
+    }
+
+    public static JSONObject toJSON(List<Result> results) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("device", Build.MANUFACTURER + " " + Build.MODEL);
+        json.put("abis", new JSONArray(Arrays.asList(Build.SUPPORTED_ABIS)));
+        json.put("cores", Runtime.getRuntime().availableProcessors());
+        json.put("time", System.currentTimeMillis());
+        JSONArray array = new JSONArray();
+        for (Result result : results)
+            array.put(result.toJSON());
+        json.put("results", array);
+        return json;
+    }
+
+    /**
+     * Writes the results to logcat, where they can be picked up with adb on a device without UI
+     */
+    public static void logResults(List<Result> results) throws JSONException {
+        for (Result result : results)
+            Log.i(TAG, result.toString());
+        Log.i(TAG, toJSON(results).toString());
+    }
+
+    /**
+     * Writes the results to a new file that can be shared by {@link de.blinkt.openvpn.FileProvider}
+     * and removes older results
+     */
+    public static File writeResults(File dir, List<Result> results) throws IOException, JSONException {
+        File[] old = dir.listFiles((d, name) -> name.endsWith(DUMP_SUFFIX));
+        if (old != null)
+            for (File f : old)
+                //noinspection ResultOfMethodCallIgnored
+                f.delete();
+
+        File dump = new File(dir, UUID.randomUUID() + DUMP_SUFFIX);
+        try (Writer writer = new FileWriter(dump)) {
+            writer.write(toJSON(results).toString(2));
+        }
+        return dump;
+    }
+}
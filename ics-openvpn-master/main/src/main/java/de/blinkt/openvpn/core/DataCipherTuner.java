@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import de.blinkt.openvpn.BuildConfig;
+import de.blinkt.openvpn.VpnProfile;
+
+/**
+ * Orders the data ciphers of a profile by the speed they have on this device. Without AES
+ * instructions ChaCha20-Poly1305 is much faster than AES-GCM, with them it is the other way
+ * round. The speeds are measured once per device and app version in the background with
+ * the OpenSSL speed test and kept in the preferences, until then the order is not changed.
+ */
+public class DataCipherTuner {
+    private static final String PREFS_NAME = "data_cipher_speed";
+    private static final String PREF_DEVICE = "device";
+    /* Close to the size of the packets in the tunnel */
+    private static final int BLOCK_SIZE = 1500;
+
+    private static final Executor sExecutor = Executors.newSingleThreadExecutor();
+    private static boolean sMeasuring = false;
+
+    /**
+     * @param dataCiphers colon separated list like the data-ciphers option
+     * @return the ciphers ordered by speed or the unchanged list if not all of them have been
+     * measured yet
+     */
+    public static String orderDataCiphers(Context c, String dataCiphers) {
+        if (TextUtils.isEmpty(dataCiphers) || BuildConfig.FLAVOR.equals("skeleton") || NativeUtils.isRoboUnitTest())
+            return dataCiphers;
+
+        String[] ciphers = dataCiphers.split(":");
+        Map<String, Float> speeds = getMeasuredSpeeds(c);
+        List<String> missing = new ArrayList<>();
+        for (String cipher : ciphers)
+            if (!speeds.containsKey(normalise(cipher)))
+                missing.add(cipher);
+
+        if (!missing.isEmpty()) {
+            measure(c.getApplicationContext(), missing);
+            return dataCiphers;
+        }
+
+        String ordered = sortBySpeed(ciphers, speeds);
+        StringBuilder log = new StringBuilder();
+        for (String cipher : ordered.split(":")) {
+            float speed = speeds.get(normalise(cipher));
+            if (log.length() > 0)
+                log.append(", ");
+            if (speed > 0)
+                log.append(String.format(Locale.US, "%s %.1f MB/s", cipher, speed / 1e6));
+            else
+                log.append(cipher).append(" not measured");
+        }
+        VpnStatus.logInfo("Data ciphers ordered by speed on this device: " + log);
+        return ordered;
+    }
+
+    /**
+     * Sorts by speed, fastest first. Ciphers that could not be measured (speed 0) keep
+     * their order at the end.
+     */
+    static String sortBySpeed(String[] ciphers, Map<String, Float> speeds) {
+        String[] sorted = ciphers.clone();
+        /* Arrays.sort is stable for objects */
+        Arrays.sort(sorted, (a, b) -> Float.compare(getSpeed(speeds, b), getSpeed(speeds, a)));
+        return TextUtils.join(":", sorted);
+    }
+
+    private static float getSpeed(Map<String, Float> speeds, String cipher) {
+        Float speed = speeds.get(normalise(cipher));
+        return speed == null ? 0 : speed;
+    }
+
+    private static String normalise(String cipher) {
+        return cipher.trim().toUpperCase(Locale.ROOT);
+    }
+
+    private static String getDeviceKey(Context c) {
+        return Build.FINGERPRINT + " " + VpnProfile.getVersionEnvString(c);
+    }
+
+    private static Map<String, Float> getMeasuredSpeeds(Context c) {
+        SharedPreferences prefs = Preferences.getSharedPreferencesMulti(PREFS_NAME, c);
+        Map<String, Float> speeds = new HashMap<>();
+        /* A new app version may come with a different OpenSSL, a system update might
+         * change the CPU features the kernel exposes */
+        if (!getDeviceKey(c).equals(prefs.getString(PREF_DEVICE, null)))
+            return speeds;
+
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet())
+            if (entry.getValue() instanceof Float)
+                speeds.put(entry.getKey(), (Float) entry.getValue());
+        return speeds;
+    }
+
+    private static synchronized void measure(final Context c, final List<String> ciphers) {
+        if (sMeasuring)
+            return;
+        sMeasuring = true;
+        VpnStatus.logInfo("Measuring the speed of the data ciphers " + TextUtils.join(", ", ciphers)
+                + ", the order is tuned from the next connection on");
+
+        sExecutor.execute(() -> {
+            try {
+                CryptoBenchmark benchmark = new CryptoBenchmark(ciphers, new int[]{BLOCK_SIZE}, new int[]{1}, 0, 1);
+                List<CryptoBenchmark.Result> results = benchmark.run(null);
+
+                SharedPreferences prefs = Preferences.getSharedPreferencesMulti(PREFS_NAME, c);
+                SharedPreferences.Editor editor = prefs.edit();
+                String device = getDeviceKey(c);
+                if (!device.equals(prefs.getString(PREF_DEVICE, null)))
+                    editor.clear().putString(PREF_DEVICE, device);
+                for (CryptoBenchmark.Result result : results)
+                    editor.putFloat(normalise(result.algorithm), result.failed ? 0 : (float) result.getMean());
+                editor.apply();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                synchronized (DataCipherTuner.class) {
+                    sMeasuring = false;
+                }
+            }
+        });
+    }
+}
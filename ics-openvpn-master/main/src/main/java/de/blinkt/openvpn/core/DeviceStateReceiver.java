@@ -43,6 +43,9 @@ public class DeviceStateReceiver extends BroadcastReceiver implements ByteCountL
     connectState screen = connectState.SHOULDBECONNECTED;
     connectState userpause = connectState.SHOULDBECONNECTED;
 
+    /* Actual screen state, independent of the screen off pause setting */
+    private volatile boolean mScreenOn = true;
+
     private String lastStateMsg = null;
     private final java.lang.Runnable mDelayDisconnectRunnable = new Runnable() {
         @Override
@@ -143,6 +146,7 @@ public class DeviceStateReceiver extends BroadcastReceiver implements ByteCountL
         if (ConnectivityManager.CONNECTIVITY_ACTION.equals(intent.getAction())) {
             networkStateChange(context);
         } else if (Intent.ACTION_SCREEN_OFF.equals(intent.getAction())) {
+            mScreenOn = false;
             boolean screenOffPause = prefs.getBoolean("screenoff", false);
 
             if (screenOffPause) {
@@ -155,6 +159,7 @@ public class DeviceStateReceiver extends BroadcastReceiver implements ByteCountL
                     screen = connectState.DISCONNECTED;
             }
         } else if (Intent.ACTION_SCREEN_ON.equals(intent.getAction())) {
+            mScreenOn = true;
             // Network was disabled because screen off
             boolean connected = shouldBeConnected();
             screen = connectState.SHOULDBECONNECTED;
@@ -269,6 +274,10 @@ public class DeviceStateReceiver extends BroadcastReceiver implements ByteCountL
     }
 
 
+    public boolean isScreenOn() {
+        return mScreenOn;
+    }
+
     public boolean isUserPaused() {
         return userpause == connectState.DISCONNECTED;
     }
@@ -114,20 +114,14 @@ public class ExtAuthHelper {
     {
 
 
-        try (ExternalAuthProviderConnection authProviderConnection =
-                     bindToExtAuthProvider(context.getApplicationContext(), extAuthPackageName)) {
-            ExternalCertificateProvider externalAuthProvider = authProviderConnection.getService();
-
+        return ExtAuthProviderPool.call(context, extAuthPackageName, "getSignedData", externalAuthProvider -> {
             byte[] result = externalAuthProvider.getSignedDataWithExtra(alias, data, extra);
             // When the desired method is not implemented, a default implementation is called, returning null
             if (result == null)
                 result = externalAuthProvider.getSignedData(alias, data);
 
             return result;
-
-        } catch (RemoteException e) {
-            throw new KeyChainException(e);
-        }
+        });
     }
 
     @Nullable
@@ -136,17 +130,16 @@ public class ExtAuthHelper {
                                                         @NonNull String extAuthPackageName,
                                                         @NonNull String alias) throws KeyChainException {
 
-        final byte[] certificateBytes;
-        try (ExternalAuthProviderConnection authProviderConnection = bindToExtAuthProvider(context.getApplicationContext(), extAuthPackageName)) {
-            ExternalCertificateProvider externalAuthProvider = authProviderConnection.getService();
-            certificateBytes = externalAuthProvider.getCertificateChain(alias);
+        try {
+            final byte[] certificateBytes = ExtAuthProviderPool.call(context, extAuthPackageName, "getCertificateChain",
+                    externalAuthProvider -> externalAuthProvider.getCertificateChain(alias));
             if (certificateBytes == null) {
                 return null;
             }
             Collection<X509Certificate> chain = toCertificates(certificateBytes);
             return chain.toArray(new X509Certificate[chain.size()]);
 
-        } catch (RemoteException | RuntimeException | InterruptedException e) {
+        } catch (RuntimeException | InterruptedException e) {
             throw new KeyChainException(e);
         }
     }
@@ -155,11 +148,11 @@ public class ExtAuthHelper {
                                                 @NonNull String extAuthPackageName,
                                                 String alias) throws KeyChainException
     {
-        try (ExternalAuthProviderConnection authProviderConnection = bindToExtAuthProvider(context.getApplicationContext(), extAuthPackageName)) {
-            ExternalCertificateProvider externalAuthProvider = authProviderConnection.getService();
-            return externalAuthProvider.getCertificateMetaData(alias);
+        try {
+            return ExtAuthProviderPool.call(context, extAuthPackageName, "getCertificateMetaData",
+                    externalAuthProvider -> externalAuthProvider.getCertificateMetaData(alias));
 
-        } catch (RemoteException | RuntimeException | InterruptedException e) {
+        } catch (RuntimeException | InterruptedException e) {
             throw new KeyChainException(e);
         }
     }
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2012-2018 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import android.content.Context;
+import android.os.DeadObjectException;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.security.KeyChainException;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import de.blinkt.openvpn.api.ExternalCertificateProvider;
+
+/**
+ * Keeps the bindings to external certificate providers open between calls. Binding for
+ * every signature costs 100 ms or more when the provider process has to be started, which
+ * every renegotiation and reconnect would pay. A binding is closed after it has not been
+ * used for {@link #IDLE_TIMEOUT_MS} or when the provider process dies, the next call binds
+ * again.
+ */
+class ExtAuthProviderPool {
+    static final long IDLE_TIMEOUT_MS = 60 * 1000;
+
+    private static final HashMap<String, Binding> sBindings = new HashMap<>();
+    private static final Object sBindLock = new Object();
+    /* "package method" -> latency of the calls */
+    private static final TreeMap<String, LatencyHistogram> sLatencies = new TreeMap<>();
+    private static Handler sIdleHandler;
+
+    interface ProviderCall<T> {
+        T call(ExternalCertificateProvider provider) throws RemoteException;
+    }
+
+    private static class Binding implements IBinder.DeathRecipient {
+        final String mPackageName;
+        final ExtAuthHelper.ExternalAuthProviderConnection mConnection;
+        int mUsers;
+        boolean mClosed;
+        final Runnable mIdleRunnable = () -> closeIfIdle(this);
+
+        Binding(String packageName, ExtAuthHelper.ExternalAuthProviderConnection connection) {
+            mPackageName = packageName;
+            mConnection = connection;
+        }
+
+        @Override
+        public void binderDied() {
+            VpnStatus.logDebug("External auth provider " + mPackageName + " died");
+            close(this);
+        }
+    }
+
+    /**
+     * Runs call with the provider of packageName, binding to the provider if there is no
+     * binding yet. A call that fails because the provider died in the meantime is repeated
+     * once with a new binding.
+     */
+    @WorkerThread
+    static <T> T call(@NonNull Context context, @NonNull String packageName, @NonNull String method,
+                      @NonNull ProviderCall<T> call) throws KeyChainException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            Binding binding = acquire(context, packageName);
+            long start = SystemClock.elapsedRealtime();
+            try {
+                T result = call.call(binding.mConnection.getService());
+                recordLatency(packageName, method, SystemClock.elapsedRealtime() - start);
+                return result;
+            } catch (DeadObjectException e) {
+                close(binding);
+                if (attempt > 0)
+                    throw new KeyChainException(e);
+            } catch (RemoteException e) {
+                throw new KeyChainException(e);
+            } finally {
+                release(binding);
+            }
+        }
+    }
+
+    /* Only one thread binds at a time so a package is bound only once. The lock of the
+     * class must not be held while binding since the main thread that delivers the
+     * connection needs it for closing idle bindings */
+    private static Binding acquire(Context context, String packageName) throws KeyChainException, InterruptedException {
+        synchronized (sBindLock) {
+            Binding binding = getUsable(packageName);
+            if (binding != null)
+                return binding;
+
+            long start = SystemClock.elapsedRealtime();
+            ExtAuthHelper.ExternalAuthProviderConnection connection = ExtAuthHelper.bindToExtAuthProvider(context.getApplicationContext(), packageName);
+            recordLatency(packageName, "bind", SystemClock.elapsedRealtime() - start);
+
+            binding = new Binding(packageName, connection);
+            try {
+                connection.getService().asBinder().linkToDeath(binding, 0);
+            } catch (RemoteException e) {
+                /* Already dead, the call will fail and bind again */
+            }
+            synchronized (ExtAuthProviderPool.class) {
+                sBindings.put(packageName, binding);
+                binding.mUsers++;
+            }
+            return binding;
+        }
+    }
+
+    private static synchronized Binding getUsable(String packageName) {
+        Binding binding = sBindings.get(packageName);
+        if (binding == null)
+            return null;
+        if (!binding.mConnection.getService().asBinder().isBinderAlive()) {
+            close(binding);
+            return null;
+        }
+        binding.mUsers++;
+        getIdleHandler().removeCallbacks(binding.mIdleRunnable);
+        return binding;
+    }
+
+    private static synchronized void release(Binding binding) {
+        binding.mUsers--;
+        if (binding.mUsers == 0 && !binding.mClosed)
+            getIdleHandler().postDelayed(binding.mIdleRunnable, IDLE_TIMEOUT_MS);
+    }
+
+    private static synchronized void closeIfIdle(Binding binding) {
+        if (binding.mUsers == 0 && !binding.mClosed) {
+            VpnStatus.logDebug("Closing idle binding to external auth provider " + binding.mPackageName + ", " + getLatencySummary(binding.mPackageName));
+            close(binding);
+        }
+    }
+
+    private static synchronized void close(Binding binding) {
+        if (binding.mClosed)
+            return;
+        binding.mClosed = true;
+        if (sBindings.get(binding.mPackageName) == binding)
+            sBindings.remove(binding.mPackageName);
+        getIdleHandler().removeCallbacks(binding.mIdleRunnable);
+
+        binding.mConnection.getService().asBinder().unlinkToDeath(binding, 0);
+        try {
+            binding.mConnection.close();
+        } catch (IllegalArgumentException e) {
+            // Service not registered, the binding has already been removed by Android
+        }
+    }
+
+    /**
+     * Closes all bindings, e.g. when the VPN is stopped
+     */
+    static synchronized void closeAll() {
+        for (Binding binding : new ArrayList<>(sBindings.values()))
+            close(binding);
+    }
+
+    private static synchronized void recordLatency(String packageName, String method, long ms) {
+        String key = packageName + " " + method;
+        LatencyHistogram histogram = sLatencies.get(key);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            sLatencies.put(key, histogram);
+        }
+        histogram.record(ms);
+    }
+
+    /**
+     * @return the latencies of the calls to the provider per method
+     */
+    static synchronized String getLatencySummary(String packageName) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, LatencyHistogram> entry : sLatencies.entrySet()) {
+            if (!entry.getKey().startsWith(packageName + " "))
+                continue;
+            if (sb.length() > 0)
+                sb.append("; ");
+            sb.append(entry.getKey().substring(packageName.length() + 1)).append(": ").append(entry.getValue().getSummary());
+        }
+        return sb.toString();
+    }
+
+    private static Handler getIdleHandler() {
+        if (sIdleHandler == null)
+            sIdleHandler = new Handler(Looper.getMainLooper());
+        return sIdleHandler;
+    }
+}
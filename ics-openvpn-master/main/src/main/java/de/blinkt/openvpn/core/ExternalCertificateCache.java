@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the certificates that have been fetched from the key chain or an external auth
+ * app (already converted to PEM) for {@link #EXPIRY_MS}, so a reconnect does not have to
+ * ask for them again, and fetches them in the background while the OpenVPN process starts.
+ */
+public class ExternalCertificateCache {
+    static final long EXPIRY_MS = 10 * 60 * 1000;
+
+    private static final HashMap<String, Entry> sCache = new HashMap<>();
+    /* One thread is enough, it exits when nothing has been fetched for a while */
+    private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+
+    static {
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private static class Entry {
+        final String[] mCertificates;
+        final long mFetched;
+
+        Entry(String[] certificates, long fetched) {
+            mCertificates = certificates;
+            mFetched = fetched;
+        }
+    }
+
+    /**
+     * @param key identifies the certificate source, e.g. the provider and alias
+     * @return the certificates or null if there are none or they have expired
+     */
+    public static synchronized String[] get(String key) {
+        Entry entry = sCache.get(key);
+        if (entry == null)
+            return null;
+        if (SystemClock.elapsedRealtime() - entry.mFetched > EXPIRY_MS) {
+            sCache.remove(key);
+            return null;
+        }
+        return entry.mCertificates.clone();
+    }
+
+    public static synchronized void put(String key, String[] certificates) {
+        sCache.put(key, new Entry(certificates.clone(), SystemClock.elapsedRealtime()));
+    }
+
+    public static synchronized void clear() {
+        sCache.clear();
+    }
+
+    public static Future<String[]> fetch(Callable<String[]> fetcher) {
+        return sExecutor.submit(fetcher);
+    }
+}
@@ -15,6 +15,7 @@ import android.graphics.Color;
 import android.os.Build;
 
 import android.os.StrictMode;
+import android.os.Trace;
 import android.os.strictmode.Violation;
 
 import androidx.annotation.NonNull;
@@ -37,15 +38,25 @@ public class ICSOpenVPNApplication extends Application {
         if("robolectric".equals(Build.FINGERPRINT))
             return;
 
-        LocaleHelper.setDesiredLocale(this);
-        super.onCreate();
+        /* Cold start of the UI and the :openvpn process in system traces */
+        Trace.beginSection("ICSOpenVPNApplication.onCreate");
+        try {
+            LocaleHelper.setDesiredLocale(this);
+            super.onCreate();
 
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
-            createNotificationChannels();
-        mStatus = new StatusListener();
-        mStatus.init(getApplicationContext());
+            /* The keystore is slow, get the key for the profiles before the first
+             * activity or the service asks for them */
+            ProfileEncryption.initMasterCryptAlias(this);
 
-        AppRestrictions.getInstance(this).checkRestrictions(this);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+                createNotificationChannels();
+            mStatus = new StatusListener();
+            mStatus.init(getApplicationContext());
+
+            AppRestrictions.getInstance(this).checkRestrictions(this);
+        } finally {
+            Trace.endSection();
+        }
     }
 
     @Override
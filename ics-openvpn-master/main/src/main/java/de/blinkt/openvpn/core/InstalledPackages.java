@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageInfo;
+import android.net.Uri;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Vector;
+
+/**
+ * Set of the installed packages, so the allowed/disallowed apps of a profile can be
+ * checked without asking the PackageManager for every single app. The set is read once
+ * and then kept current by the package added/removed broadcasts.
+ */
+public class InstalledPackages extends BroadcastReceiver {
+    private static InstalledPackages sInstance;
+
+    private final HashSet<String> mPackages = new HashSet<>();
+
+    private InstalledPackages() {
+    }
+
+    public static synchronized InstalledPackages getInstance(Context c) {
+        if (sInstance == null) {
+            InstalledPackages installed = new InstalledPackages();
+            Context appContext = c.getApplicationContext();
+
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+            filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+            filter.addDataScheme("package");
+            /* Register first, so no package that is installed while we read the list is missed */
+            appContext.registerReceiver(installed, filter);
+
+            for (PackageInfo pi : appContext.getPackageManager().getInstalledPackages(0))
+                installed.add(pi.packageName);
+            sInstance = installed;
+        }
+        return sInstance;
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        Uri data = intent.getData();
+        if (data == null)
+            return;
+        String packageName = data.getSchemeSpecificPart();
+
+        if (Intent.ACTION_PACKAGE_ADDED.equals(intent.getAction())) {
+            add(packageName);
+        } else if (Intent.ACTION_PACKAGE_REMOVED.equals(intent.getAction())
+                && !intent.getBooleanExtra(Intent.EXTRA_REPLACING, false)) {
+            synchronized (this) {
+                mPackages.remove(packageName);
+            }
+        }
+    }
+
+    private synchronized void add(String packageName) {
+        mPackages.add(packageName);
+    }
+
+    public synchronized boolean isInstalled(String packageName) {
+        return mPackages.contains(packageName);
+    }
+
+    /**
+     * Splits packages into installed and missing packages
+     *
+     * @param installed gets the installed packages
+     * @param missing   gets the packages that are not installed
+     */
+    public synchronized void partition(Collection<String> packages, Collection<String> installed, Vector<String> missing) {
+        for (String pkg : packages) {
+            if (mPackages.contains(pkg))
+                installed.add(pkg);
+            else
+                missing.add(pkg);
+        }
+    }
+}
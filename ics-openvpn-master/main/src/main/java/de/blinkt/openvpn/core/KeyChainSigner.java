@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PSSParameterSpec;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+
+/**
+ * Signs the data of the TLS handshakes with a key from the key chain. Looking up the
+ * provider of the key and initialising an engine with the key costs more than the
+ * signature itself, so the initialised engines are kept for the following handshakes of
+ * the key. Only the {@link #MAX_ENGINES} engines that have been used last are kept.
+ */
+public class KeyChainSigner {
+    static final int MAX_ENGINES = 8;
+
+    public static final PSSParameterSpec PSS_SHA256 = new PSSParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA256, 32, 1);
+    public static final PSSParameterSpec PSS_SHA384 = new PSSParameterSpec("SHA-384", "MGF1", MGF1ParameterSpec.SHA384, 48, 1);
+    public static final PSSParameterSpec PSS_SHA512 = new PSSParameterSpec("SHA-512", "MGF1", MGF1ParameterSpec.SHA512, 64, 1);
+
+    private static final Executor sWarmUpExecutor = Executors.newSingleThreadExecutor();
+
+    private final PrivateKey mKey;
+    private final String mKeyAlgorithm;
+    /* Cipher or Signature initialised with the key, access order for evicting the oldest */
+    private final LinkedHashMap<String, Object> mEngines = new LinkedHashMap<String, Object>(MAX_ENGINES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+            return size() > MAX_ENGINES;
+        }
+    };
+
+    public KeyChainSigner(PrivateKey key) {
+        mKey = key;
+        mKeyAlgorithm = key.getAlgorithm();
+    }
+
+    public PrivateKey getKey() {
+        return mKey;
+    }
+
+    public String getKeyAlgorithm() {
+        return mKeyAlgorithm;
+    }
+
+    /**
+     * @return the PSS parameters for a digest like SHA256 or null if there are none
+     */
+    public static PSSParameterSpec getPSSParameterSpec(String digest) {
+        switch (digest) {
+            case "SHA256":
+                return PSS_SHA256;
+            case "SHA384":
+                return PSS_SHA384;
+            case "SHA512":
+                return PSS_SHA512;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Encrypts data with the private key, i.e. a raw RSA signature
+     */
+    public synchronized byte[] encrypt(String transformation, byte[] data) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+        Cipher cipher = getCipher(transformation);
+
+        /* doFinal leaves the cipher initialised for the next call */
+        boolean success = false;
+        try {
+            byte[] result = cipher.doFinal(data);
+            success = true;
+            return result;
+        } finally {
+            if (!success)
+                mEngines.remove(cipherKey(transformation));
+        }
+    }
+
+    /**
+     * @param pssParams parameters for a PSS signature or null
+     */
+    public synchronized byte[] sign(String algorithm, PSSParameterSpec pssParams, byte[] data) throws NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException, SignatureException {
+        Signature signature = getSignature(algorithm, pssParams);
+
+        /* sign resets the signature to the state after initSign */
+        boolean success = false;
+        try {
+            signature.update(data);
+            byte[] result = signature.sign();
+            success = true;
+            return result;
+        } finally {
+            if (!success)
+                mEngines.remove(signatureKey(algorithm, pssParams));
+        }
+    }
+
+    private Cipher getCipher(String transformation) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException {
+        Cipher cipher = (Cipher) mEngines.get(cipherKey(transformation));
+        if (cipher == null) {
+            cipher = Cipher.getInstance(transformation);
+            cipher.init(Cipher.ENCRYPT_MODE, mKey);
+            mEngines.put(cipherKey(transformation), cipher);
+        }
+        return cipher;
+    }
+
+    private Signature getSignature(String algorithm, PSSParameterSpec pssParams) throws NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException {
+        Signature signature = (Signature) mEngines.get(signatureKey(algorithm, pssParams));
+        if (signature == null) {
+            signature = Signature.getInstance(algorithm);
+            if (pssParams != null)
+                signature.setParameter(pssParams);
+            signature.initSign(mKey);
+            mEngines.put(signatureKey(algorithm, pssParams), signature);
+        }
+        return signature;
+    }
+
+    private static String cipherKey(String transformation) {
+        return "Cipher " + transformation;
+    }
+
+    private static String signatureKey(String algorithm, PSSParameterSpec pssParams) {
+        if (pssParams == null)
+            return "Signature " + algorithm;
+        return "Signature " + algorithm + " " + pssParams.getDigestAlgorithm() + " " + pssParams.getSaltLength();
+    }
+
+    synchronized int getEngineCount() {
+        return mEngines.size();
+    }
+
+    /**
+     * Initialises the engines for the signatures that TLS 1.2/1.3 handshakes use most in the
+     * background, so the first handshake does not have to wait for it
+     */
+    public void warmUp() {
+        sWarmUpExecutor.execute(() -> {
+            try {
+                synchronized (this) {
+                    if (mKeyAlgorithm.equals("EC"))
+                        getSignature("SHA256withECDSA", null);
+                    else if (mKeyAlgorithm.equals("RSA"))
+                        getCipher("RSA/ECB/PKCS1PADDING");
+                }
+            } catch (GeneralSecurityException | RuntimeException e) {
+                /* The handshake will try again and report the error */
+            }
+        });
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Histogram of durations in milliseconds with logarithmic buckets in the style of
+ * HdrHistogram. Values below 32 ms are counted exactly, above that every power of two is
+ * split into 16 buckets, so a value read back is at most 1/16 (about 6%) too high.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    /* Everything above ~17 minutes ends up in the last bucket */
+    static final long MAX_VALUE = (1L << 20) - 1;
+
+    private final long[] mCounts = new long[getBucketIndex(MAX_VALUE) + 1];
+    private long mTotalCount;
+    private long mMax;
+
+    static int getBucketIndex(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - SUB_BUCKET_BITS + 1;
+        int sub = (int) (value >>> shift);
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + sub - HALF_SUB_BUCKETS;
+    }
+
+    /**
+     * @return the highest value that is counted in the bucket
+     */
+    static long getBucketValue(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+
+        int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        long sub = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    public void record(long valueMs) {
+        long value = Math.min(Math.max(valueMs, 0), MAX_VALUE);
+        mCounts[getBucketIndex(value)]++;
+        mTotalCount++;
+        mMax = Math.max(mMax, value);
+    }
+
+    public long getTotalCount() {
+        return mTotalCount;
+    }
+
+    public long getMax() {
+        return mMax;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the value below which percentile percent of the recorded values are
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (mTotalCount == 0)
+            return 0;
+
+        long countAtPercentile = Math.max(1, (long) Math.ceil(percentile / 100.0 * mTotalCount));
+        long count = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            count += mCounts[i];
+            if (count >= countAtPercentile)
+                return Math.min(getBucketValue(i), mMax);
+        }
+        return mMax;
+    }
+
+    public String getSummary() {
+        return String.format(Locale.US, "p50 %d ms, p90 %d ms, max %d ms (n=%d)",
+                getValueAtPercentile(50), getValueAtPercentile(90), mMax, mTotalCount);
+    }
+
+    /* Only the used buckets are written */
+    void writeTo(DataOutputStream out) throws IOException {
+        int used = 0;
+        for (long c : mCounts)
+            if (c > 0)
+                used++;
+
+        out.writeLong(mMax);
+        out.writeInt(used);
+        for (int i = 0; i < mCounts.length; i++) {
+            if (mCounts[i] > 0) {
+                out.writeShort(i);
+                out.writeLong(mCounts[i]);
+            }
+        }
+    }
+
+    static LatencyHistogram readFrom(DataInputStream in) throws IOException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.mMax = in.readLong();
+        int used = in.readInt();
+        for (int i = 0; i < used; i++) {
+            int index = in.readShort();
+            long count = in.readLong();
+            if (index < 0 || index >= histogram.mCounts.length || count < 0)
+                throw new IOException("Invalid histogram bucket " + index);
+            histogram.mCounts[index] += count;
+            histogram.mTotalCount += count;
+        }
+        return histogram;
+    }
+}
@@ -32,6 +32,7 @@ import java.util.Arrays;
 import java.util.FormatFlagsConversionMismatchException;
 import java.util.Locale;
 import java.util.MissingFormatArgumentException;
+import java.util.Objects;
 import java.util.UnknownFormatConversionException;
 import java.util.Vector;
 
@@ -91,14 +92,44 @@ public class LogItem implements Parcelable {
             return obj.equals(this);
         LogItem other = (LogItem) obj;
 
+        return isRepeatOf(other) && logtime == other.logtime;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * contentHashCode() + Long.hashCode(logtime);
+    }
+
+    /**
+     * Compares everything but the log time. Two items that are repeats of
+     * each other will render to the same message.
+     */
+    boolean isRepeatOf(LogItem other) {
         return Arrays.equals(mArgs, other.mArgs) &&
-                ((other.mMessage == null && mMessage == other.mMessage) ||
-                        mMessage.equals(other.mMessage)) &&
+                Objects.equals(mMessage, other.mMessage) &&
                 mRessourceId == other.mRessourceId &&
-                ((mLevel == null && other.mLevel == mLevel) ||
-                        other.mLevel.equals(mLevel)) &&
-                mVerbosityLevel == other.mVerbosityLevel &&
-                logtime == other.logtime;
+                mLevel == other.mLevel &&
+                mVerbosityLevel == other.mVerbosityLevel;
+    }
+
+    private int contentHashCode() {
+        int result = Arrays.hashCode(mArgs);
+        result = 31 * result + Objects.hashCode(mMessage);
+        result = 31 * result + mRessourceId;
+        result = 31 * result + Objects.hashCode(mLevel);
+        result = 31 * result + mVerbosityLevel;
+        return result;
+    }
+
+    /**
+     * Creates the syslog style "last message repeated n times" item that
+     * replaces the folded repetitions of repeated
+     */
+    static LogItem repeatSummary(LogItem repeated, int count, long firstRepeat, long lastRepeat) {
+        LogItem li = new LogItem(repeated.mLevel, R.string.log_message_repeated, count, firstRepeat, lastRepeat);
+        li.mVerbosityLevel = repeated.mVerbosityLevel;
+        li.logtime = lastRepeat;
+        return li;
     }
 
     public byte[] getMarschaledBytes() throws UnsupportedEncodingException, BufferOverflowException {
@@ -153,7 +184,11 @@ public class LogItem implements Parcelable {
     }
 
     public LogItem(byte[] in, int length) throws UnsupportedEncodingException {
-        ByteBuffer bb = ByteBuffer.wrap(in, 0, length);
+        this(in, 0, length);
+    }
+
+    public LogItem(byte[] in, int offset, int length) throws UnsupportedEncodingException {
+        ByteBuffer bb = ByteBuffer.wrap(in, offset, length);
         bb.get(); // ignore version
         logtime = bb.getLong();
         mVerbosityLevel = bb.getInt();
@@ -6,23 +6,204 @@
 package de.blinkt.openvpn.core;
 
 import android.annotation.TargetApi;
+import android.content.Context;
 import android.net.ConnectivityManager;
+import android.net.LinkAddress;
 import android.net.LinkProperties;
 import android.net.Network;
 import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
 import android.os.Build;
 
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Logs changes of the networks and keeps track of the addresses of the local (non VPN,
+ * non mobile) networks, so the tun setup can read them without asking the system server
+ * for every network.
+ */
 public class LollipopDeviceStateListener extends ConnectivityManager.NetworkCallback {
 
+    private static LollipopDeviceStateListener sLocalNetworkListener;
+
     private String mLastConnectedStatus;
     private String mLastLinkProperties;
     private String mLastNetworkCapabilities;
+    private final boolean mLogChanges;
+
+    public LollipopDeviceStateListener() {
+        this(true);
+    }
+
+    private LollipopDeviceStateListener(boolean logChanges) {
+        mLogChanges = logChanges;
+    }
+
+    /**
+     * Address and prefix length of an address of a local network
+     */
+    public static final class LocalPrefix {
+        public final String address;
+        public final int prefixLength;
+        private final String mString;
+
+        LocalPrefix(LinkAddress la) {
+            address = la.getAddress().getHostAddress();
+            prefixLength = la.getPrefixLength();
+
+            NetworkSpace.IpAddress ipaddress;
+            if (la.getAddress() instanceof Inet6Address)
+                ipaddress = new NetworkSpace.IpAddress((Inet6Address) la.getAddress(), prefixLength, true);
+            else
+                ipaddress = new NetworkSpace.IpAddress(new CIDRIP(address, prefixLength), true);
+            mString = ipaddress.toString();
+        }
+
+        @Override
+        public String toString() {
+            return mString;
+        }
+    }
+
+    /**
+     * Immutable view of the local networks at one point in time
+     */
+    public static final class LocalNetworks {
+        static final LocalNetworks EMPTY = new LocalNetworks(Collections.<LocalPrefix>emptyList(), Collections.<LocalPrefix>emptyList());
+
+        public final List<LocalPrefix> ipv4;
+        public final List<LocalPrefix> ipv6;
+
+        LocalNetworks(List<LocalPrefix> ipv4, List<LocalPrefix> ipv6) {
+            this.ipv4 = ipv4;
+            this.ipv6 = ipv6;
+        }
+
+        public List<LocalPrefix> get(boolean ipv6) {
+            return ipv6 ? this.ipv6 : ipv4;
+        }
+    }
+
+    private static class NetworkState {
+        /* Unknown capabilities are treated like a network that is not local */
+        boolean local;
+        final List<LocalPrefix> ipv4 = new ArrayList<>();
+        final List<LocalPrefix> ipv6 = new ArrayList<>();
+    }
+
+    private final HashMap<Network, NetworkState> mNetworks = new HashMap<>();
+    private volatile LocalNetworks mLocalNetworks = LocalNetworks.EMPTY;
+
+    /**
+     * Returns the local networks. The first call registers a listener that keeps the
+     * networks up to date, later calls only return the current snapshot.
+     */
+    public static LocalNetworks getLocalNetworks(Context c) {
+        LollipopDeviceStateListener listener;
+        synchronized (LollipopDeviceStateListener.class) {
+            if (sLocalNetworkListener == null) {
+                ConnectivityManager conn = (ConnectivityManager) c.getApplicationContext().getSystemService(Context.CONNECTIVITY_SERVICE);
+                /* Capabilities change often (e.g. signal strength), do not log them */
+                listener = new LollipopDeviceStateListener(false);
+                try {
+                    conn.registerNetworkCallback(getAllNetworksRequest(), listener);
+                } catch (SecurityException | IllegalArgumentException e) {
+                    VpnStatus.logException("Registering network callback", e);
+                    listener.addMissingNetworks(conn);
+                    return listener.mLocalNetworks;
+                }
+                /* Callbacks for the existing networks arrive asynchronously, query them once */
+                listener.addMissingNetworks(conn);
+                sLocalNetworkListener = listener;
+            }
+            listener = sLocalNetworkListener;
+        }
+        return listener.mLocalNetworks;
+    }
+
+    /**
+     * A default request only matches trusted, unrestricted non-VPN networks. The snapshot is
+     * seeded from all networks, so the callback has to match all of them too, otherwise
+     * the other networks would never be updated or removed.
+     */
+    private static NetworkRequest getAllNetworksRequest() {
+        NetworkRequest.Builder builder = new NetworkRequest.Builder()
+                .removeCapability(NetworkCapabilities.NET_CAPABILITY_NOT_VPN)
+                .removeCapability(NetworkCapabilities.NET_CAPABILITY_TRUSTED)
+                .removeCapability(NetworkCapabilities.NET_CAPABILITY_NOT_RESTRICTED);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S)
+            builder.removeCapability(NetworkCapabilities.NET_CAPABILITY_NOT_VCN_MANAGED);
+        return builder.build();
+    }
+
+    private synchronized void addMissingNetworks(ConnectivityManager conn) {
+        for (Network network : conn.getAllNetworks()) {
+            if (mNetworks.containsKey(network))
+                continue;
+
+            NetworkState state = new NetworkState();
+            NetworkCapabilities nc = conn.getNetworkCapabilities(network);
+            state.local = isLocal(nc);
+            setAddresses(state, conn.getLinkProperties(network));
+            mNetworks.put(network, state);
+        }
+        publishLocalNetworks();
+    }
+
+    private static boolean isLocal(NetworkCapabilities nc) {
+        // Ignore network if it has no capabilities
+        if (nc == null)
+            return false;
+        // Skip VPN networks like ourselves and mobile networks
+        return !nc.hasTransport(NetworkCapabilities.TRANSPORT_VPN)
+                && !nc.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR);
+    }
+
+    private static void setAddresses(NetworkState state, LinkProperties lp) {
+        state.ipv4.clear();
+        state.ipv6.clear();
+        if (lp == null)
+            return;
+
+        for (LinkAddress la : lp.getLinkAddresses()) {
+            if (la.getAddress() instanceof Inet4Address)
+                state.ipv4.add(new LocalPrefix(la));
+            else if (la.getAddress() instanceof Inet6Address)
+                state.ipv6.add(new LocalPrefix(la));
+        }
+    }
+
+    private NetworkState getState(Network network) {
+        NetworkState state = mNetworks.get(network);
+        if (state == null) {
+            state = new NetworkState();
+            mNetworks.put(network, state);
+        }
+        return state;
+    }
+
+    private void publishLocalNetworks() {
+        ArrayList<LocalPrefix> ipv4 = new ArrayList<>();
+        ArrayList<LocalPrefix> ipv6 = new ArrayList<>();
+        for (NetworkState state : mNetworks.values()) {
+            if (!state.local)
+                continue;
+            ipv4.addAll(state.ipv4);
+            ipv6.addAll(state.ipv6);
+        }
+        mLocalNetworks = new LocalNetworks(Collections.unmodifiableList(ipv4), Collections.unmodifiableList(ipv6));
+    }
 
     @Override
     public void onAvailable(Network network) {
         super.onAvailable(network);
 
-        if (!network.toString().equals(mLastConnectedStatus)) {
+        if (mLogChanges && !network.toString().equals(mLastConnectedStatus)) {
             mLastConnectedStatus = network.toString();
             VpnStatus.logDebug("Connected to " + mLastConnectedStatus);
         }
@@ -32,18 +213,42 @@ public class LollipopDeviceStateListener extends ConnectivityManager.NetworkCall
     public void onLinkPropertiesChanged(Network network, LinkProperties linkProperties) {
         super.onLinkPropertiesChanged(network, linkProperties);
 
-        if (!linkProperties.toString().equals(mLastLinkProperties)) {
+        if (mLogChanges && !linkProperties.toString().equals(mLastLinkProperties)) {
             mLastLinkProperties = linkProperties.toString();
             VpnStatus.logDebug(String.format("Linkproperties of %s: %s", network, linkProperties));
         }
+
+        synchronized (this) {
+            setAddresses(getState(network), linkProperties);
+            publishLocalNetworks();
+        }
     }
 
     @Override
     public void onCapabilitiesChanged(Network network, NetworkCapabilities networkCapabilities) {
         super.onCapabilitiesChanged(network, networkCapabilities);
-        if (!networkCapabilities.toString().equals(mLastNetworkCapabilities)) {
+        if (mLogChanges && !networkCapabilities.toString().equals(mLastNetworkCapabilities)) {
             mLastNetworkCapabilities = networkCapabilities.toString();
             VpnStatus.logDebug(String.format("Network capabilities of %s: %s", network, networkCapabilities));
         }
+
+        synchronized (this) {
+            NetworkState state = getState(network);
+            boolean local = isLocal(networkCapabilities);
+            if (state.local != local) {
+                state.local = local;
+                publishLocalNetworks();
+            }
+        }
+    }
+
+    @Override
+    public void onLost(Network network) {
+        super.onLost(network);
+
+        synchronized (this) {
+            if (mNetworks.remove(network) != null)
+                publishLocalNetworks();
+        }
     }
 }
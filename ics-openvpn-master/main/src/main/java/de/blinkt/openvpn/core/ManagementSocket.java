@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import android.net.LocalServerSocket;
+import android.net.LocalSocket;
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The connection of the management thread to the OpenVPN process. Normally a unix domain
+ * socket, tests use this to talk to the management thread without a real OpenVPN process.
+ */
+interface ManagementSocket extends Closeable {
+    InputStream getInputStream() throws IOException;
+
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * @return the file descriptors that arrived with the last read or null
+     */
+    FileDescriptor[] getAncillaryFileDescriptors() throws IOException;
+
+    /**
+     * Sets the file descriptors that are sent with the next write, null to send no file
+     * descriptors anymore
+     */
+    void setFileDescriptorsForSend(FileDescriptor[] fds);
+
+    interface Server extends Closeable {
+        /**
+         * Waits for the OpenVPN process to connect
+         */
+        ManagementSocket accept() throws IOException;
+    }
+
+    /**
+     * Creates the server the OpenVPN process connects to
+     */
+    interface ServerFactory {
+        Server listen(String path) throws IOException;
+    }
+
+    static Server wrap(final LocalServerSocket serverSocket) {
+        return new Server() {
+            @Override
+            public ManagementSocket accept() throws IOException {
+                return wrap(serverSocket.accept());
+            }
+
+            @Override
+            public void close() throws IOException {
+                serverSocket.close();
+            }
+        };
+    }
+
+    static ManagementSocket wrap(final LocalSocket socket) {
+        return new ManagementSocket() {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                return socket.getInputStream();
+            }
+
+            @Override
+            public OutputStream getOutputStream() throws IOException {
+                return socket.getOutputStream();
+            }
+
+            @Override
+            public FileDescriptor[] getAncillaryFileDescriptors() throws IOException {
+                return socket.getAncillaryFileDescriptors();
+            }
+
+            @Override
+            public void setFileDescriptorsForSend(FileDescriptor[] fds) {
+                socket.setFileDescriptorsForSend(fds);
+            }
+
+            @Override
+            public void close() throws IOException {
+                socket.close();
+            }
+        };
+    }
+}
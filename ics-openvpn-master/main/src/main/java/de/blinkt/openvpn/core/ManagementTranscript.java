@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import android.content.Context;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records everything that goes over the management socket, so a connection can be replayed
+ * later without a server. One entry per line:
+ * <pre>
+ * &lt; time fds data    data read from OpenVPN together with the number of received fds
+ * &gt; time fds data    command written to OpenVPN together with the number of sent fds
+ * </pre>
+ * time is in ms since the start of the recording, backslashes and line breaks in data are
+ * escaped. Passwords, user names (also of proxies) and challenge responses written to
+ * OpenVPN and auth tokens sent by OpenVPN are not recorded. Data from OpenVPN is recorded
+ * in complete lines, so a token is also found when it arrives in pieces.
+ */
+public class ManagementTranscript implements Closeable {
+    public static final String FILE_NAME = "management-transcript.txt";
+    private static final String AUTH_TOKEN = ">PASSWORD:Auth-Token:";
+
+    private final Writer mWriter;
+    private final long mStart = System.currentTimeMillis();
+    private final StringBuilder mPendingReceived = new StringBuilder();
+    private int mPendingFds;
+
+    public static class Entry {
+        public final boolean fromOpenVPN;
+        public final long time;
+        public final int fds;
+        public final String data;
+
+        Entry(boolean fromOpenVPN, long time, int fds, String data) {
+            this.fromOpenVPN = fromOpenVPN;
+            this.time = time;
+            this.fds = fds;
+            this.data = data;
+        }
+    }
+
+    ManagementTranscript(Writer writer) {
+        mWriter = writer;
+    }
+
+    /**
+     * Starts a new recording in the app specific external storage (readable with adb),
+     * replacing the previous recording
+     */
+    static ManagementTranscript create(Context c) throws IOException {
+        File dir = c.getExternalFilesDir(null);
+        if (dir == null)
+            dir = c.getCacheDir();
+        File file = new File(dir, FILE_NAME);
+        return new ManagementTranscript(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)));
+    }
+
+    synchronized void received(String data, int fds) {
+        mPendingReceived.append(data);
+        mPendingFds += fds;
+        int end = mPendingReceived.lastIndexOf("\n") + 1;
+        if (end == 0)
+            return;
+
+        write('<', mPendingFds, redactReceived(mPendingReceived.substring(0, end)));
+        mPendingReceived.delete(0, end);
+        mPendingFds = 0;
+    }
+
+    void sent(String command, int fds) {
+        write('>', fds, redact(command));
+    }
+
+    static String redact(String command) {
+        /* password 'type' secret and username 'type' name */
+        if (command.startsWith("password '") || command.startsWith("username '")) {
+            int typeEnd = command.indexOf("' ");
+            if (typeEnd > 0)
+                return command.substring(0, typeEnd + 2) + "(not recorded)\n";
+        }
+        /* cr-response base64 answer to a challenge, e.g. an OTP */
+        if (command.startsWith("cr-response "))
+            return "cr-response (not recorded)\n";
+        return command;
+    }
+
+    static String redactReceived(String data) {
+        if (!data.contains(AUTH_TOKEN))
+            return data;
+
+        StringBuilder sb = new StringBuilder(data.length());
+        int start = 0;
+        while (start < data.length()) {
+            int end = data.indexOf('\n', start) + 1;
+            if (end == 0)
+                end = data.length();
+            String line = data.substring(start, end);
+            /* >PASSWORD:Auth-Token:token is the session credential pushed by the server */
+            if (line.startsWith(AUTH_TOKEN)) {
+                int eol = line.length();
+                while (eol > 0 && (line.charAt(eol - 1) == '\n' || line.charAt(eol - 1) == '\r'))
+                    eol--;
+                line = AUTH_TOKEN + "(not recorded)" + line.substring(eol);
+            }
+            sb.append(line);
+            start = end;
+        }
+        return sb.toString();
+    }
+
+    private synchronized void write(char direction, int fds, String data) {
+        try {
+            mWriter.write(direction + " " + (System.currentTimeMillis() - mStart) + " " + fds + " " + escape(data) + "\n");
+        } catch (IOException e) {
+            VpnStatus.logException(VpnStatus.LogLevel.DEBUG, "Writing management transcript", e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (mPendingReceived.length() > 0 || mPendingFds > 0)
+            write('<', mPendingFds, redactReceived(mPendingReceived.toString()));
+        mWriter.close();
+    }
+
+    static String escape(String data) {
+        return data.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    static String unescape(String data) {
+        StringBuilder sb = new StringBuilder(data.length());
+        for (int i = 0; i < data.length(); i++) {
+            char c = data.charAt(i);
+            if (c == '\\' && i + 1 < data.length()) {
+                char next = data.charAt(++i);
+                if (next == 'n')
+                    c = '\n';
+                else if (next == 'r')
+                    c = '\r';
+                else
+                    c = next;
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    public static List<Entry> read(Reader reader) throws IOException {
+        ArrayList<Entry> entries = new ArrayList<>();
+        BufferedReader in = new BufferedReader(reader);
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            String[] parts = line.split(" ", 4);
+            if (parts.length != 4 || !(parts[0].equals("<") || parts[0].equals(">")))
+                throw new IOException("Invalid transcript line: " + line);
+            try {
+                entries.add(new Entry(parts[0].equals("<"), Long.parseLong(parts[1]),
+                        Integer.parseInt(parts[2]), unescape(parts[3])));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid transcript line: " + line, e);
+            }
+        }
+        return entries;
+    }
+}
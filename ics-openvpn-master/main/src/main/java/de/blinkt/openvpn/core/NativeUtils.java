@@ -6,7 +6,9 @@
 package de.blinkt.openvpn.core;
 
 import android.os.Build;
-import de.blinkt.openvpn.BuildConfig;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
 
 import java.security.InvalidKeyException;
 
@@ -20,15 +22,25 @@ public class NativeUtils {
     public static String getNativeAPI() {
         if (isRoboUnitTest())
             return "ROBO";
-        else
-            return getJNIAPI();
+        loadOvpnUtil();
+        return getJNIAPI();
     }
 
     private static native String getJNIAPI();
 
-    public static native String getOpenVPN2GitVersion();
+    public static String getOpenVPN2GitVersion() {
+        loadOvpnUtil();
+        return getOpenVPN2GitVersionString();
+    }
+
+    public static String getOpenVPN3GitVersion() {
+        loadOvpnUtil();
+        return getOpenVPN3GitVersionString();
+    }
+
+    private static native String getOpenVPN2GitVersionString();
 
-    public static native String getOpenVPN3GitVersion();
+    private static native String getOpenVPN3GitVersionString();
 
     private static native String getOpenSSLVersionString();
 
@@ -37,7 +49,11 @@ public class NativeUtils {
         return getOpenSSLVersionString();
     }
 
-    static boolean osslutilloaded = false;
+    /* Every library is only loaded when something needs it, loading the libraries that
+     * link OpenSSL costs noticeable time when a process starts */
+    private static boolean ovpnutilloaded = false;
+    private static boolean osslutilloaded = false;
+    private static boolean osslspeedtestloaded = false;
 
     public static byte[] addRssPssPadding(int hashtype, int MSBits, int rsa_size, byte[] from)
     {
@@ -45,30 +61,55 @@ public class NativeUtils {
         return rsapss(hashtype, MSBits, rsa_size, from);
     }
 
-    private static void loadOsslUtil() {
+    private static synchronized void loadOvpnUtil() {
+        if (!ovpnutilloaded) {
+            loadLibrary("ovpnutil");
+            ovpnutilloaded = true;
+        }
+    }
+
+    private static synchronized void loadOsslUtil() {
         if (!osslutilloaded) {
+            loadLibrary("osslutil");
             osslutilloaded = true;
-            System.loadLibrary("osslutil");
         }
     }
 
+    private static synchronized void loadOsslSpeedTest() {
+        if (!osslspeedtestloaded) {
+            loadLibrary("osslspeedtest");
+            osslspeedtestloaded = true;
+        }
+    }
+
+    private static void loadLibrary(String name) {
+        /* Shows up in system traces of the process start */
+        Trace.beginSection("loadLibrary " + name);
+        long start = SystemClock.elapsedRealtime();
+        try {
+            System.loadLibrary(name);
+        } finally {
+            Trace.endSection();
+        }
+        Log.d("NativeUtils", "Loaded " + name + " in " + (SystemClock.elapsedRealtime() - start) + " ms");
+    }
+
     private static native byte[] rsapss(int hashtype, int MSBits, int rsa_size, byte[] from);
 
     public final static int[] openSSLlengths = {
         16, 64, 256, 1024, 1500, 8 * 1024, 16 * 1024
     };
 
-    public static native double[] getOpenSSLSpeed(String algorithm, int testnum);
-
-    static {
-        if (!isRoboUnitTest()) {
-            System.loadLibrary("ovpnutil");
-            if (!BuildConfig.FLAVOR.equals("skeleton")) {
-                System.loadLibrary("osslspeedtest");
-            }
-        }
+    /**
+     * The speed test library is not part of the skeleton flavour
+     */
+    public static double[] getOpenSSLSpeed(String algorithm, int testnum) {
+        loadOsslSpeedTest();
+        return runOpenSSLSpeedTest(algorithm, testnum);
     }
 
+    private static native double[] runOpenSSLSpeedTest(String algorithm, int testnum);
+
     public static boolean isRoboUnitTest() {
         return "robolectric".equals(Build.FINGERPRINT); }
 
@@ -81,23 +81,24 @@ public class NetworkSpace {
         }
 
         public IpAddress(CIDRIP ip, boolean include) {
+            this(ip.getInt(), ip.len, include);
+        }
+
+        IpAddress(long v4Address, int mask, boolean include) {
             included = include;
-            netAddress = BigInteger.valueOf(ip.getInt());
-            networkMask = ip.len;
+            netAddress = BigInteger.valueOf(v4Address);
+            networkMask = mask;
             isV4 = true;
         }
 
         public IpAddress(Inet6Address address, int mask, boolean include) {
+            this(address.getAddress(), mask, include);
+        }
+
+        IpAddress(byte[] v6Address, int mask, boolean include) {
             networkMask = mask;
             included = include;
-
-            int s = 128;
-
-            netAddress = BigInteger.ZERO;
-            for (byte b : address.getAddress()) {
-                s -= 8;
-                netAddress = netAddress.add(BigInteger.valueOf((b & 0xFF)).shiftLeft(s));
-            }
+            netAddress = new BigInteger(1, v6Address);
         }
 
         public BigInteger getLastAddress() {
@@ -124,13 +125,11 @@ public class NetworkSpace {
                 numBits = 128 - networkMask;
             }
 
-            for (int i = 0; i < numBits; i++) {
-                if (one)
-                    numAddress = numAddress.setBit(i);
-                else
-                    numAddress = numAddress.clearBit(i);
-            }
-            return numAddress;
+            BigInteger hostBits = BigInteger.ONE.shiftLeft(numBits).subtract(BigInteger.ONE);
+            if (one)
+                return numAddress.or(hostBits);
+            else
+                return numAddress.andNot(hostBits);
         }
 
 
@@ -152,6 +151,14 @@ public class NetworkSpace {
         }
 
 
+        boolean isV4() {
+            return isV4;
+        }
+
+        boolean isIncluded() {
+            return included;
+        }
+
         public IpAddress[] split() {
             IpAddress firstHalf = new IpAddress(getFirstAddress(), networkMask + 1, included, isV4);
             IpAddress secondHalf = new IpAddress(firstHalf.getLastAddress().add(BigInteger.ONE), networkMask + 1, included, isV4);
@@ -240,8 +247,44 @@ public class NetworkSpace {
 
     TreeSet<IpAddress> mIpAddresses = new TreeSet<IpAddress>();
 
+    /* IPv4 networks that have been added but are not yet in mIpAddresses. Pushed routes
+     * arrive one by one on the management thread, so they are only packed into a long
+     * (address, prefix length and include flag) and sorted into the tree when the
+     * networks are needed */
+    private long[] mPendingV4 = new long[16];
+    private int mPendingV4Count;
+
+    /* Fingerprint of the networks in mIpAddresses. It is only updated when a network is
+     * really added to the set, since the set drops duplicates and keeps the include flag
+     * of the first network added */
+    private final ConfigFingerprint mFingerprint = new ConfigFingerprint();
+
+    private static long packV4(long address, int mask, boolean include) {
+        return (address << 7) | ((long) mask << 1) | (include ? 1 : 0);
+    }
+
+    private void addPendingV4(long address, int mask, boolean include) {
+        if (mPendingV4Count == mPendingV4.length)
+            mPendingV4 = Arrays.copyOf(mPendingV4, mPendingV4.length * 2);
+        long packed = packV4(address, mask, include);
+        mPendingV4[mPendingV4Count++] = packed;
+    }
+
+    private void flushPendingV4() {
+        for (int i = 0; i < mPendingV4Count; i++) {
+            long packed = mPendingV4[i];
+            long address = packed >>> 7;
+            int mask = (int) ((packed >> 1) & 0x3f);
+            boolean include = (packed & 1) == 1;
+            if (mIpAddresses.add(new IpAddress(address, mask, include)))
+                mFingerprint.addUnordered(address & CIDRIP.prefixMask(mask), fingerprintFlags(mask, include), 4);
+        }
+        mPendingV4Count = 0;
+    }
+
 
     public Collection<IpAddress> getNetworks(boolean included) {
+        flushPendingV4();
         Vector<IpAddress> ips = new Vector<IpAddress>();
         for (IpAddress ip : mIpAddresses) {
             if (ip.included == included)
@@ -252,26 +295,145 @@ public class NetworkSpace {
 
     public void clear() {
         mIpAddresses.clear();
+        mPendingV4Count = 0;
+        mFingerprint.clear();
+    }
+
+    ConfigFingerprint getFingerprint() {
+        flushPendingV4();
+        return mFingerprint;
+    }
+
+    private static long fingerprintFlags(int mask, boolean include) {
+        return ((long) mask << 1) | (include ? 1 : 0);
+    }
+
+    private void addToSet(IpAddress ip) {
+        if (!mIpAddresses.add(ip))
+            return;
+        BigInteger first = ip.getFirstAddress();
+        long flags = fingerprintFlags(ip.networkMask, ip.included);
+        if (ip.isV4)
+            mFingerprint.addUnordered(first.longValue(), flags, 4);
+        else
+            mFingerprint.addUnordered(first.shiftRight(64).longValue(), first.longValue(), flags);
     }
 
 
     void addIP(CIDRIP cidrIp, boolean include) {
+        addPendingV4(cidrIp.getInt(), cidrIp.len, include);
+    }
 
-        mIpAddresses.add(new IpAddress(cidrIp, include));
+    /**
+     * Adds an IPv4 network from its already parsed address and prefix length
+     */
+    void addIP(long address, int mask, boolean include) {
+        addPendingV4(address, mask, include);
     }
 
     public void addIPSplit(CIDRIP cidrIp, boolean include) {
+        flushPendingV4();
         IpAddress newIP = new IpAddress(cidrIp, include);
         IpAddress[] splitIps = newIP.split();
-        for (IpAddress split : splitIps)
-            mIpAddresses.add(split);
+        for (IpAddress split : splitIps) {
+            addToSet(split);
+        }
     }
 
     void addIPv6(Inet6Address address, int mask, boolean included) {
-        mIpAddresses.add(new IpAddress(address, mask, included));
+        addIPv6(address.getAddress(), mask, included);
+    }
+
+    void addIPv6(byte[] address, int mask, boolean included) {
+        addToSet(new IpAddress(address, mask, included));
+    }
+
+    /**
+     * Parses a numeric IPv6 address like 2001:db8::1 or ::ffff:192.0.2.1 without going
+     * through InetAddress
+     *
+     * @return the 16 address bytes or null if the string is not a plain IPv6 address
+     */
+    static byte[] parseIPv6Literal(String addr) {
+        byte[] result = new byte[16];
+        int len = addr.length();
+        int pos = 0;
+        int out = 0;
+        int gap = -1;
+
+        if (len >= 2 && addr.charAt(0) == ':' && addr.charAt(1) == ':') {
+            gap = 0;
+            pos = 2;
+            if (len == 2)
+                return result;
+        } else if (len == 0 || addr.charAt(0) == ':') {
+            return null;
+        }
+
+        while (pos < len) {
+            int start = pos;
+            int value = 0;
+            while (pos < len && pos - start < 4) {
+                int digit = Character.digit(addr.charAt(pos), 16);
+                if (digit < 0)
+                    break;
+                value = (value << 4) | digit;
+                pos++;
+            }
+
+            if (pos < len && addr.charAt(pos) == '.') {
+                /* Embedded IPv4 address as last 32 bits */
+                if (out > 12)
+                    return null;
+                long v4;
+                try {
+                    v4 = CIDRIP.getInt(addr.substring(start));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+                result[out++] = (byte) (v4 >> 24);
+                result[out++] = (byte) (v4 >> 16);
+                result[out++] = (byte) (v4 >> 8);
+                result[out++] = (byte) v4;
+                pos = len;
+                break;
+            }
+
+            if (pos == start || out > 14)
+                return null;
+            result[out++] = (byte) (value >> 8);
+            result[out++] = (byte) value;
+
+            if (pos == len)
+                break;
+            if (addr.charAt(pos) != ':')
+                return null;
+            pos++;
+            if (pos < len && addr.charAt(pos) == ':') {
+                if (gap != -1)
+                    return null;
+                gap = out;
+                pos++;
+            } else if (pos == len) {
+                return null;
+            }
+        }
+
+        if (gap == -1) {
+            if (out != 16)
+                return null;
+        } else {
+            if (out == 16)
+                return null;
+            int tail = out - gap;
+            System.arraycopy(result, gap, result, 16 - tail, tail);
+            Arrays.fill(result, gap, 16 - tail, (byte) 0);
+        }
+        return result;
     }
 
     TreeSet<IpAddress> generateIPList() {
+        flushPendingV4();
 
         PriorityQueue<IpAddress> networks = new PriorityQueue<IpAddress>(mIpAddresses);
 
@@ -40,6 +40,7 @@ import android.os.IBinder;
 import android.os.Message;
 import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.service.notification.StatusBarNotification;
 import android.system.OsConstants;
 import android.text.TextUtils;
@@ -50,6 +51,7 @@ import android.widget.Toast;
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -58,7 +60,11 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.charset.Charset;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Objects;
+import java.util.TreeSet;
 import java.util.Vector;
 import java.util.concurrent.ExecutionException;
 
@@ -94,10 +100,13 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
     private static final int PRIORITY_DEFAULT = 0;
     private static final int PRIORITY_MAX = 2;
     private static boolean mNotificationAlwaysVisible = false;
+    /* Minimum time between two updates of the byte count in the notification */
+    private static final long NOTIFICATION_BYTECOUNT_INTERVAL = 1000;
 
 
     static class TunConfig {
         private final Vector<String> mDnslist = new Vector<>();
+        private final ConfigFingerprint mDnsFingerprint = new ConfigFingerprint();
         private final NetworkSpace mRoutes = new NetworkSpace();
         private final NetworkSpace mRoutesv6 = new NetworkSpace();
         private String mDomain = null;
@@ -106,6 +115,97 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
         private String mLocalIPv6 = null;
 
         private ProxyInfo mProxyInfo;
+
+        /* Network of mLocalIP as 32 bit values, checked for every pushed route */
+        private String mLocalNetIp;
+        private int mLocalNetLen = -1;
+        private long mLocalNetFirst;
+        private long mLocalNetMask;
+
+        private boolean localNetContains(long ip) {
+            if (!mLocalIP.mIp.equals(mLocalNetIp) || mLocalIP.len != mLocalNetLen) {
+                mLocalNetMask = CIDRIP.prefixMask(mLocalIP.len);
+                mLocalNetFirst = mLocalIP.getInt() & mLocalNetMask;
+                mLocalNetIp = mLocalIP.mIp;
+                mLocalNetLen = mLocalIP.len;
+            }
+            return (ip & mLocalNetMask) == mLocalNetFirst;
+        }
+
+        private void addDNS(String dns) {
+            mDnslist.add(dns);
+            mDnsFingerprint.addOrdered(dns);
+        }
+
+        /**
+         * The route and DNS parts of the fingerprint are updated while the configuration
+         * is pushed, so this only has to add the handful of single values
+         */
+        ConfigFingerprint getFingerprint() {
+            ConfigFingerprint fp = new ConfigFingerprint();
+            fp.addOrdered(mLocalIP == null ? null : mLocalIP.toString());
+            fp.addOrdered(mLocalIPv6);
+            fp.addOrdered(mRoutes.getFingerprint());
+            fp.addOrdered(mRoutesv6.getFingerprint());
+            fp.addOrdered(mDnsFingerprint);
+            fp.addOrdered(mDomain);
+            fp.addOrdered(mMtu, 0);
+            fp.addOrdered(mProxyInfo == null ? null : mProxyInfo.toString());
+            return fp;
+        }
+
+        /**
+         * @return human readable list of the differences to an older configuration
+         */
+        Vector<String> describeChanges(TunConfig old) {
+            Vector<String> changes = new Vector<>();
+            describeChange(changes, "local IP", old.mLocalIP == null ? null : old.mLocalIP.toString(),
+                    mLocalIP == null ? null : mLocalIP.toString());
+            describeChange(changes, "local IPv6", old.mLocalIPv6, mLocalIPv6);
+            describeChange(changes, "MTU", Integer.toString(old.mMtu), Integer.toString(mMtu));
+            describeChange(changes, "domain", old.mDomain, mDomain);
+            describeChange(changes, "proxy", String.valueOf(old.mProxyInfo), String.valueOf(mProxyInfo));
+            if (!mDnsFingerprint.equals(old.mDnsFingerprint))
+                describeChange(changes, "DNS", TextUtils.join("|", old.mDnslist), TextUtils.join("|", mDnslist));
+            describeRouteChanges(changes, "IPv4", old.mRoutes, mRoutes);
+            describeRouteChanges(changes, "IPv6", old.mRoutesv6, mRoutesv6);
+            return changes;
+        }
+
+        private static void describeChange(Vector<String> changes, String what, String old, String cur) {
+            if (!Objects.equals(old, cur))
+                changes.add(String.format(Locale.US, "%s %s -> %s", what, old, cur));
+        }
+
+        private static void describeRouteChanges(Vector<String> changes, String family, NetworkSpace old, NetworkSpace cur) {
+            if (old.getFingerprint().equals(cur.getFingerprint()))
+                return;
+
+            for (boolean included : new boolean[]{true, false}) {
+                TreeSet<IpAddress> oldNets = new TreeSet<>(old.getNetworks(included));
+                int added = 0;
+                IpAddress firstAdded = null;
+                for (IpAddress net : cur.getNetworks(included)) {
+                    if (!oldNets.remove(net)) {
+                        added++;
+                        if (firstAdded == null)
+                            firstAdded = net;
+                    }
+                }
+                if (added == 0 && oldNets.isEmpty())
+                    continue;
+
+                String routeType = family + (included ? " routes" : " excluded routes");
+                StringBuilder sb = new StringBuilder(routeType);
+                sb.append(": ").append(added).append(" added");
+                if (firstAdded != null)
+                    sb.append(" (").append(firstAdded).append(added > 1 ? ", ..." : "").append(")");
+                sb.append(", ").append(oldNets.size()).append(" removed");
+                if (!oldNets.isEmpty())
+                    sb.append(" (").append(oldNets.first()).append(oldNets.size() > 1 ? ", ..." : "").append(")");
+                changes.add(sb.toString());
+            }
+        }
     };
 
     private TunConfig tunConfig = new TunConfig();
@@ -156,6 +256,7 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
 
     };
     private TunConfig mLastTunCfg;
+    private volatile ConnectTimeline mConnectTimeline;
     private String mRemoteGW;
     private Handler guiHandler;
     private Toast mlastToast;
@@ -163,16 +264,29 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
     private HandlerThread mCommandHandlerThread;
     private Handler mCommandHandler;
 
+    /* The builder of the last notification is reused as long as only the text changes */
+    private final Object mNotificationLock = new Object();
+    private Notification.Builder mNotificationBuilder;
+    private String mNotificationKey;
+    private String mNotificationText;
+    private long mLastByteCountNotification;
+    private String mLastBroadcastState;
+    private ConnectionStatus mLastBroadcastLevel;
+
     // From: http://stackoverflow.com/questions/3758606/how-to-convert-byte-size-into-human-readable-format-in-java
     public static String humanReadableByteCount(long bytes, boolean speed, Resources res) {
         if (speed)
             bytes = bytes * 8;
         int unit = speed ? 1000 : 1024;
 
+        int exp = 0;
+        long unitSize = 1;
+        while (exp < 3 && bytes >= unitSize * unit) {
+            unitSize *= unit;
+            exp++;
+        }
 
-        int exp = Math.max(0, Math.min((int) (Math.log(bytes) / Math.log(unit)), 3));
-
-        float bytesUnit = (float) (bytes / Math.pow(unit, exp));
+        float bytesUnit = (float) bytes / unitSize;
 
         if (speed)
             switch (exp) {
@@ -275,6 +389,10 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
         ProfileManager.setConntectedVpnProfileDisconnected(this);
         mOpenVPNThread = null;
         if (!mStarting) {
+            synchronized (mNotificationLock) {
+                /* The next notification has to be posted with startForeground again */
+                mNotificationKey = null;
+            }
             stopForeground(!mNotificationAlwaysVisible);
 
             if (!mNotificationAlwaysVisible) {
@@ -286,10 +404,41 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
 
     private void showNotification(final String msg, String tickerText, @NonNull String channel,
                                   long when, ConnectionStatus status, Intent intent) {
+        boolean userPaused = mDeviceStateReceiver != null && mDeviceStateReceiver.isUserPaused();
+        String notificationKey = channel + "|" + status + "|" + when + "|" + userPaused + "|"
+                + (mProfile != null ? mProfile.getUUIDString() : "");
+
+        synchronized (mNotificationLock) {
+            /* Notifications with an intent are user interaction requests, always build them */
+            if (intent == null && notificationKey.equals(mNotificationKey)) {
+                /* Nothing has changed, avoid the round trip to the NotificationManager */
+                if (msg.equals(mNotificationText))
+                    return;
+
+                mNotificationText = msg;
+                mNotificationBuilder.setContentText(msg);
+                mNotificationBuilder.setTicker(TextUtils.isEmpty(tickerText) ? null : tickerText);
+
+                NotificationManager notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+                @SuppressWarnings("deprecation")
+                Notification notification = mNotificationBuilder.getNotification();
+                notificationManager.notify(channel.hashCode(), notification);
+                return;
+            }
+
+            buildAndShowNotification(msg, tickerText, channel, when, status, intent);
+            mNotificationKey = intent == null ? notificationKey : null;
+            mNotificationText = msg;
+        }
+    }
+
+    private void buildAndShowNotification(final String msg, String tickerText, @NonNull String channel,
+                                          long when, ConnectionStatus status, Intent intent) {
         NotificationManager mNotificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
         int icon = getIconByConnectionStatus(status);
 
         android.app.Notification.Builder nbuilder = new Notification.Builder(this);
+        mNotificationBuilder = nbuilder;
 
         int priority;
         if (channel.equals(NOTIFICATION_CHANNEL_BG_ID))
@@ -540,6 +689,8 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
         }
 
 
+        mConnectTimeline = new ConnectTimeline();
+
         // Always show notification here to avoid problem with startForeground timeout
         VpnStatus.logInfo(R.string.building_configration);
 
@@ -673,6 +824,9 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
             stopSelf(startId);
             return;
         }
+        ConnectTimeline timeline = mConnectTimeline;
+        timeline.setProfileUUID(vp.getUUIDString());
+        timeline.mark(ConnectTimeline.Phase.PROFILE_FETCHED);
 
         if (!checkVPNPermission(vp))
             return;
@@ -702,6 +856,10 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
         // 이 부분 TO DO LSIT로 가져가고,
         keepVPNAlive.scheduleKeepVPNAliveJobService(this, vp);
 
+        /* Fetching the certificates from the keystore or the external auth app can take a
+         * while, do it while the old process is stopped and the new one is started */
+        vp.prefetchExternalCertificates(this);
+
         String nativeLibraryDirectory = getApplicationInfo().nativeLibraryDir;
 
         String tmpDir;
@@ -738,6 +896,13 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
 
             // OpenVPNManagementThread 생성 및 초기화
             OpenVpnManagementThread ovpnManagementThread = new OpenVpnManagementThread(mProfile, this);
+            if (Preferences.getDefaultSharedPreferences(this).getBoolean("recordmanagement", false)) {
+                try {
+                    ovpnManagementThread.setTranscript(ManagementTranscript.create(this));
+                } catch (IOException e) {
+                    VpnStatus.logException("Could not record management transcript", e);
+                }
+            }
             // 관리 인터페이스 열기
             if (ovpnManagementThread.openManagementInterface(this)) {
                 // 관리 스레드 시작.
@@ -771,6 +936,7 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
             mProcessThread = new Thread(processThread, "OpenVPNProcessThread");
             mProcessThread.start();
         }
+        timeline.mark(ConnectTimeline.Phase.PROCESS_START);
 
         // OpenVPN3 미사용 시 설정 파일 작성
         if (!useOpenVPN3) {
@@ -782,19 +948,24 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
                 endVpnService();
                 return;
             }
+            timeline.mark(ConnectTimeline.Phase.CONFIG_WRITTEN);
         }
 
         // 디바이스 상태 수신기 설정.
-        final DeviceStateReceiver oldDeviceStateReceiver = mDeviceStateReceiver;
         final DeviceStateReceiver newDeviceStateReceiver = new DeviceStateReceiver(mManagement);
+        guiHandler.post(() -> replaceDeviceStateReceiver(newDeviceStateReceiver));
+    }
 
-        guiHandler.post(() -> {
-            if (oldDeviceStateReceiver != null)
-                unregisterDeviceStateReceiver(oldDeviceStateReceiver);
+    /**
+     * Unregisters the receiver of the previous connection and registers the receiver of the
+     * new connection. Has to be called on the main thread.
+     */
+    void replaceDeviceStateReceiver(DeviceStateReceiver newDeviceStateReceiver) {
+        if (mDeviceStateReceiver != null)
+            unregisterDeviceStateReceiver(mDeviceStateReceiver);
 
-            registerDeviceStateReceiver(newDeviceStateReceiver);
-            mDeviceStateReceiver = newDeviceStateReceiver;
-        });
+        registerDeviceStateReceiver(newDeviceStateReceiver);
+        mDeviceStateReceiver = newDeviceStateReceiver;
     }
 
 
@@ -855,6 +1026,8 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
         mCommandHandlerThread = new HandlerThread("OpenVPNServiceCommandThread");
         mCommandHandlerThread.start();
         mCommandHandler = new Handler(mCommandHandlerThread.getLooper());
+        // Read the installed packages before the first tun device is opened
+        mCommandHandler.post(() -> InstalledPackages.getInstance(this));
     }
 
     @Override
@@ -872,29 +1045,7 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
         // Just in case unregister for state
         VpnStatus.removeStateListener(this);
         VpnStatus.flushLog();
-    }
-
-    private static String getTunConfigString(TunConfig tc) {
-        // The format of the string is not important, only that
-        // two identical configurations produce the same result
-        if (tc == null)
-            return "NULL";
-        
-        String cfg = "TUNCFG UNQIUE STRING ips:";
-
-        if (tc.mLocalIP != null)
-            cfg += tc.mLocalIP.toString();
-        if (tc.mLocalIPv6 != null)
-            cfg += tc.mLocalIPv6;
-
-
-        cfg += "routes: " + TextUtils.join("|", tc.mRoutes.getNetworks(true)) + TextUtils.join("|", tc.mRoutesv6.getNetworks(true));
-        cfg += "excl. routes:" + TextUtils.join("|", tc.mRoutes.getNetworks(false)) + TextUtils.join("|", tc.mRoutesv6.getNetworks(false));
-        cfg += "dns: " + TextUtils.join("|", tc.mDnslist);
-        cfg += "domain: " + tc.mDomain;
-        cfg += "mtu: " + tc.mMtu;
-        cfg += "proxyInfo: " + tc.mProxyInfo;
-        return cfg;
+        ExtAuthProviderPool.closeAll();
     }
 
     public ParcelFileDescriptor openTun() {
@@ -991,11 +1142,16 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
 
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-            installRoutesExcluded(builder, tc.mRoutes);
-            installRoutesExcluded(builder, tc.mRoutesv6);
+            positiveIPv4Routes = aggregateRoutes("IPv4", tc.mRoutes.getNetworks(true), tc.mRoutes.getNetworks(false));
+            positiveIPv6Routes = aggregateRoutes("IPv6", tc.mRoutesv6.getNetworks(true), tc.mRoutesv6.getNetworks(false));
+            installRoutesExcluded(builder, positiveIPv4Routes, tc.mRoutes.getNetworks(false));
+            installRoutesExcluded(builder, positiveIPv6Routes, tc.mRoutesv6.getNetworks(false));
         } else {
+            positiveIPv4Routes = aggregateRoutes("IPv4", positiveIPv4Routes, tc.mRoutes.getNetworks(false));
+            positiveIPv6Routes = aggregateRoutes("IPv6", positiveIPv6Routes, tc.mRoutesv6.getNetworks(false));
             installRoutesPostiveOnly(builder, positiveIPv4Routes, positiveIPv6Routes);
         }
+        markConnectPhase(ConnectTimeline.Phase.ROUTES_COMPUTED);
 
 
         if (tc.mDomain != null)
@@ -1029,15 +1185,10 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
 
         VpnStatus.logInfo(R.string.local_ip_info, ipv4info, ipv4len, ipv6info, tc.mMtu);
         VpnStatus.logInfo(R.string.dns_server_info, TextUtils.join(", ", tc.mDnslist), tc.mDomain);
-        VpnStatus.logInfo(R.string.routes_info_incl, TextUtils.join(", ", tc.mRoutes.getNetworks(true)), TextUtils.join(", ", tc.mRoutesv6.getNetworks(true)));
-        VpnStatus.logInfo(R.string.routes_info_excl, TextUtils.join(", ", tc.mRoutes.getNetworks(false)), TextUtils.join(", ", tc.mRoutesv6.getNetworks(false)));
+        logRoutes(tc, positiveIPv4Routes, positiveIPv6Routes);
         if (tc.mProxyInfo != null) {
             VpnStatus.logInfo(R.string.proxy_info, tc.mProxyInfo.getHost(), tc.mProxyInfo.getPort());
         }
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU) {
-            /* On Tiramisu we install the routes exactly like promised */
-            VpnStatus.logDebug(R.string.routes_debug, TextUtils.join(", ", positiveIPv4Routes), TextUtils.join(", ", positiveIPv6Routes));
-        }
         //VpnStatus.logInfo(String.format("Always active %s", isAlwaysOn() ? "on" : "off"));
 
         setAllowedVpnPackages(builder);
@@ -1075,6 +1226,7 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
             ParcelFileDescriptor tun = builder.establish();
             if (tun == null)
                 throw new NullPointerException("Android establish() method returned null (Really broken network configuration?)");
+            markConnectPhase(ConnectTimeline.Phase.ESTABLISH);
             return tun;
         } catch (Exception e) {
             VpnStatus.logError(R.string.tun_open_error);
@@ -1084,9 +1236,74 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
 
     }
 
-    private void installRoutesExcluded(Builder builder, NetworkSpace routes)
+    /**
+     * Logs a summary of the routes. If routes have been left out, the complete tables are
+     * written to a file that is attached when the log is shared.
+     *
+     * @param positiveIPv4Routes the IPv4 routes that have been installed, after aggregation
+     * @param positiveIPv6Routes the IPv6 routes that have been installed, after aggregation
+     */
+    private void logRoutes(TunConfig tc, Collection<IpAddress> positiveIPv4Routes, Collection<IpAddress> positiveIPv6Routes) {
+        final LinkedHashMap<String, Collection<IpAddress>> tables = new LinkedHashMap<>();
+        tables.put("IPv4 routes", tc.mRoutes.getNetworks(true));
+        tables.put("IPv6 routes", tc.mRoutesv6.getNetworks(true));
+        tables.put("IPv4 excluded routes", tc.mRoutes.getNetworks(false));
+        tables.put("IPv6 excluded routes", tc.mRoutesv6.getNetworks(false));
+
+        VpnStatus.logInfo(R.string.routes_info_incl, RouteLog.summarize(tables.get("IPv4 routes")), RouteLog.summarize(tables.get("IPv6 routes")));
+        VpnStatus.logInfo(R.string.routes_info_excl, RouteLog.summarize(tables.get("IPv4 excluded routes")), RouteLog.summarize(tables.get("IPv6 excluded routes")));
+        /* Aggregation may have widened the routes, on Tiramisu the excluded routes are
+         * installed as they are */
+        VpnStatus.logDebug(R.string.routes_debug, RouteLog.summarize(positiveIPv4Routes), RouteLog.summarize(positiveIPv6Routes));
+        tables.put("IPv4 routes installed", positiveIPv4Routes);
+        tables.put("IPv6 routes installed", positiveIPv6Routes);
+
+        boolean truncated = false;
+        for (Collection<IpAddress> routes : tables.values())
+            truncated |= RouteLog.isTruncated(routes);
+
+        final File cacheDir = getCacheDir();
+        if (!truncated) {
+            /* The log is complete, a dump of an earlier connection would only confuse */
+            mCommandHandler.post(() -> RouteLog.deleteDumps(cacheDir));
+            return;
+        }
+
+        mCommandHandler.post(() -> {
+            try {
+                File dump = RouteLog.writeDump(cacheDir, tables);
+                VpnStatus.logDebug(R.string.route_dump_written, dump.getName());
+            } catch (IOException e) {
+                VpnStatus.logException("Writing route table", e);
+            }
+        });
+    }
+
+    /**
+     * Merges routes that can be merged without changing what is routed. If the profile
+     * has a route budget and there are still more routes, the routes are widened until
+     * the budget is met.
+     */
+    private Collection<IpAddress> aggregateRoutes(String family, Collection<IpAddress> routes, Collection<IpAddress> exclusions) {
+        long start = SystemClock.elapsedRealtime();
+        int before = routes.size();
+
+        Collection<IpAddress> aggregated = RouteAggregator.mergeLossless(routes, exclusions);
+        int budget = mProfile.mRouteBudget;
+        if (budget > 0 && aggregated.size() > budget) {
+            int merged = aggregated.size();
+            aggregated = RouteAggregator.supernet(aggregated, exclusions, budget);
+            VpnStatus.logWarning(R.string.route_budget_exceeded, family, merged, budget, aggregated.size());
+        }
+
+        VpnStatus.logDebug(String.format(Locale.US, "%s routes aggregated from %d to %d routes in %d ms",
+                family, before, aggregated.size(), SystemClock.elapsedRealtime() - start));
+        return aggregated;
+    }
+
+    private void installRoutesExcluded(Builder builder, Collection<IpAddress> includedRoutes, Collection<IpAddress> excludedRoutes)
     {
-        for(IpAddress ipIncl: routes.getNetworks(true))
+        for(IpAddress ipIncl: includedRoutes)
         {
             try {
                 builder.addRoute(ipIncl.getPrefix());
@@ -1094,7 +1311,7 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
                 VpnStatus.logError(getString(R.string.route_rejected) + ipIncl + " " + ia.getLocalizedMessage());
             }
         }
-        for(IpAddress ipExcl: routes.getNetworks(false))
+        for(IpAddress ipExcl: excludedRoutes)
         {
             try {
                 builder.excludeRoute(ipExcl.getPrefix());
@@ -1151,22 +1368,19 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
     }
 
     private void addLocalNetworksToRoutes(TunConfig tc) {
-        for (String net : NetworkUtils.getLocalNetworks(this, false)) {
-            String[] netparts = net.split("/");
-            String ipAddr = netparts[0];
-            int netMask = Integer.parseInt(netparts[1]);
-            if (ipAddr.equals(tc.mLocalIP.mIp))
+        if (!mProfile.mAllowLocalLAN)
+            return;
+
+        LollipopDeviceStateListener.LocalNetworks localNetworks = LollipopDeviceStateListener.getLocalNetworks(this);
+        for (LollipopDeviceStateListener.LocalPrefix net : localNetworks.ipv4) {
+            if (net.address.equals(tc.mLocalIP.mIp))
                 continue;
 
-            if(mProfile.mAllowLocalLAN)
-                tc.mRoutes.addIP(new CIDRIP(ipAddr, netMask), false);
+            tc.mRoutes.addIP(new CIDRIP(net.address, net.prefixLength), false);
         }
 
-        if (mProfile.mAllowLocalLAN) {
-            for (String net : NetworkUtils.getLocalNetworks(this, true)) {
-                addRoutev6(net, false);
-                ;
-            }
+        for (LollipopDeviceStateListener.LocalPrefix net : localNetworks.ipv6) {
+            addRoutev6(net.toString(), false);
         }
     }
 
@@ -1192,22 +1406,35 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
             }
         }
 
-        for (String pkg : mProfile.mAllowedAppsVpn) {
+        /* Check all apps against the installed packages at once instead of relying on
+         * NameNotFoundException for every single app. The list is not inverted to the
+         * shorter of allow and deny list: both only agree on the apps installed right now,
+         * apps installed later or not visible to us would change sides. */
+        HashSet<String> installedApps = new HashSet<>();
+        Vector<String> missingApps = new Vector<>();
+        InstalledPackages.getInstance(this).partition(mProfile.mAllowedAppsVpn, installedApps, missingApps);
+
+        /* Orbot is either already disallowed above or must not be allowed */
+        if (profileUsesOrBot)
+            installedApps.remove(ORBOT_PACKAGE_NAME);
+
+        for (String pkg : installedApps) {
             try {
                 if (mProfile.mAllowedAppsVpnAreDisallowed) {
                     builder.addDisallowedApplication(pkg);
                 } else {
-                    if (!(profileUsesOrBot && pkg.equals(ORBOT_PACKAGE_NAME))) {
-                        builder.addAllowedApplication(pkg);
-                        atLeastOneAllowedApp = true;
-                    }
+                    builder.addAllowedApplication(pkg);
+                    atLeastOneAllowedApp = true;
                 }
             } catch (PackageManager.NameNotFoundException e) {
-                mProfile.mAllowedAppsVpn.remove(pkg);
-                VpnStatus.logInfo(R.string.app_no_longer_exists, pkg);
+                /* Uninstalled after the check */
+                missingApps.add(pkg);
             }
         }
 
+        if (!missingApps.isEmpty())
+            pruneAllowedApps(missingApps);
+
         if (!mProfile.mAllowedAppsVpnAreDisallowed && !atLeastOneAllowedApp) {
             VpnStatus.logDebug(R.string.no_allowed_app, getPackageName());
             try {
@@ -1229,8 +1456,30 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
         }
     }
 
+    /**
+     * Removes apps that are no longer installed from the profile. The profile is saved on
+     * the command thread, so opening the tun device does not wait for it, and the UI
+     * process is told to reload it.
+     */
+    private void pruneAllowedApps(Collection<String> missingApps) {
+        for (String pkg : missingApps)
+            VpnStatus.logInfo(R.string.app_no_longer_exists, pkg);
+
+        /* Replace the set instead of modifying it, it might be serialised at the same time */
+        HashSet<String> allowedApps = new HashSet<>(mProfile.mAllowedAppsVpn);
+        allowedApps.removeAll(missingApps);
+        mProfile.mAllowedAppsVpn = allowedApps;
+
+        final VpnProfile profile = mProfile;
+        mCommandHandler.post(() -> {
+            ProfileManager.saveProfile(this, profile);
+            if (!profile.mTemporaryProfile)
+                OpenVPNStatusService.profileSaved(profile.getUUIDString(), profile.mVersion);
+        });
+    }
+
     public void addDNS(String dns) {
-        tunConfig.mDnslist.add(dns);
+        tunConfig.addDNS(dns);
     }
 
     public void setDomain(String domain) {
@@ -1257,32 +1506,33 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
     }
 
     public void addRoute(String dest, String mask, String gateway, String device) {
-        CIDRIP route = new CIDRIP(dest, mask);
+        long destIp = CIDRIP.getInt(dest);
+        long maskIp = CIDRIP.getInt(mask);
+        int len = CIDRIP.calculateLenFromMask(maskIp);
         boolean include = isAndroidTunDevice(device);
 
-        IpAddress gatewayIP = new IpAddress(new CIDRIP(gateway, 32), false);
+        long gatewayIp = CIDRIP.getInt(gateway);
 
         if (tunConfig.mLocalIP == null) {
             VpnStatus.logError("Local IP address unset and received. Neither pushed server config nor local config specifies an IP addresses. Opening tun device is most likely going to fail.");
             return;
         }
-        IpAddress localNet = new IpAddress(tunConfig.mLocalIP, true);
-        if (localNet.containsNet(gatewayIP))
+        if (tunConfig.localNetContains(gatewayIp))
             include = true;
 
-        if (gateway != null &&
-                (gateway.equals("255.255.255.255") || gateway.equals(mRemoteGW)))
+        if (gatewayIp == 0xffffffffL || gateway.equals(mRemoteGW))
             include = true;
 
 
-        if (route.len == 32 && !mask.equals("255.255.255.255")) {
+        if (len == 32 && maskIp != 0xffffffffL) {
             VpnStatus.logWarning(R.string.route_not_cidr, dest, mask);
         }
 
-        if (route.normalise())
-            VpnStatus.logWarning(R.string.route_not_netip, dest, route.len, route.mIp);
+        long netIp = destIp & CIDRIP.prefixMask(len);
+        if (netIp != destIp)
+            VpnStatus.logWarning(R.string.route_not_netip, dest, len, CIDRIP.toDottedQuad(netIp));
 
-        tunConfig.mRoutes.addIP(route, include);
+        tunConfig.mRoutes.addIP(netIp, len, include);
     }
 
     public void addRoutev6(String network, String device) {
@@ -1292,12 +1542,20 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
     }
 
     public void addRoutev6(String network, boolean included) {
-        String[] v6parts = network.split("/");
+        int slash = network.indexOf('/');
+        String address = network.substring(0, slash);
+        int mask = Integer.parseInt(network.substring(slash + 1));
 
-        try {
-            Inet6Address ip = (Inet6Address) InetAddress.getAllByName(v6parts[0])[0];
-            int mask = Integer.parseInt(v6parts[1]);
+        byte[] ip = NetworkSpace.parseIPv6Literal(address);
+        if (ip != null) {
             tunConfig.mRoutesv6.addIPv6(ip, mask, included);
+            return;
+        }
+
+        /* Scoped or otherwise unusual address, let InetAddress deal with it */
+        try {
+            Inet6Address ip6 = (Inet6Address) InetAddress.getAllByName(address)[0];
+            tunConfig.mRoutesv6.addIPv6(ip6, mask, included);
 
         } catch (UnknownHostException e) {
             VpnStatus.logException(e);
@@ -1375,6 +1633,7 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
         // Notification should be invisible in this state
 
         doSendBroadcast(state, level);
+        recordConnectState(state, level);
         if (mProcessThread == null && !mNotificationAlwaysVisible)
             return;
 
@@ -1401,11 +1660,53 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
         }
     }
 
+    /**
+     * @return the timeline of the current connection attempt, null before the first start
+     */
+    ConnectTimeline getConnectTimeline() {
+        return mConnectTimeline;
+    }
+
+    /**
+     * Marks a phase of the current connection attempt
+     */
+    void markConnectPhase(ConnectTimeline.Phase phase) {
+        ConnectTimeline timeline = mConnectTimeline;
+        if (timeline != null)
+            timeline.mark(phase);
+    }
+
+    private void recordConnectState(String state, ConnectionStatus level) {
+        final ConnectTimeline timeline = mConnectTimeline;
+        if (timeline == null || timeline.isConnected())
+            return;
+
+        timeline.markState(state);
+        if (level != LEVEL_CONNECTED)
+            return;
+
+        timeline.mark(ConnectTimeline.Phase.CONNECTED);
+        VpnStatus.logDebug("Connect timeline: " + timeline.toLogString());
+        mCommandHandler.post(() -> {
+            ConnectTimeline.record(this, timeline);
+            ConnectTimeline.saveHistograms(this);
+            String summary = ConnectTimeline.getSummary(this, timeline.getProfileUUID());
+            if (summary != null)
+                VpnStatus.logDebug("Connect times of this profile:\n" + summary);
+        });
+    }
+
     @Override
     public void setConnectedVPN(String uuid) {
     }
 
     private void doSendBroadcast(String state, ConnectionStatus level) {
+        /* Repeated identical states are not interesting for the receivers */
+        if (level == mLastBroadcastLevel && state.equals(mLastBroadcastState))
+            return;
+        mLastBroadcastLevel = level;
+        mLastBroadcastState = state;
+
         Intent vpnstatus = new Intent();
         vpnstatus.setAction("de.blinkt.openvpn.VPN_STATUS");
         vpnstatus.putExtra("status", level.toString());
@@ -1416,6 +1717,15 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
     @Override
     public void updateByteCount(long in, long out, long diffIn, long diffOut) {
         if (mDisplayBytecount) {
+            /* Nobody can see the notification with the screen off */
+            if (mDeviceStateReceiver != null && !mDeviceStateReceiver.isScreenOn())
+                return;
+
+            long now = SystemClock.elapsedRealtime();
+            if (now - mLastByteCountNotification < NOTIFICATION_BYTECOUNT_INTERVAL)
+                return;
+            mLastByteCountNotification = now;
+
             String netstat = String.format(getString(R.string.statusline_bytecount),
                     humanReadableByteCount(in, false, getResources()),
                     humanReadableByteCount(diffIn / OpenVPNManagement.mBytecountInterval, true, getResources()),
@@ -1444,10 +1754,11 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
     }
 
     public String getTunReopenStatus() {
-        String currentConfiguration = getTunConfigString(tunConfig);
-        if (currentConfiguration.equals(getTunConfigString(mLastTunCfg))) {
+        if (mLastTunCfg != null && tunConfig.getFingerprint().equals(mLastTunCfg.getFingerprint())) {
             return "NOACTION";
         } else {
+            if (mLastTunCfg != null)
+                VpnStatus.logDebug("Tun configuration changed: " + TextUtils.join("; ", tunConfig.describeChanges(mLastTunCfg)));
             return "OPEN_BEFORE_CLOSE";
         }
     }
@@ -7,6 +7,7 @@ package de.blinkt.openvpn.core;
 
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.Context;
 import android.content.Intent;
 import android.os.Build;
 import android.os.Handler;
@@ -18,8 +19,14 @@ import android.os.RemoteException;
 import androidx.annotation.Nullable;
 import android.util.Pair;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
 import java.lang.ref.WeakReference;
 
 /**
@@ -37,9 +44,21 @@ public class OpenVPNStatusService extends Service implements VpnStatus.LogListen
     static final RemoteCallbackList<IStatusCallbacks> mCallbacks =
             new RemoteCallbackList<>();
 
+    private static StatusRing mStatusRing;
+    private static File mStatusRingFile;
+    private static Context mAppContext;
+
     @Override
     public void onCreate() {
         super.onCreate();
+        mAppContext = getApplicationContext();
+        mStatusRingFile = new File(getCacheDir(), StatusRing.RING_FILE_NAME);
+        try {
+            mStatusRing = StatusRing.createWriter(mStatusRingFile);
+        } catch (IOException e) {
+            VpnStatus.logException("Creating status ring failed", e);
+            mStatusRing = null;
+        }
         VpnStatus.addLogListener(this);
         VpnStatus.addByteCountListener(this);
         VpnStatus.addStateListener(this);
@@ -61,8 +80,23 @@ public class OpenVPNStatusService extends Service implements VpnStatus.LogListen
     private static final IServiceStatus.Stub mBinder = new IServiceStatus.Stub() {
 
         @Override
-        public ParcelFileDescriptor registerStatusCallback(IStatusCallbacks cb) throws RemoteException {
-            final LogItem[] logbuffer = VpnStatus.getlogbuffer();
+        public ParcelFileDescriptor registerStatusCallback(IStatusCallbacks cb, long ringGeneration, long ringSeq, long lastLogTime) throws RemoteException {
+            final LogItem[] logbuffer;
+            final long startSeq;
+            StatusRing ring = mStatusRing;
+            if (ring != null && ring.getGeneration() == ringGeneration && ring.containsSeq(ringSeq)) {
+                /* Client already has everything before ringSeq */
+                logbuffer = new LogItem[0];
+                startSeq = ringSeq;
+            } else {
+                /* The log items are written to the ring while holding the VpnStatus
+                 * lock, so the snapshot and the ring position always match */
+                synchronized (VpnStatus.class) {
+                    logbuffer = VpnStatus.getlogbuffer();
+                    startSeq = ring != null ? ring.getNextSeq() : -1;
+                }
+            }
+
             if (mLastUpdateMessage != null)
                 sendUpdate(cb, mLastUpdateMessage);
 
@@ -72,7 +106,8 @@ public class OpenVPNStatusService extends Service implements VpnStatus.LogListen
                 new Thread("pushLogs") {
                     @Override
                     public void run() {
-                        DataOutputStream fd = new DataOutputStream(new ParcelFileDescriptor.AutoCloseOutputStream(pipe[1]));
+                        DataOutputStream fd = new DataOutputStream(new BufferedOutputStream(
+                                new ParcelFileDescriptor.AutoCloseOutputStream(pipe[1]), LOG_FRAME_SIZE));
                         try {
                             synchronized (VpnStatus.readFileLock) {
                                 if (!VpnStatus.readFileLog) {
@@ -83,14 +118,8 @@ public class OpenVPNStatusService extends Service implements VpnStatus.LogListen
                             VpnStatus.logException(e);
                         }
                         try {
-
-                            for (LogItem logItem : logbuffer) {
-                                byte[] bytes = logItem.getMarschaledBytes();
-                                fd.writeShort(bytes.length);
-                                fd.write(bytes);
-                            }
-                            // Mark end
-                            fd.writeShort(0x7fff);
+                            fd.writeLong(startSeq);
+                            writeLogFrames(fd, logbuffer, lastLogTime);
                             fd.close();
                         } catch (IOException e) {
                             e.printStackTrace();
@@ -105,6 +134,18 @@ public class OpenVPNStatusService extends Service implements VpnStatus.LogListen
             }
         }
 
+        @Override
+        public ParcelFileDescriptor getStatusRing() throws RemoteException {
+            if (mStatusRing == null)
+                return null;
+            try {
+                return ParcelFileDescriptor.open(mStatusRingFile, ParcelFileDescriptor.MODE_READ_ONLY);
+            } catch (FileNotFoundException e) {
+                VpnStatus.logException(e);
+                return null;
+            }
+        }
+
         @Override
         public void unregisterStatusCallback(IStatusCallbacks cb) throws RemoteException {
             mCallbacks.unregister(cb);
@@ -125,20 +166,85 @@ public class OpenVPNStatusService extends Service implements VpnStatus.LogListen
             return VpnStatus.trafficHistory;
         }
 
+        @Override
+        public String getConnectTimes(String uuid) throws RemoteException {
+            if (mAppContext == null)
+                return null;
+            return ConnectTimeline.getSummary(mAppContext, uuid);
+        }
+
+        @Override
+        public String getSignLatency() throws RemoteException {
+            return OpenVpnManagementThread.getSignLatencySummary();
+        }
+
     };
 
+    static final int LOG_FRAME_SIZE = 32 * 1024;
+
+    /**
+     * Writes the log items that are not older than minLogTime as frames of up to
+     * LOG_FRAME_SIZE bytes, followed by an empty frame
+     */
+    static void writeLogFrames(DataOutputStream out, LogItem[] logItems, long minLogTime) throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(LOG_FRAME_SIZE);
+        DataOutputStream frameOut = new DataOutputStream(frame);
+        for (LogItem logItem : logItems) {
+            if (logItem.getLogtime() < minLogTime)
+                continue;
+
+            byte[] bytes = logItem.getMarschaledBytes();
+            if (frame.size() > 0 && frame.size() + 4 + bytes.length > LOG_FRAME_SIZE) {
+                out.writeInt(frame.size());
+                frame.writeTo(out);
+                frame.reset();
+            }
+            frameOut.writeInt(bytes.length);
+            frameOut.write(bytes);
+        }
+        if (frame.size() > 0) {
+            out.writeInt(frame.size());
+            frame.writeTo(out);
+        }
+        // Mark end
+        out.writeInt(0);
+    }
+
     @Override
     public void newLog(LogItem logItem) {
+        if (mStatusRing != null) {
+            try {
+                mStatusRing.append(logItem.getMarschaledBytes());
+                scheduleRingWakeup();
+                return;
+            } catch (UnsupportedEncodingException | BufferOverflowException e) {
+                /* Fall back to sending the item via binder */
+            }
+        }
         Message msg = mHandler.obtainMessage(SEND_NEW_LOGITEM, logItem);
         msg.sendToTarget();
     }
 
     @Override
     public void updateByteCount(long in, long out, long diffIn, long diffOut) {
+        if (mStatusRing != null) {
+            mStatusRing.updateByteCount(in, out);
+            scheduleRingWakeup();
+            return;
+        }
         Message msg = mHandler.obtainMessage(SEND_NEW_BYTECOUNT, Pair.create(in, out));
         msg.sendToTarget();
     }
 
+    /**
+     * Wake up the clients to read the status ring. Multiple updates that happen before
+     * the handler runs result in only one wakeup.
+     */
+    private static void scheduleRingWakeup() {
+        if (!mHandler.hasMessages(SEND_RING_WAKEUP))
+            mHandler.sendEmptyMessage(SEND_RING_WAKEUP);
+    }
+
     static UpdateMessage mLastUpdateMessage;
 
     static class UpdateMessage {
@@ -172,12 +278,21 @@ public class OpenVPNStatusService extends Service implements VpnStatus.LogListen
         msg.sendToTarget();
     }
 
+    /**
+     * Tells the clients that a profile has been saved by this process
+     */
+    static void profileSaved(String uuid, int version) {
+        mHandler.obtainMessage(SEND_PROFILE_SAVED, version, 0, uuid).sendToTarget();
+    }
+
     private static final OpenVPNStatusHandler mHandler = new OpenVPNStatusHandler();
 
     private static final int SEND_NEW_LOGITEM = 100;
     private static final int SEND_NEW_STATE = 101;
     private static final int SEND_NEW_BYTECOUNT = 102;
     private static final int SEND_NEW_CONNECTED_VPN = 103;
+    private static final int SEND_RING_WAKEUP = 104;
+    private static final int SEND_PROFILE_SAVED = 105;
 
     private static class OpenVPNStatusHandler extends Handler {
         WeakReference<OpenVPNStatusService> service = null;
@@ -215,6 +330,12 @@ public class OpenVPNStatusService extends Service implements VpnStatus.LogListen
                         case SEND_NEW_CONNECTED_VPN:
                             broadcastItem.connectedVPN((String) msg.obj);
                             break;
+                        case SEND_RING_WAKEUP:
+                            broadcastItem.statusRingUpdated();
+                            break;
+                        case SEND_PROFILE_SAVED:
+                            broadcastItem.profileSaved((String) msg.obj, msg.arg1);
+                            break;
                     }
                 } catch (RemoteException e) {
                     // The RemoteCallbackList will take care of removing
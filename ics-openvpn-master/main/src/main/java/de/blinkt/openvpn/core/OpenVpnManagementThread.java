@@ -12,7 +12,9 @@ import android.net.LocalSocket;
 import android.net.LocalSocketAddress;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
 import android.system.Os;
@@ -32,14 +34,18 @@ import java.util.*;
 public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
 
     public static final int ORBOT_TIMEOUT_MS = 20 * 1000;
+    /* OpenVPN waits for the signature without a timeout of its own */
+    static final int SIGN_TIMEOUT_MS = 60 * 1000;
+    private static final LatencyHistogram sSignLatency = new LatencyHistogram();
     private static final String TAG = "openvpn";
     private static final Vector<OpenVpnManagementThread> active = new Vector<>();
+    private static ManagementSocket.ServerFactory sServerFactory;
     private final Handler mResumeHandler;
-    private LocalSocket mSocket;
+    private ManagementSocket mSocket;
     private VpnProfile mProfile;
     private OpenVPNService mOpenVPNService;
     private LinkedList<FileDescriptor> mFDList = new LinkedList<>();
-    private LocalServerSocket mServerSocket;
+    private ManagementSocket.Server mServerSocket;
     private boolean mWaitingForRelease = false;
     private long mLastHoldRelease = 0;
     private LocalSocket mServerSocketLocal;
@@ -91,6 +97,32 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
         }
     };
     private transient Connection mCurrentProxyConnection;
+    private ManagementTranscript mTranscript;
+    /* Commands are written from the management thread and the sign thread. The fds to send
+     * are set on the socket for the next write, so setting them and the write have to be
+     * done under this lock as well */
+    private final Object mWriteLock = new Object();
+    private CommandListener mCommandListener;
+    private HandlerThread mSignThread;
+    private Handler mSignHandler;
+    /* Id of the PK_SIGN request that has not been answered yet, 0 if there is none */
+    private int mPendingSignId;
+    private int mLastSignId;
+    private final Runnable mSignTimeoutRunnable = () -> {
+        int id;
+        synchronized (this) {
+            id = mPendingSignId;
+        }
+        if (id != 0 && finishSignRequest(id, null, 0))
+            VpnStatus.logError("Signing the data for the TLS handshake took longer than " + SIGN_TIMEOUT_MS / 1000 + "s");
+    };
+
+    /**
+     * Gets told how long handling each line from OpenVPN took, used by benchmarks
+     */
+    interface CommandListener {
+        void onCommandHandled(String command, long durationNanos);
+    }
 
     public OpenVpnManagementThread(VpnProfile profile, OpenVPNService openVpnService) {
         mProfile = profile;
@@ -121,6 +153,16 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
         int tries = 8;
 
         String socketName = (c.getCacheDir().getAbsolutePath() + "/" + "mgmtsocket");
+
+        if (sServerFactory != null) {
+            try {
+                mServerSocket = sServerFactory.listen(socketName);
+                return true;
+            } catch (IOException e) {
+                VpnStatus.logException(e);
+                return false;
+            }
+        }
         // The mServerSocketLocal is transferred to the LocalServerSocket, ignore warning
 
         mServerSocketLocal = new LocalSocket();
@@ -143,7 +185,7 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
 
         try {
 
-            mServerSocket = new LocalServerSocket(mServerSocketLocal.getFileDescriptor());
+            mServerSocket = ManagementSocket.wrap(new LocalServerSocket(mServerSocketLocal.getFileDescriptor()));
             return true;
         } catch (IOException e) {
             VpnStatus.logException(e);
@@ -151,21 +193,56 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
         return false;
     }
 
+    /**
+     * Uses server instead of the management socket, for tests that have no OpenVPN process
+     */
+    void openManagementInterface(ManagementSocket.Server server) {
+        mServerSocket = server;
+    }
+
+    /**
+     * Lets {@link #openManagementInterface(Context)} listen with factory instead of a
+     * LocalSocket, for running against a stand-in daemon outside of Android. null restores
+     * the default.
+     */
+    static void setServerFactory(ManagementSocket.ServerFactory factory) {
+        sServerFactory = factory;
+    }
+
+    /**
+     * Records the traffic on the management socket, has to be set before the thread is started
+     */
+    void setTranscript(ManagementTranscript transcript) {
+        mTranscript = transcript;
+    }
+
+    void setCommandListener(CommandListener listener) {
+        mCommandListener = listener;
+    }
+
     /**
      * @param cmd command to write to management socket
      * @return true if command have been sent
      */
     public boolean managmentCommand(String cmd) {
-        try {
-            if (mSocket != null && mSocket.getOutputStream() != null) {
-                mSocket.getOutputStream().write(cmd.getBytes());
-                mSocket.getOutputStream().flush();
-                return true;
+        return managmentCommand(cmd, 0);
+    }
+
+    private boolean managmentCommand(String cmd, int fds) {
+        synchronized (mWriteLock) {
+            try {
+                if (mSocket != null && mSocket.getOutputStream() != null) {
+                    mSocket.getOutputStream().write(cmd.getBytes());
+                    mSocket.getOutputStream().flush();
+                    if (mTranscript != null)
+                        mTranscript.sent(cmd, fds);
+                    return true;
+                }
+            } catch (IOException e) {
+                // Ignore socket stack traces
             }
-        } catch (IOException e) {
-            // Ignore socket stack traces
+            return false;
         }
-        return false;
     }
 
     @Override
@@ -181,6 +258,7 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
         try {
             // Wait for a client to connect
             mSocket = mServerSocket.accept();
+            mOpenVPNService.markConnectPhase(ConnectTimeline.Phase.MANAGEMENT_ACCEPT);
             InputStream instream = mSocket.getInputStream();
 
 
@@ -199,7 +277,7 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
 
                 int numbytesread = instream.read(buffer);
                 if (numbytesread == -1)
-                    return;
+                    break;
 
                 FileDescriptor[] fds = null;
                 try {
@@ -212,18 +290,45 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
                 }
 
                 String input = new String(buffer, 0, numbytesread, "UTF-8");
+                if (mTranscript != null)
+                    mTranscript.received(input, fds == null ? 0 : fds.length);
 
                 pendingInput += input;
 
                 pendingInput = processInput(pendingInput);
             }
         } catch (IOException e) {
-            if (!e.getMessage().equals("socket closed") && !e.getMessage().equals("Connection reset by peer"))
+            if (!"socket closed".equals(e.getMessage()) && !"Connection reset by peer".equals(e.getMessage()))
                 VpnStatus.logException(e);
         }
         synchronized (active) {
             active.remove(this);
         }
+
+        /* Nothing is left to resume and nobody will ask to protect the remaining fds */
+        mResumeHandler.removeCallbacks(mResumeHoldRunnable);
+        mResumeHandler.removeCallbacks(orbotStatusTimeOutRunnable);
+        mResumeHandler.removeCallbacks(mSignTimeoutRunnable);
+        synchronized (this) {
+            mPendingSignId = 0;
+            if (mSignThread != null)
+                mSignThread.quit();
+        }
+        String signLatency = getSignLatencySummary();
+        if (mLastSignId > 0 && signLatency != null)
+            VpnStatus.logDebug("Signing latency: " + signLatency);
+
+        FileDescriptor fd;
+        while ((fd = mFDList.pollFirst()) != null)
+            fdClose(fd);
+
+        if (mTranscript != null) {
+            try {
+                mTranscript.close();
+            } catch (IOException e) {
+                VpnStatus.logException(e);
+            }
+        }
     }
 
     //! Hack O Rama 2000!
@@ -262,7 +367,14 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
 
         while (pendingInput.contains("\n")) {
             String[] tokens = pendingInput.split("\\r?\\n", 2);
-            processCommand(tokens[0]);
+            CommandListener listener = mCommandListener;
+            if (listener != null) {
+                long start = System.nanoTime();
+                processCommand(tokens[0]);
+                listener.onCommandHandled(tokens[0], System.nanoTime() - start);
+            } else {
+                processCommand(tokens[0]);
+            }
             if (tokens.length == 1)
                 // No second part, newline was at the end
                 pendingInput = "";
@@ -534,7 +646,7 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
         int p2 = argument.indexOf('\'', p1 + 1);
 
         String needed = argument.substring(p1 + 1, p2);
-        String extra = argument.split(":", 2)[1];
+        String extra = argument.substring(argument.indexOf(':') + 1);
 
         String status = "ok";
 
@@ -635,12 +747,14 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
             // Trigger a send so we can close the fd on our side of the channel
             // The API documentation fails to mention that it will not reset the file descriptor to
             // be send and will happily send the file descriptor on every write ...
-            mSocket.setFileDescriptorsForSend(fds);
+            synchronized (mWriteLock) {
+                mSocket.setFileDescriptorsForSend(fds);
 
-            managmentCommand(cmd);
+                managmentCommand(cmd, fds.length);
 
-            // Set the FileDescriptor to null to stop this mad behavior
-            mSocket.setFileDescriptorsForSend(null);
+                // Set the FileDescriptor to null to stop this mad behavior
+                mSocket.setFileDescriptorsForSend(null);
+            }
             pfd.close();
 
 
@@ -788,17 +902,69 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
                 needsDigest = true;
         }
 
-        String signed_string = mProfile.getSignedData(mOpenVPNService, arguments[0], padding, saltlen, hashalg, needsDigest);
+        /* Signing might bind to another app or wait for the key store, the management
+         * socket keeps being read meanwhile */
+        final String data = arguments[0];
+        final SignaturePadding finalPadding = padding;
+        final String finalSaltlen = saltlen;
+        final String finalHashalg = hashalg;
+        final boolean finalNeedsDigest = needsDigest;
+        final int id;
+        synchronized (this) {
+            id = ++mLastSignId;
+            mPendingSignId = id;
+            if (mSignThread == null) {
+                mSignThread = new HandlerThread("OpenVPNSignThread");
+                mSignThread.start();
+                mSignHandler = new Handler(mSignThread.getLooper());
+            }
+        }
+        mResumeHandler.removeCallbacks(mSignTimeoutRunnable);
+        mResumeHandler.postDelayed(mSignTimeoutRunnable, SIGN_TIMEOUT_MS);
+
+        final long start = SystemClock.elapsedRealtime();
+        mSignHandler.post(() -> {
+            String signedString = mProfile.getSignedData(mOpenVPNService, data, finalPadding, finalSaltlen, finalHashalg, finalNeedsDigest);
+            finishSignRequest(id, signedString, SystemClock.elapsedRealtime() - start);
+        });
+    }
+
+    /**
+     * Answers the PK_SIGN request with id unless it has already been answered, an empty
+     * signature tells OpenVPN that signing failed
+     *
+     * @return true if the request has been answered by this call
+     */
+    private boolean finishSignRequest(int id, String signedString, long durationMs) {
+        synchronized (this) {
+            if (id != mPendingSignId)
+                return false;
+            mPendingSignId = 0;
+        }
+        mResumeHandler.removeCallbacks(mSignTimeoutRunnable);
 
-        if (signed_string == null) {
-            managmentCommand("pk-sig\n");
-            managmentCommand("\nEND\n");
+        if (signedString == null) {
+            managmentCommand("pk-sig\n\nEND\n");
             stopOpenVPN();
-            return;
+            return true;
+        }
+        synchronized (sSignLatency) {
+            sSignLatency.record(durationMs);
+        }
+        /* One write, other commands must not end up between the lines */
+        managmentCommand("pk-sig\n" + signedString + "\nEND\n");
+        return true;
+    }
+
+    /**
+     * @return the time signing the data of the TLS handshakes took in this process
+     */
+    public static String getSignLatencySummary() {
+        synchronized (sSignLatency) {
+            if (sSignLatency.getTotalCount() == 0)
+                return null;
+            return sSignLatency.getSummary();
         }
-        managmentCommand("pk-sig\n");
-        managmentCommand(signed_string);
-        managmentCommand("\nEND\n");
     }
 
     @Override
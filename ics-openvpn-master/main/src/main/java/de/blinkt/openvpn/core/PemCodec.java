@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import org.spongycastle.util.io.pem.PemHeader;
+import org.spongycastle.util.io.pem.PemObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads and writes PEM without going through a String per line like the spongycastle
+ * PemReader and PemWriter. The input is read in blocks and the Base64 text is decoded
+ * directly into the resulting byte array, so large CA bundles stay cheap.
+ */
+public class PemCodec {
+    private static final int LINE_LENGTH = 64;
+    private static final byte[] BEGIN = "-----BEGIN ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] END = "-----END ".getBytes(StandardCharsets.US_ASCII);
+
+    private static final char[] ENCODE = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final byte INVALID = -1;
+    private static final byte SKIP = -2;
+    private static final byte PAD = -3;
+    private static final byte[] DECODE = new byte[256];
+
+    static {
+        Arrays.fill(DECODE, INVALID);
+        for (int i = 0; i < ENCODE.length; i++)
+            DECODE[ENCODE[i]] = (byte) i;
+        DECODE[' '] = SKIP;
+        DECODE['\t'] = SKIP;
+        DECODE['\r'] = SKIP;
+        DECODE['='] = PAD;
+    }
+
+    private final InputStream mIn;
+    private final byte[] mBuffer = new byte[8192];
+    private int mPos;
+    private int mLimit;
+    /* The current line without the line end */
+    private byte[] mLine = new byte[128];
+    private int mLineLength;
+
+    public PemCodec(InputStream in) {
+        mIn = in;
+    }
+
+    private int read() throws IOException {
+        if (mPos == mLimit) {
+            mLimit = mIn.read(mBuffer, 0, mBuffer.length);
+            mPos = 0;
+            if (mLimit <= 0) {
+                mLimit = 0;
+                return -1;
+            }
+        }
+        return mBuffer[mPos++] & 0xff;
+    }
+
+    /**
+     * Reads the next line into mLine without the line end
+     *
+     * @return false at the end of the stream
+     */
+    private boolean readLine() throws IOException {
+        mLineLength = 0;
+        int c = read();
+        if (c == -1)
+            return false;
+        while (c != -1 && c != '\n') {
+            if (c != '\r') {
+                if (mLineLength == mLine.length)
+                    mLine = Arrays.copyOf(mLine, mLine.length * 2);
+                mLine[mLineLength++] = (byte) c;
+            }
+            c = read();
+        }
+        return true;
+    }
+
+    private boolean lineStartsWith(byte[] prefix) {
+        if (mLineLength < prefix.length)
+            return false;
+        for (int i = 0; i < prefix.length; i++)
+            if (mLine[i] != prefix[i])
+                return false;
+        return true;
+    }
+
+    /**
+     * @return the next PEM object or null if there is none until the end of the stream
+     */
+    public PemObject readPemObject() throws IOException {
+        String type = null;
+        while (type == null) {
+            if (!readLine())
+                return null;
+            if (lineStartsWith(BEGIN)) {
+                int end = BEGIN.length;
+                while (end < mLineLength && mLine[end] != '-')
+                    end++;
+                if (end > BEGIN.length && end < mLineLength)
+                    type = new String(mLine, BEGIN.length, end - BEGIN.length, StandardCharsets.US_ASCII);
+            }
+        }
+        return readBody(type);
+    }
+
+    /**
+     * @return all objects of the type, other objects are skipped
+     */
+    public List<byte[]> readAll(String type) throws IOException {
+        List<byte[]> contents = new ArrayList<>();
+        PemObject pem;
+        while ((pem = readPemObject()) != null)
+            if (pem.getType().equals(type))
+                contents.add(pem.getContent());
+        return contents;
+    }
+
+    private PemObject readBody(String type) throws IOException {
+        List<PemHeader> headers = new ArrayList<>();
+        byte[] out = new byte[1024];
+        int outLength = 0;
+        int quantum = 0;
+        int bits = 0;
+        boolean padded = false;
+
+        while (true) {
+            if (!readLine())
+                throw new IOException(new String(END, StandardCharsets.US_ASCII) + type + " not found");
+            if (lineStartsWith(END))
+                break;
+
+            int colon = indexOf(':');
+            if (colon >= 0) {
+                /* Headers like Proc-Type come before the Base64 data */
+                headers.add(new PemHeader(new String(mLine, 0, colon, StandardCharsets.US_ASCII).trim(),
+                        new String(mLine, colon + 1, mLineLength - colon - 1, StandardCharsets.US_ASCII).trim()));
+                continue;
+            }
+
+            if (outLength + (mLineLength / 4 + 1) * 3 > out.length)
+                out = Arrays.copyOf(out, Math.max(out.length * 2, outLength + (mLineLength / 4 + 1) * 3));
+            for (int i = 0; i < mLineLength; i++) {
+                int c = mLine[i] & 0xff;
+                byte d = DECODE[c];
+                if (d >= 0 && !padded) {
+                    bits = (bits << 6) | d;
+                    if (++quantum == 4) {
+                        out[outLength++] = (byte) (bits >> 16);
+                        out[outLength++] = (byte) (bits >> 8);
+                        out[outLength++] = (byte) bits;
+                        quantum = 0;
+                        bits = 0;
+                    }
+                } else if (d == PAD) {
+                    padded = true;
+                } else if (d != SKIP) {
+                    throw new IOException("Invalid character in " + type);
+                }
+            }
+        }
+
+        /* Remaining bits of a padded quantum */
+        if (outLength + 2 > out.length)
+            out = Arrays.copyOf(out, outLength + 2);
+        if (quantum == 2) {
+            out[outLength++] = (byte) (bits >> 4);
+        } else if (quantum == 3) {
+            out[outLength++] = (byte) (bits >> 10);
+            out[outLength++] = (byte) (bits >> 2);
+        } else if (quantum == 1) {
+            throw new IOException("Truncated Base64 data in " + type);
+        }
+        return new PemObject(type, headers, Arrays.copyOf(out, outLength));
+    }
+
+    private int indexOf(char c) {
+        for (int i = 0; i < mLineLength; i++)
+            if (mLine[i] == c)
+                return i;
+        return -1;
+    }
+
+    /**
+     * Appends the object as PEM with 64 character lines, e.g. directly to the config
+     */
+    public static void write(StringBuilder sink, String type, byte[] content) {
+        sink.append("-----BEGIN ").append(type).append("-----\n");
+        int lineChars = 0;
+        int i = 0;
+        for (; i + 3 <= content.length; i += 3) {
+            int bits = (content[i] & 0xff) << 16 | (content[i + 1] & 0xff) << 8 | (content[i + 2] & 0xff);
+            sink.append(ENCODE[bits >> 18]).append(ENCODE[(bits >> 12) & 0x3f])
+                    .append(ENCODE[(bits >> 6) & 0x3f]).append(ENCODE[bits & 0x3f]);
+            lineChars += 4;
+            if (lineChars == LINE_LENGTH) {
+                sink.append('\n');
+                lineChars = 0;
+            }
+        }
+        int remaining = content.length - i;
+        if (remaining > 0) {
+            int bits = (content[i] & 0xff) << 16;
+            if (remaining == 2)
+                bits |= (content[i + 1] & 0xff) << 8;
+            sink.append(ENCODE[bits >> 18]).append(ENCODE[(bits >> 12) & 0x3f]);
+            sink.append(remaining == 2 ? ENCODE[(bits >> 6) & 0x3f] : '=').append('=');
+            lineChars += 4;
+        }
+        if (lineChars > 0)
+            sink.append('\n');
+        sink.append("-----END ").append(type).append("-----\n");
+    }
+}
@@ -9,20 +9,28 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
+import android.os.SystemClock;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import de.blinkt.openvpn.VpnProfile;
 
@@ -38,6 +46,13 @@ public class ProfileManager {
     private HashMap<String, VpnProfile> profiles = new HashMap<>();
     /* We got an error trying to save profiles, do not try encryption anymore */
     private static boolean encryptionBroken = false;
+    /* Decrypting and deserialising the profiles is CPU bound, a few threads are enough */
+    private static final int LOADER_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+    private static final ThreadPoolExecutor sLoader = new ThreadPoolExecutor(LOADER_THREADS, LOADER_THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+
+    static {
+        sLoader.allowCoreThreadTimeOut(true);
+    }
 
     private ProfileManager() {
     }
@@ -54,6 +69,8 @@ public class ProfileManager {
     private synchronized static void checkInstance(Context context) {
         if (instance == null) {
             instance = new ProfileManager();
+            /* Usually already started by ICSOpenVPNApplication, only encrypted profiles
+             * have to wait for the key */
             ProfileEncryption.initMasterCryptAlias(context);
             instance.loadVPNList(context);
         }
@@ -129,7 +146,7 @@ public class ProfileManager {
 
         String deleteIfExists;
         try {
-            FileOutputStream vpnFileOut;
+            OutputStream vpnFileOut;
             if (preferEncryption && ProfileEncryption.encryptionEnabled()) {
                 File encryptedFile = context.getFileStreamPath(filename + ".cp");
 
@@ -296,15 +313,57 @@ public class ProfileManager {
         // Always try to load the temporary profile
         vlist.add(TEMPORARY_PROFILE_FILENAME);
 
-        for (String vpnentry : vlist) {
-            loadVpnEntry(context, vpnentry);
+        long start = SystemClock.elapsedRealtime();
+        List<String> entries = new ArrayList<>(vlist);
+        List<Future<VpnProfile>> loading = new ArrayList<>();
+        for (String vpnentry : entries)
+            loading.add(sLoader.submit(() -> readVpnEntry(context, vpnentry)));
+
+        boolean interrupted = false;
+        for (int i = 0; i < entries.size(); i++) {
+            VpnProfile vp = null;
+            while (true) {
+                try {
+                    vp = loading.get(i).get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    VpnStatus.logException("Loading VPN List", e.getCause());
+                    break;
+                }
+            }
+            addVpnEntry(entries.get(i), vp);
         }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        VpnStatus.logDebug(String.format(Locale.US, "Loaded %d VPN profiles in %d ms with %d threads",
+                profiles.size(), SystemClock.elapsedRealtime() - start, LOADER_THREADS));
     }
 
     private synchronized void loadVpnEntry(Context context, String vpnentry) {
+        addVpnEntry(vpnentry, readVpnEntry(context, vpnentry));
+    }
+
+    private void addVpnEntry(String vpnentry, VpnProfile vp) {
+        if (vp == null)
+            return;
+        if (vpnentry.equals(TEMPORARY_PROFILE_FILENAME)) {
+            tmpprofile = vp;
+        } else {
+            profiles.put(vp.getUUID().toString(), vp);
+        }
+    }
+
+    /**
+     * Reads and decrypts a profile, does not touch the state of the ProfileManager so
+     * profiles can be read in parallel
+     */
+    private static VpnProfile readVpnEntry(Context context, String vpnentry) {
         ObjectInputStream vpnfile = null;
         try {
-            FileInputStream vpInput;
+            InputStream vpInput;
             File encryptedPath = context.getFileStreamPath(vpnentry + ".cp");
             File encryptedPathOld = context.getFileStreamPath(vpnentry + ".cpold");
 
@@ -321,17 +380,14 @@ public class ProfileManager {
 
             // Sanity check
             if (vp == null || vp.mName == null || vp.getUUID() == null)
-                return;
+                return null;
 
             vp.upgradeProfile();
-            if (vpnentry.equals(TEMPORARY_PROFILE_FILENAME)) {
-                tmpprofile = vp;
-            } else {
-                profiles.put(vp.getUUID().toString(), vp);
-            }
+            return vp;
         } catch (IOException | ClassNotFoundException | GeneralSecurityException e) {
             if (!vpnentry.equals(TEMPORARY_PROFILE_FILENAME))
                 VpnStatus.logException("Loading VPN List", e);
+            return null;
         } finally {
             if (vpnfile != null) {
                 try {
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Vector;
+
+import de.blinkt.openvpn.core.NetworkSpace.IpAddress;
+
+/**
+ * Reduces the number of routes that are handed to VpnService.Builder.
+ * <p>
+ * {@link #mergeLossless} only removes redundant routes and merges two routes that are
+ * the halves of one bigger network, so the routed addresses stay exactly the same.
+ * {@link #supernet} is used when a profile has a route budget that is still exceeded
+ * after that. It widens the most specific routes to a common prefix length until the
+ * budget is met, routes next to an exclusion are only widened as far as possible. A widened route never overlaps an excluded network, so exclusions
+ * stay exact and only additional addresses outside the exclusions end up in the VPN.
+ */
+class RouteAggregator {
+
+    /* Sort by first address and put the bigger network first if two start at the same address */
+    private static final Comparator<IpAddress> BY_ADDRESS_BIGGEST_FIRST = (a, b) -> {
+        int comp = a.getFirstAddress().compareTo(b.getFirstAddress());
+        if (comp != 0)
+            return comp;
+        return Integer.compare(a.networkMask, b.networkMask);
+    };
+
+    /**
+     * @param routes     included routes of one address family
+     * @param exclusions excluded networks, a route that is nested in another route is
+     *                   only dropped if it does not overlap any of these
+     */
+    static Vector<IpAddress> mergeLossless(Collection<IpAddress> routes, Collection<IpAddress> exclusions) {
+        Vector<IpAddress> sorted = new Vector<>(routes);
+        Collections.sort(sorted, BY_ADDRESS_BIGGEST_FIRST);
+
+        Vector<IpAddress> merged = new Vector<>();
+        Vector<IpAddress> nested = new Vector<>();
+        IpAddress lastTopLevel = null;
+
+        for (IpAddress route : sorted) {
+            if (lastTopLevel != null && lastTopLevel.containsNet(route)) {
+                /* A more specific route inside a route only matters if it is also inside an exclusion */
+                if (overlapsAny(route, exclusions))
+                    nested.add(route);
+                continue;
+            }
+            lastTopLevel = route;
+
+            merged.add(route);
+            while (merged.size() >= 2) {
+                IpAddress parent = mergeSiblings(merged.get(merged.size() - 2), merged.lastElement());
+                if (parent == null || containsEqual(exclusions, parent))
+                    break;
+                merged.setSize(merged.size() - 2);
+                merged.add(parent);
+                lastTopLevel = parent;
+            }
+        }
+        merged.addAll(nested);
+        return merged;
+    }
+
+    /**
+     * Widens routes until there are at most budget routes left or no route can be widened
+     * anymore without overlapping an exclusion.
+     *
+     * @param routes routes that have already been merged by {@link #mergeLossless}
+     */
+    static Vector<IpAddress> supernet(Collection<IpAddress> routes, Collection<IpAddress> exclusions, int budget) {
+        Vector<IpAddress> best = new Vector<>(routes);
+        if (routes.isEmpty() || best.size() <= budget)
+            return best;
+
+        int maxMask = 0;
+        for (IpAddress route : routes)
+            maxMask = Math.max(maxMask, route.networkMask);
+
+        /* Find the longest prefix length that still meets the budget. Widening to a
+         * shorter prefix can only merge more routes, so a binary search is enough */
+        int low = 0;
+        int high = maxMask - 1;
+        while (low <= high) {
+            int prefixLen = (low + high) >>> 1;
+            Vector<IpAddress> widened = mergeLossless(widen(routes, exclusions, prefixLen), exclusions);
+            if (widened.size() <= budget) {
+                best = widened;
+                low = prefixLen + 1;
+            } else {
+                if (widened.size() < best.size() && best.size() > budget)
+                    best = widened;
+                high = prefixLen - 1;
+            }
+        }
+        return best;
+    }
+
+    private static Vector<IpAddress> widen(Collection<IpAddress> routes, Collection<IpAddress> exclusions, int prefixLen) {
+        Vector<IpAddress> widened = new Vector<>(routes.size());
+        for (IpAddress route : routes) {
+            IpAddress result = route;
+            /* Use the widest network up to prefixLen that does not overlap an exclusion */
+            for (int len = prefixLen; len < route.networkMask; len++) {
+                IpAddress wider = normalised(route.getFirstAddress(), len, route.isV4());
+                if (!overlapsAny(wider, exclusions)) {
+                    result = wider;
+                    break;
+                }
+            }
+            widened.add(result);
+        }
+        return widened;
+    }
+
+    /**
+     * @return the network that consists of exactly a and b or null if there is no such network
+     */
+    static IpAddress mergeSiblings(IpAddress a, IpAddress b) {
+        if (a.networkMask != b.networkMask || a.networkMask == 0 || a.isV4() != b.isV4())
+            return null;
+
+        int hostBits = (a.isV4() ? 32 : 128) - a.networkMask;
+        /* a has to be the lower half of the parent and b has to follow directly */
+        if (a.getFirstAddress().testBit(hostBits))
+            return null;
+        if (!a.getLastAddress().add(BigInteger.ONE).equals(b.getFirstAddress()))
+            return null;
+
+        return normalised(a.getFirstAddress(), a.networkMask - 1, a.isV4());
+    }
+
+    private static IpAddress normalised(BigInteger address, int mask, boolean isV4) {
+        IpAddress net = new IpAddress(address, mask, true, isV4);
+        return new IpAddress(net.getFirstAddress(), mask, true, isV4);
+    }
+
+    private static boolean overlapsAny(IpAddress net, Collection<IpAddress> others) {
+        for (IpAddress other : others)
+            if (net.containsNet(other) || other.containsNet(net))
+                return true;
+        return false;
+    }
+
+    private static boolean containsEqual(Collection<IpAddress> nets, IpAddress net) {
+        for (IpAddress other : nets)
+            if (other.equals(net))
+                return true;
+        return false;
+    }
+}
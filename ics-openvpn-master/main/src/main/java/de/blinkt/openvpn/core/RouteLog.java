@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+
+import de.blinkt.openvpn.core.NetworkSpace.IpAddress;
+
+/**
+ * Keeps the route information in the log short. Only the first routes, the number of
+ * routes and a fingerprint of the complete set are logged. If that is not enough, the
+ * complete route table is written to a file in the cache directory that can be shared
+ * together with the log.
+ */
+public class RouteLog {
+    static final int ROUTE_LOG_LIMIT = 20;
+    private static final String DUMP_SUFFIX = ".routes.txt";
+
+    /**
+     * @return true if {@link #summarize} leaves out routes of this collection
+     */
+    static boolean isTruncated(Collection<IpAddress> routes) {
+        return routes.size() > ROUTE_LOG_LIMIT;
+    }
+
+    static String summarize(Collection<IpAddress> routes) {
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        for (IpAddress route : routes) {
+            if (i == ROUTE_LOG_LIMIT)
+                break;
+            if (i > 0)
+                sb.append(", ");
+            sb.append(route);
+            i++;
+        }
+
+        if (isTruncated(routes)) {
+            ConfigFingerprint fp = new ConfigFingerprint();
+            for (IpAddress route : routes)
+                fp.addOrdered(route.toString());
+            sb.append(", ... (").append(routes.size()).append(" routes, fingerprint ")
+                    .append(fp).append(")");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the complete route tables to a new file and removes older dumps
+     *
+     * @param tables title and routes of each table
+     */
+    static File writeDump(File dir, Map<String, Collection<IpAddress>> tables) throws IOException {
+        deleteDumps(dir);
+
+        File dump = new File(dir, UUID.randomUUID() + DUMP_SUFFIX);
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(dump))) {
+            for (Map.Entry<String, Collection<IpAddress>> table : tables.entrySet()) {
+                writer.write("# " + table.getKey() + " (" + table.getValue().size() + ")\n");
+                for (IpAddress route : table.getValue()) {
+                    writer.write(route.toString());
+                    writer.write('\n');
+                }
+                writer.write('\n');
+            }
+        }
+        return dump;
+    }
+
+    /**
+     * @return the last written route dump or null if there is none
+     */
+    public static File getLatestDump(File dir) {
+        File[] dumps = dir.listFiles((d, name) -> name.endsWith(DUMP_SUFFIX));
+        if (dumps == null)
+            return null;
+
+        File latest = null;
+        for (File dump : dumps)
+            if (latest == null || dump.lastModified() > latest.lastModified())
+                latest = dump;
+        return latest;
+    }
+
+    /**
+     * Removes all route dumps, used when the routes fit into the log
+     */
+    static void deleteDumps(File dir) {
+        File[] dumps = dir.listFiles((d, name) -> name.endsWith(DUMP_SUFFIX));
+        if (dumps == null)
+            return;
+        for (File dump : dumps)
+            //noinspection ResultOfMethodCallIgnored
+            dump.delete();
+    }
+}
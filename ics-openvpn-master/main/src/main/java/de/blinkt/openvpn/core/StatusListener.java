@@ -22,9 +22,13 @@ import androidx.annotation.RequiresApi;
 import de.blinkt.openvpn.BuildConfig;
 import de.blinkt.openvpn.core.VpnStatus.LogLevel;
 
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Locale;
 
@@ -36,7 +40,7 @@ public class StatusListener implements VpnStatus.LogListener {
     private final IStatusCallbacks mCallback = new IStatusCallbacks.Stub() {
         @Override
         public void newLogItem(LogItem item) throws RemoteException {
-            VpnStatus.newLogItem(item);
+            newLogItemFromService(item, false);
         }
 
         @Override
@@ -66,7 +70,91 @@ public class StatusListener implements VpnStatus.LogListener {
         public void connectedVPN(String uuid) throws RemoteException {
             VpnStatus.setConnectedVPNProfile(uuid);
         }
+
+        @Override
+        public void statusRingUpdated() throws RemoteException {
+            readStatusRing();
+        }
+
+        @Override
+        public void profileSaved(String uuid, int version) throws RemoteException {
+            /* Reload, otherwise the next save from this process writes the old profile back */
+            if (mContext != null)
+                ProfileManager.get(mContext, uuid, version, 10);
+        }
     };
+
+    /* Reader of the status ring of the service we are connected to, also used to
+     * resume from the last read log item when we reconnect to the same service */
+    private StatusRing mStatusRing;
+
+    private synchronized void readStatusRing() {
+        if (mStatusRing == null)
+            return;
+
+        for (byte[] record : mStatusRing.readNewRecords()) {
+            try {
+                newLogItemFromService(new LogItem(record, 0, record.length), false);
+            } catch (UnsupportedEncodingException | RuntimeException e) {
+                VpnStatus.logDebug("Could not read log item from status ring: " + e.getMessage());
+            }
+        }
+
+        long[] byteCount = mStatusRing.readByteCountIfChanged();
+        if (byteCount != null)
+            VpnStatus.updateByteCount(byteCount[0], byteCount[1]);
+    }
+
+    /* Time of the newest log item we got from the service. When we need to reconnect
+     * to a restarted service, it only has to send us newer items */
+    private volatile long mLastServiceLogTime = 0;
+
+    private void newLogItemFromService(LogItem li, boolean unique) {
+        mLastServiceLogTime = Math.max(mLastServiceLogTime, li.getLogtime());
+        if (unique)
+            VpnStatus.newLogItemIfUnique(li);
+        else
+            VpnStatus.newLogItem(li);
+    }
+
+    /**
+     * Reads the frames written by OpenVPNStatusService.writeLogFrames
+     */
+    private void readLogFrames(DataInputStream in) throws IOException {
+        byte[] frame = new byte[OpenVPNStatusService.LOG_FRAME_SIZE];
+        int frameLen = in.readInt();
+        while (frameLen != 0) {
+            if (frameLen < 0 || frameLen > 1024 * 1024)
+                throw new IOException("Invalid log frame length " + frameLen);
+            if (frameLen > frame.length)
+                frame = new byte[frameLen];
+            in.readFully(frame, 0, frameLen);
+
+            ByteBuffer bb = ByteBuffer.wrap(frame, 0, frameLen);
+            while (bb.hasRemaining()) {
+                int len = bb.getInt();
+                if (len < 0 || len > bb.remaining())
+                    throw new IOException("Invalid log item length " + len);
+                /* The service sends items with the same time as our newest item again */
+                newLogItemFromService(new LogItem(frame, bb.position(), len), true);
+                bb.position(bb.position() + len);
+            }
+            frameLen = in.readInt();
+        }
+    }
+
+    private static StatusRing openStatusRing(IServiceStatus serviceStatus) throws RemoteException {
+        ParcelFileDescriptor ringFd = serviceStatus.getStatusRing();
+        if (ringFd == null)
+            return null;
+        try (FileInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(ringFd)) {
+            return StatusRing.openReader(in);
+        } catch (IOException e) {
+            VpnStatus.logException("Opening status ring failed", e);
+            return null;
+        }
+    }
+
     private File mCacheDir;
     private final ServiceConnection mConnection = new ServiceConnection() {
 
@@ -82,20 +170,36 @@ public class StatusListener implements VpnStatus.LogListener {
                     // Not a local service
                     VpnStatus.setConnectedVPNProfile(serviceStatus.getLastConnectedVPN());
                     VpnStatus.setTrafficHistory(serviceStatus.getTrafficHistory());
-                    ParcelFileDescriptor pfd = serviceStatus.registerStatusCallback(mCallback);
-                    DataInputStream fd = new DataInputStream(new ParcelFileDescriptor.AutoCloseInputStream(pfd));
-
-                    short len = fd.readShort();
-                    byte[] buf = new byte[65336];
-                    while (len != 0x7fff) {
-                        fd.readFully(buf, 0, len);
-                        LogItem logitem = new LogItem(buf, len);
-                        VpnStatus.newLogItem(logitem, false);
-                        len = fd.readShort();
+
+                    long resumeGeneration = -1;
+                    long resumeSeq = -1;
+                    synchronized (StatusListener.this) {
+                        if (mStatusRing != null) {
+                            resumeGeneration = mStatusRing.getGeneration();
+                            resumeSeq = mStatusRing.getReadSeq();
+                        }
+                        mStatusRing = null;
                     }
+                    StatusRing ring = openStatusRing(serviceStatus);
+
+                    ParcelFileDescriptor pfd = serviceStatus.registerStatusCallback(mCallback,
+                            resumeGeneration, resumeSeq, mLastServiceLogTime);
+                    DataInputStream fd = new DataInputStream(new BufferedInputStream(
+                            new ParcelFileDescriptor.AutoCloseInputStream(pfd), OpenVPNStatusService.LOG_FRAME_SIZE));
+
+                    long startSeq = fd.readLong();
+                    readLogFrames(fd);
                     fd.close();
                     pfd.close();
 
+                    if (ring != null && startSeq >= 0) {
+                        synchronized (StatusListener.this) {
+                            ring.setReadSeq(startSeq);
+                            mStatusRing = ring;
+                        }
+                        /* Read everything that was logged while we read the log snapshot */
+                        readStatusRing();
+                    }
 
                 } else {
                     VpnStatus.initLogCache(mCacheDir);
@@ -0,0 +1,387 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.Vector;
+import java.util.zip.CRC32;
+
+/**
+ * Memory mapped ring buffer that the :openvpn process uses to hand log items and the
+ * byte counters to the UI process. The service process is the only writer, the
+ * clients map the same file read only and only get a binder wakeup when something new
+ * has been written.
+ * <p>
+ * Every record has a sequence number. Clients remember the sequence of the next record
+ * they want to read, so they can continue where they stopped after reconnecting to the
+ * service as long as the generation of the ring has not changed and the record has not
+ * been overwritten yet.
+ * <p>
+ * Java offers no memory barriers for a mapping shared with another process at API 21,
+ * so the reader may see the writes of the other process in any order. Instead of relying
+ * on the order, the header, the byte counters and every record carry a CRC32 and the
+ * reader only accepts a copy whose CRC matches. A header or byte count that does not
+ * match is read again a limited number of times, so a writer that died in the middle of
+ * an update cannot keep the reader spinning. A record that does not match is either
+ * being written or has been overwritten and is read again on the next call.
+ */
+class StatusRing {
+    static final String RING_FILE_NAME = "statusring.dat";
+
+    private static final int MAGIC = 0x4f565352;
+    private static final int VERSION = 2;
+    static final int DATA_SIZE = 256 * 1024;
+
+    private static final int OFF_MAGIC = 0;
+    private static final int OFF_VERSION = 4;
+    private static final int OFF_GENERATION = 8;
+    static final int OFF_NEXT_SEQ = 24;
+    private static final int OFF_WRITE_POS = 32;
+    private static final int OFF_OLDEST_SEQ = 40;
+    private static final int OFF_OLDEST_POS = 48;
+    private static final int OFF_BYTECOUNT_SEQ = 56;
+    static final int OFF_BYTES_IN = 64;
+    private static final int OFF_BYTES_OUT = 72;
+    private static final int OFF_HEADER_CRC = 80;
+    private static final int OFF_BYTECOUNT_CRC = 84;
+    static final int HEADER_SIZE = 128;
+
+    /* length, sequence number and CRC in front of every record */
+    static final int RECORD_HEADER_SIZE = 16;
+    /* Calls that found the same damaged record before the reader gives up on it */
+    private static final int MAX_RECORD_RETRIES = 3;
+    /* Reads of the header or the byte counters before the reader gives up for this call */
+    private static final int MAX_SPINS = 1000;
+
+    private final ByteBuffer mBuffer;
+
+    /* Writer state */
+    private long mNextSeq;
+    private long mWritePos;
+    private long mOldestSeq;
+    private long mOldestPos;
+    private long mByteCountSeq;
+
+    /* Reader state */
+    private long mReadSeq;
+    private long mReadPos = -1;
+    private long mReadByteCountSeq;
+    private int mRecordRetries;
+
+    private StatusRing(ByteBuffer buffer) {
+        mBuffer = buffer;
+    }
+
+    /**
+     * Creates a new ring file with a new generation. The old file is deleted first, so
+     * readers that still have the old file mapped do not see the new content.
+     */
+    static StatusRing createWriter(File ringFile) throws IOException {
+        if (ringFile.exists() && !ringFile.delete())
+            throw new IOException("Could not delete old status ring " + ringFile);
+        try (RandomAccessFile raf = new RandomAccessFile(ringFile, "rw")) {
+            raf.setLength(HEADER_SIZE + DATA_SIZE);
+            MappedByteBuffer mbb = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + DATA_SIZE);
+            StatusRing ring = new StatusRing(mbb);
+            mbb.putInt(OFF_MAGIC, MAGIC);
+            mbb.putInt(OFF_VERSION, VERSION);
+            mbb.putLong(OFF_GENERATION, new Random().nextLong() & Long.MAX_VALUE);
+            mbb.putInt(OFF_BYTECOUNT_CRC, crc(0, 0, 0));
+            ring.publishHeader();
+            return ring;
+        }
+    }
+
+    /**
+     * Maps the ring read only. The mapping stays valid after in has been closed.
+     */
+    static StatusRing openReader(FileInputStream in) throws IOException {
+        MappedByteBuffer mbb = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE + DATA_SIZE);
+        if (mbb.getInt(OFF_MAGIC) != MAGIC || mbb.getInt(OFF_VERSION) != VERSION)
+            throw new IOException("Status ring has wrong magic or version");
+        return new StatusRing(mbb);
+    }
+
+    long getGeneration() {
+        return mBuffer.getLong(OFF_GENERATION);
+    }
+
+    /* Writer side, callers need to ensure that there is only one writer at a time */
+
+    synchronized long getNextSeq() {
+        return mNextSeq;
+    }
+
+    /**
+     * @return true if seq is still available in the ring
+     */
+    synchronized boolean containsSeq(long seq) {
+        return seq >= mOldestSeq && seq <= mNextSeq;
+    }
+
+    synchronized void append(byte[] record) {
+        int total = RECORD_HEADER_SIZE + record.length;
+        if (total > DATA_SIZE / 4)
+            return;
+
+        boolean evicted = false;
+        while (mWritePos + total - mOldestPos > DATA_SIZE) {
+            int len = getIntAt(mOldestPos);
+            mOldestPos += RECORD_HEADER_SIZE + len;
+            mOldestSeq++;
+            evicted = true;
+        }
+        /* Readers must know that the old records are gone before we overwrite them */
+        if (evicted)
+            publishHeader();
+
+        ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        recordHeader.putInt(record.length);
+        recordHeader.putLong(mNextSeq);
+        recordHeader.putInt(recordCrc(record.length, mNextSeq, record));
+        putBytesAt(mWritePos, recordHeader.array(), RECORD_HEADER_SIZE);
+        putBytesAt(mWritePos + RECORD_HEADER_SIZE, record, record.length);
+
+        mWritePos += total;
+        mNextSeq++;
+        publishHeader();
+    }
+
+    synchronized void updateByteCount(long in, long out) {
+        mByteCountSeq++;
+        mBuffer.putLong(OFF_BYTES_IN, in);
+        mBuffer.putLong(OFF_BYTES_OUT, out);
+        mBuffer.putLong(OFF_BYTECOUNT_SEQ, mByteCountSeq);
+        mBuffer.putInt(OFF_BYTECOUNT_CRC, crc(mByteCountSeq, in, out));
+    }
+
+    private void publishHeader() {
+        mBuffer.putLong(OFF_NEXT_SEQ, mNextSeq);
+        mBuffer.putLong(OFF_WRITE_POS, mWritePos);
+        mBuffer.putLong(OFF_OLDEST_SEQ, mOldestSeq);
+        mBuffer.putLong(OFF_OLDEST_POS, mOldestPos);
+        mBuffer.putInt(OFF_HEADER_CRC, crc(mNextSeq, mWritePos, mOldestSeq, mOldestPos));
+    }
+
+    private static int crc(long... values) {
+        ByteBuffer bb = ByteBuffer.allocate(8 * values.length);
+        for (long value : values)
+            bb.putLong(value);
+        CRC32 crc = new CRC32();
+        crc.update(bb.array());
+        return (int) crc.getValue();
+    }
+
+    private static int recordCrc(int len, long seq, byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(12).putInt(len).putLong(seq).array());
+        crc.update(record, 0, len);
+        return (int) crc.getValue();
+    }
+
+    /* Reader side */
+
+    /**
+     * Sets the sequence number of the next record the reader wants to read
+     */
+    synchronized void setReadSeq(long seq) {
+        mReadSeq = seq;
+        mReadPos = -1;
+    }
+
+    synchronized long getReadSeq() {
+        return mReadSeq;
+    }
+
+    /**
+     * Reads all records that have been written since the last call.
+     *
+     * @return the records, records that have been overwritten before they could be read
+     * are skipped
+     */
+    synchronized Vector<byte[]> readNewRecords() {
+        Vector<byte[]> records = new Vector<>();
+        long[] header = new long[4];
+        if (!readHeader(header))
+            return records;
+        long nextSeq = header[0], writePos = header[1], oldestSeq = header[2], oldestPos = header[3];
+
+        if (mReadPos == -1 || mReadSeq < oldestSeq)
+            seekToSeq(oldestSeq, oldestPos, nextSeq);
+
+        while (mReadSeq < nextSeq && mReadPos < writePos) {
+            int len = getIntAt(mReadPos);
+            long seq = getLongAt(mReadPos + 4);
+            int crc = getIntAt(mReadPos + 12);
+            byte[] record = null;
+            if (len >= 0 && len <= DATA_SIZE / 4) {
+                record = new byte[len];
+                getBytesAt(mReadPos + RECORD_HEADER_SIZE, record, len);
+            }
+
+            if (record != null && seq == mReadSeq && crc == recordCrc(len, seq, record)) {
+                mRecordRetries = 0;
+                records.add(record);
+                mReadPos += RECORD_HEADER_SIZE + len;
+                mReadSeq++;
+                continue;
+            }
+
+            /* Overwritten while we were copying it, continue with the oldest record */
+            if (!readHeader(header))
+                break;
+            if (mReadPos < header[3]) {
+                seekToSeq(header[2], header[3], header[0]);
+                nextSeq = header[0];
+                writePos = header[1];
+                continue;
+            }
+            /* Not completely visible yet, the next call reads it again. A record that stays
+             * damaged should never happen, continue with the next intact record instead of
+             * trying forever */
+            if (++mRecordRetries < MAX_RECORD_RETRIES)
+                break;
+            mRecordRetries = 0;
+            nextSeq = header[0];
+            writePos = header[1];
+            if (!seekToNextIntactRecord(writePos, nextSeq)) {
+                mReadSeq = nextSeq;
+                mReadPos = writePos;
+                break;
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Positions the reader at the first intact record after the damaged one at mReadPos.
+     * The length of the damaged record cannot be trusted, so the data behind it is
+     * searched for a record with a later sequence number and a matching CRC.
+     *
+     * @return false if no such record has been written
+     */
+    private boolean seekToNextIntactRecord(long writePos, long nextSeq) {
+        for (long pos = mReadPos + 1; pos + RECORD_HEADER_SIZE <= writePos; pos++) {
+            long seq = getLongAt(pos + 4);
+            if (seq <= mReadSeq || seq >= nextSeq)
+                continue;
+            int len = getIntAt(pos);
+            if (len < 0 || pos + RECORD_HEADER_SIZE + len > writePos)
+                continue;
+            byte[] record = new byte[len];
+            getBytesAt(pos + RECORD_HEADER_SIZE, record, len);
+            if (getIntAt(pos + 12) == recordCrc(len, seq, record)) {
+                mReadSeq = seq;
+                mReadPos = pos;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the byte counters
+     *
+     * @return in and out bytes or null if they have not changed since the last call or
+     * could not be read
+     */
+    synchronized long[] readByteCountIfChanged() {
+        for (int i = 0; i < MAX_SPINS; i++) {
+            long seq = mBuffer.getLong(OFF_BYTECOUNT_SEQ);
+            long in = mBuffer.getLong(OFF_BYTES_IN);
+            long out = mBuffer.getLong(OFF_BYTES_OUT);
+            if (mBuffer.getInt(OFF_BYTECOUNT_CRC) == crc(seq, in, out)) {
+                if (seq == mReadByteCountSeq)
+                    return null;
+                mReadByteCountSeq = seq;
+                return new long[]{in, out};
+            }
+            Thread.yield();
+        }
+        return null;
+    }
+
+    /**
+     * Positions the reader at mReadSeq, or at the oldest record if mReadSeq is gone
+     */
+    private void seekToSeq(long oldestSeq, long oldestPos, long nextSeq) {
+        if (mReadSeq < oldestSeq || mReadSeq > nextSeq)
+            mReadSeq = oldestSeq;
+
+        long pos = oldestPos;
+        for (long seq = oldestSeq; seq < mReadSeq; seq++) {
+            int len = getIntAt(pos);
+            if (len < 0 || len > DATA_SIZE / 4) {
+                /* Damaged record, the CRC check of the next read sorts it out */
+                mReadSeq = seq;
+                break;
+            }
+            pos += RECORD_HEADER_SIZE + len;
+        }
+        mReadPos = pos;
+    }
+
+    /**
+     * @return false if no consistent copy of the header could be read
+     */
+    private boolean readHeader(long[] header) {
+        for (int i = 0; i < MAX_SPINS; i++) {
+            header[0] = mBuffer.getLong(OFF_NEXT_SEQ);
+            header[1] = mBuffer.getLong(OFF_WRITE_POS);
+            header[2] = mBuffer.getLong(OFF_OLDEST_SEQ);
+            header[3] = mBuffer.getLong(OFF_OLDEST_POS);
+            if (mBuffer.getInt(OFF_HEADER_CRC) == crc(header[0], header[1], header[2], header[3]))
+                return true;
+            Thread.yield();
+        }
+        return false;
+    }
+
+    /* Access to the data area with wrap around */
+
+    private int getIntAt(long pos) {
+        byte[] b = new byte[4];
+        getBytesAt(pos, b, 4);
+        return ByteBuffer.wrap(b).getInt();
+    }
+
+    private long getLongAt(long pos) {
+        byte[] b = new byte[8];
+        getBytesAt(pos, b, 8);
+        return ByteBuffer.wrap(b).getLong();
+    }
+
+    private void putBytesAt(long pos, byte[] src, int len) {
+        int offset = (int) (pos % DATA_SIZE);
+        int first = Math.min(len, DATA_SIZE - offset);
+        ByteBuffer dup = mBuffer.duplicate();
+        dup.position(HEADER_SIZE + offset);
+        dup.put(src, 0, first);
+        if (first < len) {
+            dup.position(HEADER_SIZE);
+            dup.put(src, first, len - first);
+        }
+    }
+
+    private void getBytesAt(long pos, byte[] dst, int len) {
+        int offset = (int) (pos % DATA_SIZE);
+        int first = Math.min(len, DATA_SIZE - offset);
+        ByteBuffer dup = mBuffer.duplicate();
+        dup.position(HEADER_SIZE + offset);
+        dup.get(dst, 0, first);
+        if (first < len) {
+            dup.position(HEADER_SIZE);
+            dup.get(dst, first, len - first);
+        }
+    }
+}
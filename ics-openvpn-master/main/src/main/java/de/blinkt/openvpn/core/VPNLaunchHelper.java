@@ -14,6 +14,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Vector;
 
 import de.blinkt.openvpn.R;
@@ -21,6 +22,15 @@ import de.blinkt.openvpn.VpnProfile;
 
 public class VPNLaunchHelper {
     private static final String MINIPIEVPN = "pie_openvpn";
+    private static String[] sDaemonCommand;
+
+    /**
+     * Starts command instead of the OpenVPN binary, for benchmarks and tests with a stand-in
+     * daemon. The command gets the same arguments as OpenVPN. null restores the default.
+     */
+    static void setDaemonCommand(String[] command) {
+        sDaemonCommand = command;
+    }
 
     private static String writeMiniVPN(Context context) {
         String nativeAPI = NativeUtils.getNativeAPI();
@@ -51,11 +61,15 @@ public class VPNLaunchHelper {
     static String[] buildOpenvpnArgv(Context c) {
         Vector<String> args = new Vector<>();
 
-        String binaryName = writeMiniVPN(c);
-        // Add fixed paramenters
-        //args.add("/data/data/de.blinkt.openvpn/lib/openvpn");
+        if (sDaemonCommand != null) {
+            Collections.addAll(args, sDaemonCommand);
+        } else {
+            String binaryName = writeMiniVPN(c);
+            // Add fixed paramenters
+            //args.add("/data/data/de.blinkt.openvpn/lib/openvpn");
 
-        args.add(binaryName);
+            args.add(binaryName);
+        }
 
         args.add("--config");
         args.add("stdin");
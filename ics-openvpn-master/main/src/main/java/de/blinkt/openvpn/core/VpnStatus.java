@@ -16,6 +16,7 @@ import androidx.annotation.StringRes;
 import java.io.File;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.ListIterator;
 import java.util.Locale;
@@ -25,6 +26,14 @@ import de.blinkt.openvpn.R;
 
 public class VpnStatus {
     private static final LinkedList<LogItem> logbuffer;
+    /* Counts of the items in logbuffer, allows checking for duplicates without scanning the buffer */
+    private static final HashMap<LogItem, Integer> logbufferIndex = new HashMap<>();
+
+    /* Last message that was logged and its folded repetitions, see foldRepeatedLogItem */
+    private static LogItem mRepeatCandidate;
+    private static int mRepeatCount;
+    private static long mFirstRepeatTime;
+    private static long mLastRepeatTime;
 
     private static Vector<LogListener> logListener;
     private static Vector<StateListener> stateListener;
@@ -70,6 +79,9 @@ public class VpnStatus {
 
     static final int MAXLOGENTRIES = 1000;
 
+    /* Emit a "last message repeated" item at least this often while a message keeps repeating */
+    static final long REPEAT_FLUSH_INTERVAL = 30 * 1000;
+
     public static boolean isVPNActive() {
         return mLastLevel != ConnectionStatus.LEVEL_AUTH_FAILED && !(mLastLevel == ConnectionStatus.LEVEL_NOTCONNECTED);
     }
@@ -131,6 +143,7 @@ public class VpnStatus {
     }
 
     public static void flushLog() {
+        flushRepeatedLogItems();
         if (mLogFileHandler!=null)
             mLogFileHandler.sendEmptyMessage(LogFileHandler.FLUSH_TO_DISK);
     }
@@ -206,9 +219,6 @@ public class VpnStatus {
         stateListener = new Vector<>();
         byteCountListener = new Vector<>();
         trafficHistory = new TrafficHistory();
-
-        logInformation();
-
     }
 
 
@@ -233,12 +243,20 @@ public class VpnStatus {
 
     public synchronized static void clearLog() {
         logbuffer.clear();
+        logbufferIndex.clear();
+        mRepeatCandidate = null;
+        mRepeatCount = 0;
         logInformation();
         if (mLogFileHandler != null)
             mLogFileHandler.sendEmptyMessage(LogFileHandler.TRIM_LOG_FILE);
     }
 
+    /* The device information is logged before the first message instead of when this class
+     * is loaded, getting the native API loads a native library */
+    private static boolean mInformationLogged = false;
+
     private static void logInformation() {
+        mInformationLogged = true;
         String nativeAPI;
         try {
             nativeAPI = NativeUtils.getNativeAPI();
@@ -437,17 +455,24 @@ public class VpnStatus {
     synchronized static void newLogItem(LogItem logItem, boolean cachedLine, boolean enforceUnique) {
         if (cachedLine) {
             logbuffer.addFirst(logItem);
+            addToIndex(logItem);
         } else {
-            insertLogItemByLogTime(logItem, enforceUnique);
-            if (mLogFileHandler != null) {
-                Message m = mLogFileHandler.obtainMessage(LogFileHandler.LOG_MESSAGE, logItem);
-                mLogFileHandler.sendMessage(m);
-            }
+            if (!mInformationLogged)
+                logInformation();
+
+            if (enforceUnique && logbufferIndex.containsKey(logItem))
+                /* Identical object found, ignore new item */
+                return;
+
+            if (foldRepeatedLogItem(logItem))
+                return;
+
+            addLogItem(logItem);
         }
 
         if (logbuffer.size() > MAXLOGENTRIES + MAXLOGENTRIES / 2) {
             while (logbuffer.size() > MAXLOGENTRIES)
-                logbuffer.removeFirst();
+                removeFromIndex(logbuffer.removeFirst());
             if (mLogFileHandler != null)
                 mLogFileHandler.sendMessage(mLogFileHandler.obtainMessage(LogFileHandler.TRIM_LOG_FILE));
         }
@@ -457,7 +482,68 @@ public class VpnStatus {
         }
     }
 
-    private static void insertLogItemByLogTime(LogItem logItem, boolean enforceUnique) {
+    private static void addLogItem(LogItem logItem) {
+        insertLogItemByLogTime(logItem);
+        addToIndex(logItem);
+        if (mLogFileHandler != null) {
+            Message m = mLogFileHandler.obtainMessage(LogFileHandler.LOG_MESSAGE, logItem);
+            mLogFileHandler.sendMessage(m);
+        }
+    }
+
+    /**
+     * Folds repetitions of the last logged message like syslog does. Instead of
+     * every repetition a single "last message repeated n times" item is logged when a
+     * different message arrives, the log is flushed, or every REPEAT_FLUSH_INTERVAL.
+     * Since this happens before the item reaches the log buffer, the cache file and the
+     * listeners, all of them see the same folded log.
+     *
+     * @return true if the item has been folded into the previous message
+     */
+    private static boolean foldRepeatedLogItem(LogItem logItem) {
+        if (mRepeatCandidate != null && logItem.isRepeatOf(mRepeatCandidate)
+                && logItem.getLogtime() >= mLastRepeatTime) {
+            if (mRepeatCount > 0 && logItem.getLogtime() - mFirstRepeatTime > REPEAT_FLUSH_INTERVAL)
+                emitRepeatSummary();
+
+            if (mRepeatCount == 0)
+                mFirstRepeatTime = logItem.getLogtime();
+            mLastRepeatTime = logItem.getLogtime();
+            mRepeatCount++;
+            return true;
+        }
+
+        emitRepeatSummary();
+        mRepeatCandidate = logItem;
+        mLastRepeatTime = logItem.getLogtime();
+        return false;
+    }
+
+    private static void emitRepeatSummary() {
+        if (mRepeatCount == 0)
+            return;
+
+        LogItem summary = LogItem.repeatSummary(mRepeatCandidate, mRepeatCount, mFirstRepeatTime, mLastRepeatTime);
+        mRepeatCount = 0;
+        addLogItem(summary);
+        for (LogListener ll : logListener) {
+            ll.newLog(summary);
+        }
+    }
+
+    synchronized static void flushRepeatedLogItems() {
+        emitRepeatSummary();
+    }
+
+    private static void addToIndex(LogItem logItem) {
+        logbufferIndex.merge(logItem, 1, Integer::sum);
+    }
+
+    private static void removeFromIndex(LogItem logItem) {
+        logbufferIndex.computeIfPresent(logItem, (li, count) -> count > 1 ? count - 1 : null);
+    }
+
+    private static void insertLogItemByLogTime(LogItem logItem) {
         /* Shortcut for the shortcut that it should be added at the
          * end to avoid traversing the list
          */
@@ -471,10 +557,6 @@ public class VpnStatus {
         long newItemLogTime = logItem.getLogtime();
         while(itr.hasNext()) {
             LogItem laterLogItem = itr.next();
-            if (enforceUnique && laterLogItem.equals(logItem))
-                /* Identical object found, ignore new item */
-                return;
-
             if (laterLogItem.getLogtime() > newItemLogTime) {
                 itr.previous();
                 itr.add(logItem);
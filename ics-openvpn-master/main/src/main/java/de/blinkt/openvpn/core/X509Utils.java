@@ -13,13 +13,13 @@ import android.text.TextUtils;
 import de.blinkt.openvpn.R;
 import de.blinkt.openvpn.VpnProfile;
 import org.spongycastle.util.io.pem.PemObject;
-import org.spongycastle.util.io.pem.PemReader;
 
 
 import javax.security.auth.x500.X500Principal;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateExpiredException;
@@ -37,6 +37,18 @@ public class X509Utils {
 
         Vector<Certificate> certificates = new Vector<>();
 		if(VpnProfile.isEmbedded(certfilename)) {
+            /* Decode the PEM blocks directly, cutting substrings out of large CA bundles
+             * for every certificate is slow */
+            try {
+                byte[] content = VpnProfile.getEmbeddedContent(certfilename).getBytes(StandardCharsets.UTF_8);
+                for (byte[] der : new PemCodec(new ByteArrayInputStream(content)).readAll("CERTIFICATE"))
+                    certificates.add(certFact.generateCertificate(new ByteArrayInputStream(der)));
+            } catch (IOException e) {
+                throw new CertificateException(e);
+            }
+            if (!certificates.isEmpty())
+                return certificates.toArray(new Certificate[certificates.size()]);
+
             int subIndex = certfilename.indexOf("-----BEGIN CERTIFICATE-----");
             do {
                 // The java certifcate reader is ... kind of stupid
@@ -59,17 +71,18 @@ public class X509Utils {
 
 	public static PemObject readPemObjectFromFile (String keyfilename) throws IOException {
 
-		Reader inStream;
+		InputStream inStream;
 
 		if(VpnProfile.isEmbedded(keyfilename))
-			inStream = new StringReader(VpnProfile.getEmbeddedContent(keyfilename));
-		else 
-			inStream = new FileReader(new File(keyfilename));
-
-		PemReader pr = new PemReader(inStream);
-		PemObject r = pr.readPemObject();
-		pr.close();
-		return r;
+			inStream = new ByteArrayInputStream(VpnProfile.getEmbeddedContent(keyfilename).getBytes(StandardCharsets.UTF_8));
+		else
+			inStream = new FileInputStream(keyfilename);
+
+		try {
+			return new PemCodec(inStream).readPemObject();
+		} finally {
+			inStream.close();
+		}
 	}
 
 
@@ -8,9 +8,9 @@ package de.blinkt.openvpn.core;
 import android.content.Context;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.security.GeneralSecurityException;
 
 /* Dummy class that supports no encryption */
@@ -25,11 +25,11 @@ class ProfileEncryption {
         return false;
     }
 
-    static FileInputStream getEncryptedVpInput(Context context, File file) throws GeneralSecurityException, IOException {
+    static InputStream getEncryptedVpInput(Context context, File file) throws GeneralSecurityException, IOException {
         throw new GeneralSecurityException("encryption of file not supported in this build");
     }
 
-    static FileOutputStream getEncryptedVpOutput(Context context, File file) throws GeneralSecurityException, IOException {
+    static OutputStream getEncryptedVpOutput(Context context, File file) throws GeneralSecurityException, IOException {
         throw new GeneralSecurityException("encryption of file not supported in this build");
     }
 
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2012-2018 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.security.KeyChainException;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Drives an external certificate provider like OpenVPN does during connects and
+ * renegotiations, but with many calls from several threads at once. Together with the
+ * reference keys and the artificial latency of the tlsexternalcertprovider demo app this
+ * gives numbers for the external auth path that do not depend on a vendor smart card app.
+ * <p>
+ * Only for tests: it closes all bindings of {@link ExtAuthProviderPool} to measure a fresh
+ * bind, which would also tear down the bindings of a running VPN.
+ */
+class ExtAuthLoadGenerator {
+    /* Same values as in VpnProfile.getExtAppSignedData */
+    private static final String EXTRA_RSA_PADDING_TYPE = "de.blinkt.openvpn.api.RSA_PADDING_TYPE";
+    private static final String EXTRA_NEEDS_DIGEST = "de.blinkt.openvpn.api.NEEDS_DIGEST";
+    private static final int PKCS1_PADDING = 1;
+    /* Size of a TLS 1.2 MD5+SHA1 digest, fits every key size with PKCS1 padding */
+    private static final int DATA_LENGTH = 36;
+
+    private final Context mContext;
+    private final String mPackageName;
+    private final String mAlias;
+    private final int mConcurrency;
+    private final int mCallsPerThread;
+    private final int mChainEvery;
+
+    static class Report {
+        /** First call after binding freshly to the provider, includes the bind */
+        public long firstCallMs;
+        public final LatencyHistogram signLatency = new LatencyHistogram();
+        public final LatencyHistogram chainLatency = new LatencyHistogram();
+        public int failures;
+        public long wallMs;
+
+        public long getCalls() {
+            return signLatency.getTotalCount() + chainLatency.getTotalCount();
+        }
+
+        /**
+         * @return calls per second over all threads
+         */
+        public double getThroughput() {
+            return wallMs > 0 ? getCalls() * 1000.0 / wallMs : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "first call (with bind) %d ms, sign: %s, chain: %s, %d failures, %d calls in %d ms (%.1f/s)",
+                    firstCallMs, signLatency.getSummary(), chainLatency.getSummary(), failures, getCalls(), wallMs, getThroughput());
+        }
+    }
+
+    /**
+     * @param concurrency    number of threads calling the provider at the same time
+     * @param callsPerThread calls of every thread
+     * @param chainEvery     every n-th call of a thread fetches the certificate chain
+     *                       instead of signing, 0 to only sign
+     */
+    ExtAuthLoadGenerator(@NonNull Context context, @NonNull String packageName, @NonNull String alias,
+                                int concurrency, int callsPerThread, int chainEvery) {
+        if (concurrency < 1 || callsPerThread < 1 || chainEvery < 0)
+            throw new IllegalArgumentException("Invalid load " + concurrency + "x" + callsPerThread + ", chain every " + chainEvery);
+        mContext = context.getApplicationContext();
+        mPackageName = packageName;
+        mAlias = alias;
+        mConcurrency = concurrency;
+        mCallsPerThread = callsPerThread;
+        mChainEvery = chainEvery;
+    }
+
+    @WorkerThread
+    Report run() throws InterruptedException {
+        Report report = new Report();
+
+        /* Start without a binding so the first call shows the cost of binding */
+        ExtAuthProviderPool.closeAll();
+        long start = System.nanoTime();
+        try {
+            if (ExtAuthHelper.getCertificateMetaData(mContext, mPackageName, mAlias) == null)
+                report.failures++;
+        } catch (KeyChainException e) {
+            report.failures++;
+        }
+        report.firstCallMs = (System.nanoTime() - start) / 1000000;
+
+        ExecutorService executor = Executors.newFixedThreadPool(mConcurrency);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < mConcurrency; i++)
+            workers.add(executor.submit(() -> {
+                go.await();
+                runCalls(report);
+                return null;
+            }));
+
+        start = System.nanoTime();
+        go.countDown();
+        try {
+            for (Future<?> worker : workers)
+                worker.get();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        report.wallMs = (System.nanoTime() - start) / 1000000;
+
+        VpnStatus.logDebug("External auth load " + mPackageName + " " + mConcurrency + "x" + mCallsPerThread
+                + ": " + report + "; pool: " + ExtAuthProviderPool.getLatencySummary(mPackageName));
+        return report;
+    }
+
+    private void runCalls(Report report) throws InterruptedException {
+        SecureRandom random = new SecureRandom();
+        Bundle extra = new Bundle();
+        extra.putInt(EXTRA_RSA_PADDING_TYPE, PKCS1_PADDING);
+        extra.putBoolean(EXTRA_NEEDS_DIGEST, false);
+
+        for (int i = 0; i < mCallsPerThread; i++) {
+            boolean chain = mChainEvery > 0 && i % mChainEvery == mChainEvery - 1;
+            long start = System.nanoTime();
+            boolean ok;
+            try {
+                if (chain) {
+                    ok = ExtAuthHelper.getCertificateChain(mContext, mPackageName, mAlias) != null;
+                } else {
+                    byte[] data = new byte[DATA_LENGTH];
+                    random.nextBytes(data);
+                    ok = ExtAuthHelper.signData(mContext, mPackageName, mAlias, data, extra) != null;
+                }
+            } catch (KeyChainException | RuntimeException e) {
+                ok = false;
+            }
+            long ms = (System.nanoTime() - start) / 1000000;
+
+            synchronized (report) {
+                if (chain)
+                    report.chainLatency.record(ms);
+                else
+                    report.signLatency.record(ms);
+                if (!ok)
+                    report.failures++;
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays the OpenVPN side of the management interface for tests. The management thread
+ * accepts a loopback TCP connection instead of the unix domain socket, the test writes
+ * the lines OpenVPN would send with {@link #send} and checks the commands of the
+ * management thread with {@link #expect}.
+ */
+class FakeManagementServer implements ManagementSocket.Server {
+    private final ServerSocket mServerSocket;
+    private Socket mDaemonSocket;
+    private OutputStream mToManagement;
+    private final LinkedBlockingQueue<String> mCommands = new LinkedBlockingQueue<>();
+    private volatile FileDescriptor[] mPendingFds;
+
+    FakeManagementServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    }
+
+    @Override
+    public ManagementSocket accept() throws IOException {
+        final Socket socket = mServerSocket.accept();
+        return new ManagementSocket() {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                return socket.getInputStream();
+            }
+
+            @Override
+            public OutputStream getOutputStream() throws IOException {
+                return socket.getOutputStream();
+            }
+
+            @Override
+            public FileDescriptor[] getAncillaryFileDescriptors() {
+                FileDescriptor[] fds = mPendingFds;
+                mPendingFds = null;
+                return fds;
+            }
+
+            @Override
+            public void setFileDescriptorsForSend(FileDescriptor[] fds) {
+                // A TCP socket cannot pass fds
+            }
+
+            @Override
+            public void close() throws IOException {
+                socket.close();
+            }
+        };
+    }
+
+    /**
+     * Connects like the OpenVPN process does after it has been started
+     */
+    void connect() throws IOException {
+        mDaemonSocket = new Socket(mServerSocket.getInetAddress(), mServerSocket.getLocalPort());
+        mToManagement = mDaemonSocket.getOutputStream();
+
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(mDaemonSocket.getInputStream(), StandardCharsets.UTF_8));
+        Thread readerThread = new Thread(() -> {
+            try {
+                String line;
+                while ((line = reader.readLine()) != null)
+                    mCommands.add(line);
+            } catch (IOException ignored) {
+                // closed
+            }
+        }, "FakeManagementReader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    void send(String... lines) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines)
+            sb.append(line).append('\n');
+        sendRaw(sb.toString(), 0);
+    }
+
+    /**
+     * Sends data as it is, the management thread gets fds (that are not real file
+     * descriptors) with the read that returns the data
+     */
+    void sendRaw(String data, int fds) throws IOException {
+        if (fds > 0) {
+            FileDescriptor[] fakeFds = new FileDescriptor[fds];
+            for (int i = 0; i < fds; i++)
+                fakeFds[i] = new FileDescriptor();
+            mPendingFds = fakeFds;
+        }
+        mToManagement.write(data.getBytes(StandardCharsets.UTF_8));
+        mToManagement.flush();
+    }
+
+    /**
+     * @return the number of commands that have been received and not been consumed by expect
+     */
+    int getPendingCommandCount() {
+        return mCommands.size();
+    }
+
+    /**
+     * Waits for a command starting with prefix, skipping other commands
+     */
+    String expect(String prefix, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (true) {
+            long left = deadline - System.currentTimeMillis();
+            String command = left > 0 ? mCommands.poll(left, TimeUnit.MILLISECONDS) : null;
+            if (command == null)
+                throw new AssertionError("Management thread did not send " + prefix);
+            if (command.startsWith(prefix))
+                return command;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mDaemonSocket != null)
+            mDaemonSocket.close();
+        mServerSocket.close();
+    }
+}
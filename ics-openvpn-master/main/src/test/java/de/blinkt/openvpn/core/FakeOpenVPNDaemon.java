@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stand-in for the OpenVPN binary that runs on a plain JVM. It reads the config from stdin
+ * like OpenVPN, connects to the management interface and walks through a connection with
+ * the part of the management protocol the app uses: HOLD, STATE, PASSWORD (if the config
+ * has auth-user-pass), PK_SIGN (if it has management-external-key), NEED-OK for IFCONFIG,
+ * DNSSERVER, ROUTE, PERSIST_TUN_ACTION and OPENTUN, and BYTECOUNT until it gets a SIGINT.
+ * <p>
+ * The management interface is a loopback TCP port instead of the unix domain socket of the
+ * config since a plain JVM cannot pass file descriptors anyway. The daemon does not need a
+ * tun fd, a cancelled OPENTUN is logged and the connection continues.
+ * <pre>
+ * --management-port port      port of the management interface (required)
+ * --delays phase=ms,...       time spent before leaving a phase, phases are hold, resolve,
+ *                             tcp_connect, wait, auth, get_config, assign_ip, route (per
+ *                             route) and connected
+ * --routes n                  number of routes that are pushed (default 16)
+ * --bytecount-interval ms     default 1000
+ * --config stdin              ignored, the config is always read from stdin
+ * </pre>
+ */
+public class FakeOpenVPNDaemon {
+    private static final long COMMAND_TIMEOUT_MS = 30000;
+    private static final String[] PHASES = {"hold", "resolve", "tcp_connect", "wait", "auth",
+            "get_config", "assign_ip", "route", "connected"};
+
+    private final HashMap<String, Long> mDelays = new HashMap<>();
+    private int mPort = -1;
+    private int mRoutes = 16;
+    private long mBytecountInterval = 1000;
+
+    private boolean mHold;
+    private boolean mAuthUserPass;
+    private boolean mExternalKey;
+
+    private OutputStream mOut;
+    private final LinkedBlockingQueue<String> mCommands = new LinkedBlockingQueue<>();
+    private volatile boolean mClosed;
+
+    /**
+     * The app asked OpenVPN to exit before the connection was completed
+     */
+    private static class SigIntException extends IOException {
+        SigIntException(String message) {
+            super(message);
+        }
+    }
+
+    public static void main(String[] args) {
+        FakeOpenVPNDaemon daemon = new FakeOpenVPNDaemon();
+        try {
+            daemon.parseArgs(args);
+            daemon.readConfig();
+            daemon.run();
+        } catch (SigIntException e) {
+            log(e.getMessage());
+        } catch (IOException | InterruptedException | IllegalArgumentException e) {
+            System.out.println("FakeOpenVPNDaemon: " + e);
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * @return the command line that starts the daemon with the class path of the current
+     * JVM, OpenVPNThread adds the config arguments
+     */
+    static String[] command(int managementPort, String delays, int routes) {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(FakeOpenVPNDaemon.class.getName());
+        command.add("--management-port");
+        command.add(Integer.toString(managementPort));
+        command.add("--routes");
+        command.add(Integer.toString(routes));
+        if (delays != null && !delays.isEmpty()) {
+            command.add("--delays");
+            command.add(delays);
+        }
+        return command.toArray(new String[0]);
+    }
+
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : null;
+            switch (args[i]) {
+                case "--management-port":
+                    mPort = Integer.parseInt(value);
+                    i++;
+                    break;
+                case "--routes":
+                    mRoutes = Integer.parseInt(value);
+                    i++;
+                    break;
+                case "--bytecount-interval":
+                    mBytecountInterval = Long.parseLong(value);
+                    i++;
+                    break;
+                case "--delays":
+                    parseDelays(value);
+                    i++;
+                    break;
+                case "--config":
+                    i++;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (mPort < 0)
+            throw new IllegalArgumentException("--management-port missing");
+    }
+
+    private void parseDelays(String delays) {
+        for (String delay : delays.split(",")) {
+            String[] parts = delay.trim().split("=");
+            if (parts.length != 2)
+                throw new IllegalArgumentException("Invalid delay " + delay);
+            boolean known = false;
+            for (String phase : PHASES)
+                known |= phase.equals(parts[0]);
+            if (!known)
+                throw new IllegalArgumentException("Unknown phase " + parts[0]);
+            mDelays.put(parts[0], Long.parseLong(parts[1]));
+        }
+    }
+
+    /**
+     * The app closes stdin after the config has been written
+     */
+    private void readConfig() throws IOException {
+        BufferedReader config = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = config.readLine()) != null) {
+            line = line.trim();
+            if (line.equals("management-hold"))
+                mHold = true;
+            else if (line.equals("auth-user-pass"))
+                mAuthUserPass = true;
+            else if (line.startsWith("management-external-key"))
+                mExternalKey = true;
+        }
+        log("config read, hold %b, auth-user-pass %b, external key %b", mHold, mAuthUserPass, mExternalKey);
+    }
+
+    private void run() throws IOException, InterruptedException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), mPort)) {
+            mOut = socket.getOutputStream();
+            startReader(socket);
+
+            send(">INFO:OpenVPN Management Interface Version 5 -- type 'help' for more info");
+            expect("version");
+
+            if (mHold) {
+                send(">HOLD:Waiting for hold release:0");
+                expect("hold release");
+                delay("hold");
+            }
+
+            state("RESOLVE", "");
+            delay("resolve");
+            state("TCP_CONNECT", "");
+            delay("tcp_connect");
+            state("WAIT", "");
+            delay("wait");
+            state("AUTH", "");
+
+            if (mExternalKey) {
+                send(">PK_SIGN:NC9t8IkYrjAQcCzc85zN0H5TvwfAUDwYkR4j2ga6fGw=,RSA_PKCS1_PADDING");
+                expect("pk-sig");
+                String signature = expect("");
+                if (!signature.equals("END"))
+                    expect("END");
+                if (signature.isEmpty() || signature.equals("END"))
+                    throw new IOException("Management interface did not sign the data");
+            }
+            if (mAuthUserPass) {
+                send(">PASSWORD:Need 'Auth' username/password");
+                expect("username 'Auth'");
+                expect("password 'Auth'");
+            }
+            delay("auth");
+
+            state("GET_CONFIG", "");
+            delay("get_config");
+            state("ASSIGN_IP", ",10.8.0.2");
+            delay("assign_ip");
+
+            needOk("IFCONFIG", "10.8.0.2 255.255.255.0 1500 subnet");
+            needOk("DNSSERVER", "10.8.0.1");
+            for (int i = 0; i < mRoutes; i++) {
+                needOk("ROUTE", String.format(Locale.US, "10.%d.%d.0 255.255.255.0 10.8.0.1", 16 + i / 256, i % 256));
+                delay("route");
+            }
+            needOk("PERSIST_TUN_ACTION", "OPEN_BEFORE_CLOSE");
+            String tun = needOk("OPENTUN", "tun");
+            if (!tun.endsWith(" ok"))
+                log("no tun device (%s), continuing without", tun);
+
+            delay("connected");
+            state("CONNECTED", "SUCCESS,10.8.0.2,198.51.100.1,1194");
+            send(">LOG:" + now() + ",I,Initialization Sequence Completed");
+
+            long in = 0;
+            long out = 0;
+            while (!mClosed) {
+                String command = mCommands.poll(mBytecountInterval, TimeUnit.MILLISECONDS);
+                if (command != null && command.startsWith("signal SIGINT"))
+                    break;
+                in += 1500;
+                out += 3000;
+                send(">BYTECOUNT:" + in + "," + out);
+            }
+            try {
+                state("EXITING", "SIGINT");
+            } catch (IOException ignored) {
+                // The app closes the socket right after the signal
+            }
+        }
+        log("exiting");
+    }
+
+    private void startReader(Socket socket) throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        Thread readerThread = new Thread(() -> {
+            try {
+                String line;
+                boolean signature = false;
+                while ((line = reader.readLine()) != null) {
+                    /* OpenVPN acknowledges every command, the lines after pk-sig are data */
+                    if (line.equals("pk-sig"))
+                        signature = true;
+                    else if (signature && line.equals("END"))
+                        signature = false;
+                    else if (!signature && !line.isEmpty())
+                        send("SUCCESS: " + line.split(" ")[0] + " command succeeded");
+                    mCommands.add(line);
+                }
+            } catch (IOException ignored) {
+                // closed
+            }
+            mClosed = true;
+        }, "FakeOpenVPNDaemonReader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    private synchronized void send(String line) throws IOException {
+        mOut.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        mOut.flush();
+    }
+
+    private void state(String state, String details) throws IOException {
+        send(">STATE:" + now() + "," + state + "," + details + ",,,,,");
+    }
+
+    private String needOk(String type, String argument) throws IOException, InterruptedException {
+        send(">NEED-OK:Need '" + type + "' confirmation MSG:" + argument);
+        return expect("needok '" + type + "'");
+    }
+
+    /**
+     * Waits for a command starting with prefix, skipping other commands
+     */
+    private String expect(String prefix) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + COMMAND_TIMEOUT_MS;
+        while (true) {
+            long left = deadline - System.currentTimeMillis();
+            String command = left > 0 ? mCommands.poll(left, TimeUnit.MILLISECONDS) : null;
+            if (command == null)
+                throw new IOException("Timeout waiting for " + prefix);
+            if (command.startsWith("signal SIGINT"))
+                throw new SigIntException("Got SIGINT while waiting for " + prefix);
+            if (command.startsWith(prefix))
+                return command;
+        }
+    }
+
+    private void delay(String phase) throws InterruptedException {
+        Long ms = mDelays.get(phase);
+        if (ms != null && ms > 0)
+            Thread.sleep(ms);
+    }
+
+    private static long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    private static void log(String format, Object... args) {
+        System.out.println("FakeOpenVPNDaemon: " + String.format(Locale.US, format, args));
+    }
+}
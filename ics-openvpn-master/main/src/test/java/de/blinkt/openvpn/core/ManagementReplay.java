@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import android.os.ParcelFileDescriptor;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import de.blinkt.openvpn.VpnProfile;
+import de.blinkt.openvpn.core.ManagementTranscript.Entry;
+
+/**
+ * Replays the OpenVPN side of a {@link ManagementTranscript} against a management thread
+ * and measures how fast the management thread handles it.
+ */
+class ManagementReplay {
+    private static final long TIMEOUT_MS = 30000;
+
+    /**
+     * Service that only counts the tun devices it is asked for instead of opening them
+     */
+    public static class SinkService extends OpenVPNService {
+        int tunOpened;
+
+        @Override
+        public ParcelFileDescriptor openTun() {
+            tunOpened++;
+            return null;
+        }
+
+        @Override
+        public boolean protect(int socket) {
+            return true;
+        }
+    }
+
+    static class Result {
+        long bytes;
+        int expectedLines;
+        int lines;
+        long wallNanos;
+        long[] latencies;
+        long allocatedBytes;
+        int commandsSent;
+        int commandsRecorded;
+
+        long latencyPercentile(double percentile) {
+            if (latencies.length == 0)
+                return 0;
+            int index = (int) Math.ceil(percentile / 100.0 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))];
+        }
+
+        @Override
+        public String toString() {
+            double seconds = wallNanos / 1e9;
+            return String.format(Locale.US,
+                    "%d lines, %d bytes in %.1f ms (%.0f lines/s, %.2f MB/s)%n"
+                            + "handling latency: p50 %.1f us, p99 %.1f us, max %.1f us%n"
+                            + "allocated by management thread: %d bytes (%d per line)%n"
+                            + "commands sent to OpenVPN: %d (recorded %d)",
+                    lines, bytes, wallNanos / 1e6, lines / seconds, bytes / seconds / 1e6,
+                    latencyPercentile(50) / 1e3, latencyPercentile(99) / 1e3, latencyPercentile(100) / 1e3,
+                    allocatedBytes, lines == 0 ? 0 : allocatedBytes / lines,
+                    commandsSent, commandsRecorded);
+        }
+    }
+
+    /**
+     * @param originalSpeed keep the time between the entries of the transcript instead of
+     *                      sending everything as fast as possible
+     */
+    static Result replay(OpenVPNService sink, VpnProfile profile, List<Entry> transcript, boolean originalSpeed) throws IOException, InterruptedException {
+        final Result result = new Result();
+        for (Entry entry : transcript) {
+            if (entry.fromOpenVPN) {
+                result.bytes += entry.data.length();
+                result.expectedLines += countLines(entry.data);
+            } else {
+                result.commandsRecorded += countLines(entry.data);
+            }
+        }
+        final int expectedLines = result.expectedLines;
+
+        final long[] latencies = new long[expectedLines];
+        final int[] handled = new int[1];
+
+        FakeManagementServer daemon = new FakeManagementServer();
+        OpenVpnManagementThread management = new OpenVpnManagementThread(profile, sink);
+        management.openManagementInterface(daemon);
+        management.setCommandListener((command, durationNanos) -> {
+            synchronized (handled) {
+                if (handled[0] < latencies.length)
+                    latencies[handled[0]] = durationNanos;
+                handled[0]++;
+                handled.notifyAll();
+            }
+        });
+        Thread managementThread = new Thread(management, "OpenVPNManagementThread");
+        managementThread.start();
+
+        daemon.connect();
+        /* The management thread greets OpenVPN first */
+        try {
+            daemon.expect("version", TIMEOUT_MS);
+        } catch (AssertionError e) {
+            daemon.close();
+            throw e;
+        }
+
+        long start = System.nanoTime();
+        for (Entry entry : transcript) {
+            if (!entry.fromOpenVPN)
+                continue;
+            if (originalSpeed) {
+                long wait = entry.time - (System.nanoTime() - start) / 1000000;
+                if (wait > 0)
+                    Thread.sleep(wait);
+            }
+            daemon.sendRaw(entry.data, entry.fds);
+        }
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        synchronized (handled) {
+            while (handled[0] < expectedLines && System.currentTimeMillis() < deadline)
+                handled.wait(100);
+        }
+        result.wallNanos = System.nanoTime() - start;
+        result.lines = Math.min(handled[0], expectedLines);
+        result.latencies = Arrays.copyOf(latencies, result.lines);
+        Arrays.sort(result.latencies);
+
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean)
+            result.allocatedBytes = ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(managementThread.getId());
+
+        /* The answers to the last lines might still be on the way. The greeting has
+         * been consumed by expect but is part of the recording */
+        deadline = System.currentTimeMillis() + 1000;
+        while (daemon.getPendingCommandCount() + 1 < result.commandsRecorded && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        result.commandsSent = daemon.getPendingCommandCount() + 1;
+
+        daemon.close();
+        managementThread.join(TIMEOUT_MS);
+        return result;
+    }
+
+    private static int countLines(String data) {
+        int lines = 0;
+        for (int i = 0; i < data.length(); i++)
+            if (data.charAt(i) == '\n')
+                lines++;
+        return lines;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Management interface on a loopback TCP port for an OpenVPN stand-in that runs as separate
+ * process, like {@link FakeOpenVPNDaemon}. File descriptors cannot be passed.
+ */
+class TcpManagementServer implements ManagementSocket.Server {
+    private final ServerSocket mServerSocket;
+
+    TcpManagementServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    }
+
+    int getPort() {
+        return mServerSocket.getLocalPort();
+    }
+
+    @Override
+    public ManagementSocket accept() throws IOException {
+        final Socket socket = mServerSocket.accept();
+        return new ManagementSocket() {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                return socket.getInputStream();
+            }
+
+            @Override
+            public OutputStream getOutputStream() throws IOException {
+                return socket.getOutputStream();
+            }
+
+            @Override
+            public FileDescriptor[] getAncillaryFileDescriptors() {
+                return null;
+            }
+
+            @Override
+            public void setFileDescriptorsForSend(FileDescriptor[] fds) {
+                // A TCP socket cannot pass fds
+            }
+
+            @Override
+            public void close() throws IOException {
+                socket.close();
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        mServerSocket.close();
+    }
+}
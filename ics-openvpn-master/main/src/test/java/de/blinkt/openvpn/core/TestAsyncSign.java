@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import android.content.Context;
+import android.os.Build;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import de.blinkt.openvpn.VpnProfile;
+
+/**
+ * PK_SIGN must not stop the management thread from handling the other messages while the
+ * data is signed
+ */
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+@RunWith(RobolectricTestRunner.class)
+public class TestAsyncSign {
+    private static final long TIMEOUT_MS = 5000;
+
+    @Test
+    public void managementIsReadWhileSigning() throws Exception {
+        final CountDownLatch signingStarted = new CountDownLatch(1);
+        final CountDownLatch releaseSignature = new CountDownLatch(1);
+        VpnProfile profile = new VpnProfile("sign") {
+            @Override
+            public String getSignedData(Context c, String b64data, OpenVPNManagement.SignaturePadding padding, String saltlen, String hashalg, boolean needDigest) {
+                signingStarted.countDown();
+                try {
+                    releaseSignature.await();
+                } catch (InterruptedException e) {
+                    return null;
+                }
+                return "c2lnbmF0dXJl";
+            }
+        };
+
+        final CountDownLatch byteCount = new CountDownLatch(1);
+        VpnStatus.ByteCountListener listener = (in, out, diffIn, diffOut) -> {
+            if (in == 4711)
+                byteCount.countDown();
+        };
+        VpnStatus.addByteCountListener(listener);
+
+        OpenVPNService service = Robolectric.buildService(OpenVPNService.class).create().get();
+        FakeManagementServer daemon = new FakeManagementServer();
+        OpenVpnManagementThread management = new OpenVpnManagementThread(profile, service);
+        management.openManagementInterface(daemon);
+        Thread managementThread = new Thread(management, "OpenVPNManagementThread");
+        managementThread.start();
+
+        try {
+            daemon.connect();
+            daemon.expect("version 3", TIMEOUT_MS);
+            daemon.send(">PK_SIGN:NC9t8IkYrjAQcCzc85zN0H5TvwfAUDwYkR4j2ga6fGw=,RSA_PKCS1_PADDING");
+            Assert.assertTrue(signingStarted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+            daemon.send(">BYTECOUNT:4711,42");
+            Assert.assertTrue("BYTECOUNT not handled while signing", byteCount.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+            releaseSignature.countDown();
+            daemon.expect("pk-sig", TIMEOUT_MS);
+            Assert.assertEquals("c2lnbmF0dXJl", daemon.expect("", TIMEOUT_MS));
+            Assert.assertEquals("END", daemon.expect("", TIMEOUT_MS));
+            Assert.assertNotNull(OpenVpnManagementThread.getSignLatencySummary());
+        } finally {
+            VpnStatus.removeByteCountListener(listener);
+            releaseSignature.countDown();
+            management.stopVPN(false);
+            managementThread.join(TIMEOUT_MS);
+            daemon.close();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import android.os.Build;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+@RunWith(RobolectricTestRunner.class)
+public class TestCryptoBenchmark {
+
+    @Test
+    public void matrixIsMeasured() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        CryptoBenchmark benchmark = new CryptoBenchmark(Arrays.asList("AES-128-GCM", "CHACHA20-POLY1305"),
+                new int[]{64, 1500}, new int[]{1, 2}, 1, 3);
+        benchmark.setSpeedTest((algorithm, testnum) -> {
+            calls.incrementAndGet();
+            return new double[]{NativeUtils.openSSLlengths[testnum], 1000, 3.0};
+        });
+
+        List<CryptoBenchmark.Result> results = benchmark.run(null);
+        /* 2 algorithms x 2 sizes x (1 + 2 threads) x (1 warmup + 3 repetitions) */
+        Assert.assertEquals(2 * 2 * 3 * 4, calls.get());
+        Assert.assertEquals(8, results.size());
+
+        CryptoBenchmark.Result result = results.get(0);
+        Assert.assertEquals("AES-128-GCM", result.algorithm);
+        Assert.assertEquals(64, result.blockSize);
+        Assert.assertFalse(result.failed);
+        Assert.assertTrue(result.getPercentile(50) <= result.getPercentile(99));
+        Assert.assertFalse(Double.isNaN(results.get(1).scaling));
+
+        JSONObject json = CryptoBenchmark.toJSON(results);
+        Assert.assertEquals(8, json.getJSONArray("results").length());
+    }
+
+    @Test
+    public void failedTestIsReported() throws Exception {
+        CryptoBenchmark benchmark = new CryptoBenchmark(Arrays.asList("NO-SUCH-CIPHER"),
+                new int[]{1500}, new int[]{1}, 0, 2);
+        benchmark.setSpeedTest((algorithm, testnum) -> null);
+
+        List<CryptoBenchmark.Result> results = benchmark.run(null);
+        Assert.assertTrue(results.get(0).failed);
+        Assert.assertFalse(results.get(0).toJSON().has("mean"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedBlockSize() {
+        new CryptoBenchmark(Arrays.asList("AES-128-GCM"), new int[]{100}, new int[]{1}, 0, 1);
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import android.os.Build;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+@RunWith(RobolectricTestRunner.class)
+public class TestDataCipherTuner {
+
+    @Test
+    public void fastestCipherFirst() {
+        Map<String, Float> speeds = new HashMap<>();
+        speeds.put("AES-256-GCM", 80e6f);
+        speeds.put("AES-128-GCM", 95e6f);
+        speeds.put("CHACHA20-POLY1305", 210e6f);
+        speeds.put("BF-CBC", 0f);
+
+        String ordered = DataCipherTuner.sortBySpeed("AES-256-GCM:BF-CBC:AES-128-GCM:ChaCha20-Poly1305".split(":"), speeds);
+        Assert.assertEquals("ChaCha20-Poly1305:AES-128-GCM:AES-256-GCM:BF-CBC", ordered);
+    }
+
+    @Test
+    public void unmeasuredCiphersKeepTheirOrder() {
+        Map<String, Float> speeds = new HashMap<>();
+        speeds.put("AES-128-GCM", 95e6f);
+
+        String ordered = DataCipherTuner.sortBySpeed("BF-CBC:AES-256-CBC:AES-128-GCM".split(":"), speeds);
+        Assert.assertEquals("AES-128-GCM:BF-CBC:AES-256-CBC", ordered);
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2012-2018 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import android.app.Application;
+import android.content.ComponentName;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import de.blinkt.openvpn.api.ExternalCertificateProvider;
+
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * The load can be changed with ./gradlew test -Dextauthload.threads=16 -Dextauthload.calls=1000
+ * -Dextauthload.latency=5 to compare changes of the external auth path
+ */
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+@RunWith(RobolectricTestRunner.class)
+public class TestExtAuthLoadGenerator {
+    private static final String PROVIDER = "com.example.provider";
+
+    private static final int THREADS = Integer.getInteger("extauthload.threads", 4);
+    private static final int CALLS = Integer.getInteger("extauthload.calls", 25);
+    private static final int LATENCY_MS = Integer.getInteger("extauthload.latency", 2);
+
+    private Application mApp;
+    private final SlowProvider mProvider = new SlowProvider();
+
+    /**
+     * Like the demo provider with a configured latency, every failEvery-th signature fails
+     */
+    private static class SlowProvider extends ExternalCertificateProvider.Stub {
+        final AtomicInteger mSignCalls = new AtomicInteger();
+        int mFailEvery;
+
+        @Override
+        public byte[] getSignedData(String alias, byte[] data) {
+            return null;
+        }
+
+        @Override
+        public byte[] getCertificateChain(String alias) {
+            return null;
+        }
+
+        @Override
+        public Bundle getCertificateMetaData(String alias) {
+            return new Bundle();
+        }
+
+        @Override
+        public byte[] getSignedDataWithExtra(String alias, byte[] data, Bundle extra) {
+            int call = mSignCalls.incrementAndGet();
+            try {
+                Thread.sleep(LATENCY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (mFailEvery > 0 && call % mFailEvery == 0)
+                return null;
+            return data;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mApp = RuntimeEnvironment.getApplication();
+        Intent intent = new Intent(ExtAuthHelper.ACTION_CERT_PROVIDER).setPackage(PROVIDER);
+        shadowOf(mApp).setComponentNameAndServiceForBindServiceForIntent(intent, new ComponentName(PROVIDER, "Provider"), mProvider);
+    }
+
+    @After
+    public void tearDown() {
+        ExtAuthProviderPool.closeAll();
+    }
+
+    private ExtAuthLoadGenerator.Report runLoad(int chainEvery) throws Exception {
+        ExtAuthLoadGenerator generator = new ExtAuthLoadGenerator(mApp, PROVIDER, "alias", THREADS, CALLS, chainEvery);
+        /* Binding needs the main looper, see TestExtAuthProviderPool */
+        FutureTask<ExtAuthLoadGenerator.Report> task = new FutureTask<>(generator::run);
+        new Thread(task, "ExtAuthLoad").start();
+        while (!task.isDone()) {
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.sleep(1);
+        }
+        ExtAuthLoadGenerator.Report report = task.get();
+        /* Ends up in the test report also when the test succeeds */
+        Logger.getLogger(TestExtAuthLoadGenerator.class.getName()).info(THREADS + "x" + CALLS + " calls, chain every " + chainEvery + ": " + report);
+        return report;
+    }
+
+    @Test
+    public void signLoad() throws Exception {
+        mProvider.mFailEvery = 5;
+        ExtAuthLoadGenerator.Report report = runLoad(0);
+
+        String description = report.toString();
+        Assert.assertEquals(description, THREADS * CALLS, report.getCalls());
+        Assert.assertEquals(description, THREADS * CALLS, mProvider.mSignCalls.get());
+        Assert.assertEquals(description, THREADS * CALLS / 5, report.failures);
+        Assert.assertEquals(description, 0, report.chainLatency.getTotalCount());
+        Assert.assertTrue(description, report.signLatency.getValueAtPercentile(50) >= LATENCY_MS);
+        Assert.assertTrue(description, report.getThroughput() > 0);
+    }
+
+    @Test
+    public void chainCallsAreCounted() throws Exception {
+        ExtAuthLoadGenerator.Report report = runLoad(5);
+
+        String description = report.toString();
+        Assert.assertEquals(description, THREADS * (CALLS / 5), report.chainLatency.getTotalCount());
+        Assert.assertEquals(description, THREADS * CALLS, report.getCalls());
+        /* The provider has no chain */
+        Assert.assertEquals(description, report.chainLatency.getTotalCount(), report.failures);
+    }
+}
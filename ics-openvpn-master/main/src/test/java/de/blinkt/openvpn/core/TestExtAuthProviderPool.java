@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2012-2018 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import android.app.Application;
+import android.content.ComponentName;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowApplication;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import de.blinkt.openvpn.api.ExternalCertificateProvider;
+
+import static org.robolectric.Shadows.shadowOf;
+
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+@RunWith(RobolectricTestRunner.class)
+public class TestExtAuthProviderPool {
+    private static final String PROVIDER = "com.example.provider";
+
+    private Application mApp;
+    private ShadowApplication mShadowApp;
+    private final CountingProvider mProvider = new CountingProvider();
+
+    private static class CountingProvider extends ExternalCertificateProvider.Stub {
+        volatile int mSignCalls;
+
+        @Override
+        public byte[] getSignedData(String alias, byte[] data) {
+            mSignCalls++;
+            return data;
+        }
+
+        @Override
+        public byte[] getCertificateChain(String alias) {
+            return null;
+        }
+
+        @Override
+        public Bundle getCertificateMetaData(String alias) {
+            return new Bundle();
+        }
+
+        @Override
+        public byte[] getSignedDataWithExtra(String alias, byte[] data, Bundle extra) {
+            /* Like a provider that only implements the old method */
+            return null;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mApp = RuntimeEnvironment.getApplication();
+        mShadowApp = shadowOf(mApp);
+        Intent intent = new Intent(ExtAuthHelper.ACTION_CERT_PROVIDER).setPackage(PROVIDER);
+        mShadowApp.setComponentNameAndServiceForBindServiceForIntent(intent, new ComponentName(PROVIDER, "Provider"), mProvider);
+    }
+
+    @After
+    public void tearDown() {
+        ExtAuthProviderPool.closeAll();
+    }
+
+    @Test
+    public void bindingIsReused() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            byte[] signature = onWorkerThread(() -> ExtAuthHelper.signData(mApp, PROVIDER, "alias", new byte[]{1, 2}, new Bundle()));
+            Assert.assertArrayEquals(new byte[]{1, 2}, signature);
+        }
+        Assert.assertEquals(5, mProvider.mSignCalls);
+        Assert.assertEquals(1, mShadowApp.getBoundServiceConnections().size());
+        Assert.assertTrue(mShadowApp.getUnboundServiceConnections().isEmpty());
+        Assert.assertTrue(ExtAuthProviderPool.getLatencySummary(PROVIDER).contains("getSignedData: p50"));
+    }
+
+    @Test
+    public void idleBindingIsClosed() throws Exception {
+        onWorkerThread(() -> ExtAuthHelper.getCertificateMetaData(mApp, PROVIDER, "alias"));
+        Assert.assertTrue(mShadowApp.getUnboundServiceConnections().isEmpty());
+
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(ExtAuthProviderPool.IDLE_TIMEOUT_MS));
+        Assert.assertEquals(1, mShadowApp.getUnboundServiceConnections().size());
+
+        /* The next call binds again */
+        onWorkerThread(() -> ExtAuthHelper.getCertificateMetaData(mApp, PROVIDER, "alias"));
+        Assert.assertEquals(2, mShadowApp.getBoundServiceConnections().size() + mShadowApp.getUnboundServiceConnections().size());
+    }
+
+    /**
+     * Binding must not happen on the main thread, the connection is delivered by the main
+     * looper so it is run while waiting
+     */
+    private static <T> T onWorkerThread(Callable<T> callable) throws Exception {
+        FutureTask<T> task = new FutureTask<>(callable);
+        new Thread(task, "ExtAuthTest").start();
+        while (!task.isDone()) {
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.sleep(1);
+        }
+        return task.get();
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import android.os.Build;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.robolectric.Shadows.shadowOf;
+
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+@RunWith(RobolectricTestRunner.class)
+public class TestExternalCertificateCache {
+    private static final String[] CERTS = {"ca", null, "user"};
+
+    @After
+    public void tearDown() {
+        ExternalCertificateCache.clear();
+    }
+
+    @Test
+    public void entriesExpire() {
+        ExternalCertificateCache.put("3|null|alias|null", CERTS);
+        Assert.assertArrayEquals(CERTS, ExternalCertificateCache.get("3|null|alias|null"));
+        Assert.assertNull(ExternalCertificateCache.get("3|null|other|null"));
+
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(ExternalCertificateCache.EXPIRY_MS + 1));
+        Assert.assertNull(ExternalCertificateCache.get("3|null|alias|null"));
+    }
+
+    @Test
+    public void fetchRunsInBackground() throws Exception {
+        String[] certs = ExternalCertificateCache.fetch(() -> {
+            Assert.assertNotEquals("main", Thread.currentThread().getName());
+            return CERTS;
+        }).get(5, TimeUnit.SECONDS);
+        Assert.assertArrayEquals(CERTS, certs);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.android.controller.ServiceController;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import de.blinkt.openvpn.VpnProfile;
+
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Connects through the whole startOpenVPN path of the service with {@link FakeOpenVPNDaemon}
+ * instead of the OpenVPN binary and checks the connect timeline of every run and the
+ * summary over all runs.
+ * <p>
+ * ./gradlew test -Dfakedaemon.runs=n (default 1), -Dfakedaemon.routes=n (default 64) and
+ * -Dfakedaemon.delays=resolve=50,auth=200,... (see FakeOpenVPNDaemon) change the runs.
+ */
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+@RunWith(RobolectricTestRunner.class)
+public class TestFakeDaemonConnect {
+    /* Includes starting a JVM for the daemon */
+    private static final long TIMEOUT_MS = 30000;
+
+    @After
+    public void restoreDaemon() {
+        VPNLaunchHelper.setDaemonCommand(null);
+        OpenVpnManagementThread.setServerFactory(null);
+    }
+
+    @Test
+    public void connectWithFakeDaemon() throws Exception {
+        int runs = Integer.getInteger("fakedaemon.runs", 1);
+        int routes = Integer.getInteger("fakedaemon.routes", 64);
+        String delays = System.getProperty("fakedaemon.delays", "");
+
+        Context context = RuntimeEnvironment.getApplication();
+        VpnProfile profile = new VpnProfile("fake daemon");
+        profile.mAuthenticationType = VpnProfile.TYPE_USERPASS;
+        profile.mUsername = "user";
+        profile.mPassword = "secret";
+        profile.mCaFilename = VpnProfile.INLINE_TAG + "-----BEGIN CERTIFICATE-----\n-----END CERTIFICATE-----";
+        ProfileManager.setTemporaryProfile(context, profile);
+
+        ServiceController<OpenVPNService> controller = Robolectric.buildService(OpenVPNService.class).create();
+        OpenVPNService service = controller.get();
+
+        StringBuilder report = new StringBuilder();
+        for (int run = 0; run < runs; run++) {
+            TcpManagementServer server = new TcpManagementServer();
+            OpenVpnManagementThread.setServerFactory(path -> server);
+            VPNLaunchHelper.setDaemonCommand(FakeOpenVPNDaemon.command(server.getPort(), delays, routes));
+
+            Intent intent = profile.getStartServiceIntent(context, "fake daemon benchmark", true);
+            LevelListener connected = new LevelListener(ConnectionStatus.LEVEL_CONNECTED);
+            controller.withIntent(intent).startCommand(0, run + 1);
+            connected.await();
+
+            ConnectTimeline timeline = service.getConnectTimeline();
+            report.append("run ").append(run + 1).append(": ").append(timeline.toLogString()).append('\n');
+            for (ConnectTimeline.Phase phase : Arrays.asList(ConnectTimeline.Phase.PROCESS_START,
+                    ConnectTimeline.Phase.CONFIG_WRITTEN, ConnectTimeline.Phase.MANAGEMENT_ACCEPT,
+                    ConnectTimeline.Phase.AUTH, ConnectTimeline.Phase.ROUTES_COMPUTED))
+                Assert.assertTrue(phase + " not reached in run " + (run + 1), timeline.getMark(phase) >= 0);
+
+            LevelListener stopped = new LevelListener(ConnectionStatus.LEVEL_NOTCONNECTED);
+            service.stopVPN(false);
+            stopped.await();
+            shadowOf(Looper.getMainLooper()).idle();
+        }
+
+        /* The histograms are updated on the command handler thread of the service */
+        String summary = null;
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            summary = ConnectTimeline.getSummary(context, profile.getUUIDString());
+            if (summary != null && summary.contains("(n=" + runs + ")"))
+                break;
+            Thread.sleep(10);
+        }
+        Assert.assertTrue("Summary incomplete:\n" + report + summary,
+                summary != null && summary.contains("(n=" + runs + ")"));
+
+        controller.destroy();
+    }
+
+    /**
+     * Waits for a state with level that is set after the listener has been created
+     */
+    private static class LevelListener implements VpnStatus.StateListener {
+        private final ConnectionStatus mLevel;
+        private final CountDownLatch mLatch = new CountDownLatch(1);
+        private volatile boolean mArmed;
+
+        LevelListener(ConnectionStatus level) {
+            mLevel = level;
+            /* addStateListener reports the current state, which might be from the last run */
+            VpnStatus.addStateListener(this);
+            mArmed = true;
+        }
+
+        @Override
+        public void updateState(String state, String logmessage, int localizedResId, ConnectionStatus level, Intent intent) {
+            if (mArmed && level == mLevel)
+                mLatch.countDown();
+        }
+
+        @Override
+        public void setConnectedVPN(String uuid) {
+        }
+
+        void await() throws InterruptedException {
+            boolean reached = mLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            VpnStatus.removeStateListener(this);
+            Assert.assertTrue("State " + mLevel + " not reached", reached);
+        }
+    }
+}
@@ -27,6 +27,99 @@ public class TestIpParser {
         testAddress("2a02:2e0:3fe:1001:302::70", 128, "2a02:2e0:3fe:1001:302:0:0:70/128");
     }
 
+    @Test
+    public void parseIPv6Literal() throws UnknownHostException {
+        String[] addresses = {"::", "::1", "2020:0:1234::", "2a02:2e0:3fe:1001:302::70",
+                "fe80::1:2", "1:2:3:4:5:6:7:8", "64:ff9b::10.1.2.3"};
+        for (String addr : addresses)
+            Assert.assertArrayEquals(addr, InetAddress.getByName(addr).getAddress(), NetworkSpace.parseIPv6Literal(addr));
+
+        /* InetAddress turns mapped addresses into Inet4Address */
+        byte[] mapped = {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, (byte) 0xff, (byte) 0xff, (byte) 192, 0, 2, 1};
+        Assert.assertArrayEquals("::ffff:192.0.2.1", mapped, NetworkSpace.parseIPv6Literal("::ffff:192.0.2.1"));
+
+        String[] invalid = {"", ":", "1:::2", "1::2::3", "12345::", "1:2:3:4:5:6:7:8:9", "1:2", "fe80::1%wlan0", "1:"};
+        for (String addr : invalid)
+            Assert.assertNull(addr, NetworkSpace.parseIPv6Literal(addr));
+    }
+
+    @Test
+    public void parseIPv4() {
+        Assert.assertEquals(0xc0a80101L, CIDRIP.getInt("192.168.1.1"));
+        Assert.assertEquals(0xffffffffL, CIDRIP.getInt("255.255.255.255"));
+        Assert.assertEquals(24, CIDRIP.calculateLenFromMask("255.255.255.0"));
+        Assert.assertEquals(32, CIDRIP.calculateLenFromMask("255.0.255.0"));
+        Assert.assertEquals("10.0.0.0", CIDRIP.toDottedQuad(CIDRIP.getInt("10.1.2.3") & CIDRIP.prefixMask(8)));
+
+        for (String invalid : new String[]{"1.2.3", "1.2.3.4.5", "1..2.3", "a.b.c.d", "1.2.3.4 ", "1.2.3.256", "999.0.0.1"}) {
+            try {
+                CIDRIP.getInt(invalid);
+                Assert.fail(invalid);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+
+        CIDRIP route = new CIDRIP("172.16.33.7", "255.240.0.0");
+        Assert.assertTrue(route.normalise());
+        Assert.assertEquals("172.16.0.0/12", route.toString());
+    }
+
+    @Test
+    public void addParsedRoutes() {
+        NetworkSpace routes = new NetworkSpace();
+        routes.addIP(CIDRIP.getInt("10.0.0.0"), 8, true);
+        routes.addIP(new CIDRIP("10.1.0.0", 16), false);
+        routes.addIP(CIDRIP.getInt("10.0.0.0"), 8, false);
+
+        Assert.assertEquals("[10.0.0.0/8]", routes.getNetworks(true).toString());
+        Assert.assertEquals("[10.1.0.0/16]", routes.getNetworks(false).toString());
+        Assert.assertEquals(8, routes.getPositiveIPList().size());
+    }
+
+    @Test
+    public void routeFingerprint() throws UnknownHostException {
+        NetworkSpace a = new NetworkSpace();
+        NetworkSpace b = new NetworkSpace();
+
+        a.addIP(new CIDRIP("10.0.0.0", 8), true);
+        a.addIP(new CIDRIP("192.168.0.0", 16), false);
+        a.addIPv6((Inet6Address) InetAddress.getByName("2001:db8::"), 32, true);
+
+        b.addIPv6(NetworkSpace.parseIPv6Literal("2001:db8::"), 32, true);
+        b.addIP(CIDRIP.getInt("192.168.0.0"), 16, false);
+        Assert.assertNotEquals(a.getFingerprint(), b.getFingerprint());
+
+        b.addIP(CIDRIP.getInt("10.0.0.0"), 8, true);
+        Assert.assertEquals(a.getFingerprint(), b.getFingerprint());
+
+        /* Same network but excluded instead of included */
+        NetworkSpace c = new NetworkSpace();
+        c.addIP(new CIDRIP("10.0.0.0", 8), false);
+        c.addIP(new CIDRIP("192.168.0.0", 16), false);
+        c.addIPv6(NetworkSpace.parseIPv6Literal("2001:db8::"), 32, true);
+        Assert.assertNotEquals(a.getFingerprint(), c.getFingerprint());
+
+        c.clear();
+        Assert.assertEquals(new NetworkSpace().getFingerprint(), c.getFingerprint());
+
+        /* The first of two identical networks wins, so the order of include and exclude matters */
+        NetworkSpace includedFirst = new NetworkSpace();
+        includedFirst.addIP(new CIDRIP("10.0.0.0", 8), true);
+        includedFirst.addIP(new CIDRIP("10.0.0.0", 8), false);
+        NetworkSpace excludedFirst = new NetworkSpace();
+        excludedFirst.addIP(new CIDRIP("10.0.0.0", 8), false);
+        excludedFirst.addIP(new CIDRIP("10.0.0.0", 8), true);
+        Assert.assertNotEquals(includedFirst.getFingerprint(), excludedFirst.getFingerprint());
+
+        /* Adding a network twice does not change the routes */
+        NetworkSpace once = new NetworkSpace();
+        once.addIP(new CIDRIP("10.0.0.0", 8), true);
+        Assert.assertEquals(once.getFingerprint(), includedFirst.getFingerprint());
+        a.addIP(new CIDRIP("10.0.0.0", 8), true);
+        a.addIPv6(NetworkSpace.parseIPv6Literal("2001:db8::"), 32, true);
+        Assert.assertEquals(a.getFingerprint(), b.getFingerprint());
+    }
+
     void testAddress(String input, int mask, String output) throws UnknownHostException {
         Inet6Address ip = (Inet6Address) InetAddress.getByName(input);
 
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+
+import javax.crypto.Cipher;
+
+public class TestKeyChainSigner {
+    private static KeyPair sRsaKey;
+    private static final byte[] DATA = "data of the TLS handshake".getBytes();
+
+    @BeforeClass
+    public static void generateKey() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        sRsaKey = generator.generateKeyPair();
+    }
+
+    @Test
+    public void engineIsReused() throws GeneralSecurityException {
+        KeyChainSigner signer = new KeyChainSigner(sRsaKey.getPrivate());
+        for (int i = 0; i < 3; i++) {
+            byte[] signature = signer.sign("SHA256withRSA", null, DATA);
+
+            Signature verifier = Signature.getInstance("SHA256withRSA");
+            verifier.initVerify(sRsaKey.getPublic());
+            verifier.update(DATA);
+            Assert.assertTrue(verifier.verify(signature));
+        }
+
+        for (int i = 0; i < 3; i++) {
+            byte[] encrypted = signer.encrypt("RSA/ECB/PKCS1PADDING", DATA);
+
+            Cipher decrypter = Cipher.getInstance("RSA/ECB/PKCS1PADDING");
+            decrypter.init(Cipher.DECRYPT_MODE, sRsaKey.getPublic());
+            Assert.assertArrayEquals(DATA, decrypter.doFinal(encrypted));
+        }
+        Assert.assertEquals(2, signer.getEngineCount());
+    }
+
+    @Test
+    public void enginesAreLimited() throws GeneralSecurityException {
+        KeyChainSigner signer = new KeyChainSigner(sRsaKey.getPrivate());
+        String[] algorithms = {"MD5withRSA", "SHA1withRSA", "SHA224withRSA", "SHA256withRSA", "SHA384withRSA",
+                "SHA512withRSA", "SHA512/224withRSA", "SHA512/256withRSA", "MD2withRSA"};
+        for (String algorithm : algorithms)
+            signer.sign(algorithm, null, DATA);
+        signer.encrypt("RSA/ECB/PKCS1PADDING", DATA);
+        Assert.assertEquals(KeyChainSigner.MAX_ENGINES, signer.getEngineCount());
+    }
+
+    @Test
+    public void failedEngineIsDropped() throws GeneralSecurityException {
+        KeyChainSigner signer = new KeyChainSigner(sRsaKey.getPrivate());
+        try {
+            /* Too long for a 2048 bit key */
+            signer.encrypt("RSA/ECB/NoPadding", new byte[512]);
+            Assert.fail("Encrypting too much data should fail");
+        } catch (GeneralSecurityException expected) {
+            // expected
+        }
+        Assert.assertEquals(0, signer.getEngineCount());
+    }
+}
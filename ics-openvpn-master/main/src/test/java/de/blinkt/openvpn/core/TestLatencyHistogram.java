@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+public class TestLatencyHistogram {
+
+    @Test
+    public void bucketBoundaries() {
+        for (long v = 0; v <= LatencyHistogram.MAX_VALUE; v += 1 + v / 7) {
+            long upper = LatencyHistogram.getBucketValue(LatencyHistogram.getBucketIndex(v));
+            Assert.assertTrue(v + " <= " + upper, v <= upper);
+            /* 1/16 precision */
+            Assert.assertTrue(v + " -> " + upper, upper - v <= Math.max(0, v / 16));
+        }
+    }
+
+    @Test
+    public void percentiles() throws IOException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++)
+            histogram.record(i * 100);
+
+        Assert.assertEquals(100, histogram.getTotalCount());
+        Assert.assertEquals(10000, histogram.getMax());
+        Assert.assertEquals(10000, histogram.getValueAtPercentile(100));
+        long p50 = histogram.getValueAtPercentile(50);
+        Assert.assertTrue(String.valueOf(p50), p50 >= 5000 && p50 <= 5000 + 5000 / 16);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        histogram.writeTo(new DataOutputStream(bytes));
+        LatencyHistogram read = LatencyHistogram.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        Assert.assertEquals(histogram.getSummary(), read.getSummary());
+    }
+}
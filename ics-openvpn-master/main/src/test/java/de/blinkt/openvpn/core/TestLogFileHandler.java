@@ -101,6 +101,40 @@ public class TestLogFileHandler {
         }
     }
 
+    @Test
+    public void testLogRepeatFolding()
+    {
+        VpnStatus.clearLog();
+        int initialSize = VpnStatus.getlogbuffer().length;
+
+        for (int i = 0; i < 100; i++) {
+            LogItem li = new LogItem(VpnStatus.LogLevel.INFO, "repeated message", 1000 + i);
+            VpnStatus.newLogItem(li);
+        }
+        VpnStatus.newLogItem(new LogItem(VpnStatus.LogLevel.INFO, "other message", 2000));
+
+        /* first message, repeat summary and the other message */
+        LogItem[] log = VpnStatus.getlogbuffer();
+        Assert.assertEquals(initialSize + 3, log.length);
+        Assert.assertEquals("repeated message", log[0].toString());
+        Assert.assertEquals(1099, log[1].getLogtime());
+        Assert.assertEquals("other message", log[2].toString());
+    }
+
+    @Test
+    public void testLogUniqueIndex()
+    {
+        VpnStatus.clearLog();
+        int initialSize = VpnStatus.getlogbuffer().length;
+
+        LogItem li = new LogItem(VpnStatus.LogLevel.INFO, "unique message", 500);
+        LogItem li2 = new LogItem(VpnStatus.LogLevel.INFO, "unique message", 500);
+        Assert.assertEquals(li.hashCode(), li2.hashCode());
+
+        VpnStatus.newLogItemIfUnique(li);
+        VpnStatus.newLogItemIfUnique(li2);
+        Assert.assertEquals(initialSize + 1, VpnStatus.getlogbuffer().length);
+    }
 
     private void testEquals(LogItem li, LogItem li2) {
         Assert.assertEquals(li.getLogLevel(), li2.getLogLevel());
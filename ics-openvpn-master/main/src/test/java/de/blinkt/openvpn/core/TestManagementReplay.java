@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import android.os.Build;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.logging.Logger;
+
+import de.blinkt.openvpn.VpnProfile;
+
+/**
+ * Replays a management transcript. Uses the bundled sample unless another transcript is
+ * given with -Dreplay.transcript=file, -Dreplay.speed=original keeps the timing of the
+ * recording. Both can be given on the gradle command line.
+ */
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+@RunWith(RobolectricTestRunner.class)
+public class TestManagementReplay {
+
+    @Test
+    public void transcriptRoundTrip() throws IOException {
+        String data = ">LOG:1,I,back\\slash\r\n>STATE:2,WAIT,,,,,,\n";
+        String line = "< 12 1 " + ManagementTranscript.escape(data);
+        List<ManagementTranscript.Entry> entries = ManagementTranscript.read(new StringReader(line));
+        Assert.assertEquals(1, entries.size());
+        Assert.assertTrue(entries.get(0).fromOpenVPN);
+        Assert.assertEquals(12, entries.get(0).time);
+        Assert.assertEquals(1, entries.get(0).fds);
+        Assert.assertEquals(data, entries.get(0).data);
+    }
+
+    @Test
+    public void credentialsAreNotRecorded() throws IOException {
+        StringWriter sw = new StringWriter();
+        ManagementTranscript transcript = new ManagementTranscript(sw);
+        transcript.sent("username 'Auth' alice\n", 0);
+        transcript.sent("password 'Auth' s3cret\n", 0);
+        transcript.sent("username 'HTTP Proxy' proxyuser\n", 0);
+        transcript.sent("password 'HTTP Proxy' proxypass\n", 0);
+        transcript.sent("cr-response MTIzNDU2\n", 0);
+        transcript.sent("hold release\n", 0);
+        /* The token is split over two reads */
+        transcript.received(">INFO:OpenVPN Management Interface\r\n>PASSWORD:Auth-To", 0);
+        transcript.received("ken:c2Vzc2lvbg==\r\n>STATE:1,CONNECTED,SUCCESS,,,,,\r\n", 0);
+        transcript.received(">PASSWORD:Auth-Token:dG9rZW4y", 0);
+        transcript.close();
+
+        String recorded = sw.toString();
+        for (String secret : new String[]{"alice", "s3cret", "proxyuser", "proxypass", "MTIzNDU2", "c2Vzc2lvbg==", "dG9rZW4y"})
+            Assert.assertFalse(secret + " recorded", recorded.contains(secret));
+
+        List<ManagementTranscript.Entry> entries = ManagementTranscript.read(new StringReader(recorded));
+        Assert.assertEquals(9, entries.size());
+        Assert.assertEquals("username 'Auth' (not recorded)\n", entries.get(0).data);
+        Assert.assertEquals("cr-response (not recorded)\n", entries.get(4).data);
+        Assert.assertEquals("hold release\n", entries.get(5).data);
+        Assert.assertEquals(">INFO:OpenVPN Management Interface\r\n", entries.get(6).data);
+        Assert.assertEquals(">PASSWORD:Auth-Token:(not recorded)\r\n>STATE:1,CONNECTED,SUCCESS,,,,,\r\n", entries.get(7).data);
+        Assert.assertEquals(">PASSWORD:Auth-Token:(not recorded)", entries.get(8).data);
+    }
+
+    @Test
+    public void replayTranscript() throws Exception {
+        String file = System.getProperty("replay.transcript");
+        boolean originalSpeed = "original".equals(System.getProperty("replay.speed"));
+
+        List<ManagementTranscript.Entry> transcript;
+        InputStream in = file != null ? new FileInputStream(file)
+                : getClass().getResourceAsStream("sample-management-transcript.txt");
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            transcript = ManagementTranscript.read(reader);
+        }
+
+        ManagementReplay.SinkService sink = Robolectric.buildService(ManagementReplay.SinkService.class).create().get();
+        ManagementReplay.Result result = ManagementReplay.replay(sink, new VpnProfile("replay"), transcript, originalSpeed);
+        String description = "Management replay of " + (file != null ? file : "sample") + ":\n" + result;
+        /* Ends up in the test report also when the replay succeeds */
+        Logger.getLogger(TestManagementReplay.class.getName()).info(description);
+
+        Assert.assertEquals("not all lines have been handled\n" + description, result.expectedLines, result.lines);
+        if (file == null) {
+            Assert.assertEquals(description, 1, sink.tunOpened);
+            Assert.assertEquals(description, result.commandsRecorded, result.commandsSent);
+        }
+    }
+}
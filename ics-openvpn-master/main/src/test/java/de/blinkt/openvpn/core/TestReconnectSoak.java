@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import android.content.Intent;
+import android.os.Build;
+import android.os.Looper;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import de.blinkt.openvpn.VpnProfile;
+
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Drives the management thread and the DeviceStateReceiver of the service through many
+ * connect/pause/resume/network change/disconnect cycles against {@link FakeManagementServer}
+ * and fails if heap, threads, fds, allocations or one of the objects that are known to
+ * collect state per connection keep growing.
+ * <p>
+ * The soak is slow and only runs when the number of cycles is given, e.g.
+ * ./gradlew test -Dsoak.cycles=200
+ */
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+@RunWith(RobolectricTestRunner.class)
+public class TestReconnectSoak {
+    private static final long TIMEOUT_MS = 5000;
+
+    private final LinkedHashMap<String, List<Long>> mMetrics = new LinkedHashMap<>();
+    private final ThreadMXBean mThreadBean = ManagementFactory.getThreadMXBean();
+
+    @Test
+    public void reconnectCycles() throws Exception {
+        int cycles = Integer.getInteger("soak.cycles", 0);
+        Assume.assumeTrue("Soak not requested", cycles > 0);
+        OpenVPNService service = Robolectric.buildService(OpenVPNService.class).create().get();
+        VpnProfile profile = new VpnProfile("soak");
+
+        for (int i = 0; i < cycles; i++) {
+            long allocatedBefore = allocatedBytes(Thread.currentThread());
+            long managementAllocated = runCycle(service, profile);
+            record("allocated bytes", allocatedBytes(Thread.currentThread()) - allocatedBefore + managementAllocated);
+
+            /* A GC per cycle is too slow, the heap trend needs only some samples */
+            if (i % 10 == 0) {
+                System.gc();
+                Runtime rt = Runtime.getRuntime();
+                record("heap", rt.totalMemory() - rt.freeMemory());
+            }
+            record("threads", mThreadBean.getThreadCount());
+            record("fds", countFds());
+            record("management threads", sizeOf(OpenVpnManagementThread.class, null, "active"));
+            record("receivers", shadowOf(RuntimeEnvironment.getApplication()).getRegisteredReceivers().size());
+            record("bytecount listeners", sizeOf(VpnStatus.class, null, "byteCountListener"));
+            record("state listeners", sizeOf(VpnStatus.class, null, "stateListener"));
+        }
+
+        assertBounded("management threads", 0, 0);
+        assertBounded("receivers", 0, 0);
+        assertBounded("bytecount listeners", 0, 0);
+        assertBounded("state listeners", 0, 0);
+        assertBounded("threads", 2, 0);
+        assertBounded("fds", 8, 0);
+        assertBounded("heap", 16 * 1024 * 1024, 0);
+        assertBounded("allocated bytes", 256 * 1024, 0.5);
+    }
+
+    /**
+     * @return bytes allocated by the management thread
+     */
+    private long runCycle(OpenVPNService service, VpnProfile profile) throws Exception {
+        FakeManagementServer daemon = new FakeManagementServer();
+        OpenVpnManagementThread management = new OpenVpnManagementThread(profile, service);
+        management.openManagementInterface(daemon);
+        Thread managementThread = new Thread(management, "OpenVPNManagementThread");
+        managementThread.start();
+
+        DeviceStateReceiver receiver = new DeviceStateReceiver(management);
+        service.replaceDeviceStateReceiver(receiver);
+
+        /* Connect */
+        daemon.connect();
+        daemon.expect("version 3", TIMEOUT_MS);
+        daemon.send(">INFO:OpenVPN Management Interface Version 3 -- type 'help' for more info",
+                ">STATE:1700000000,RESOLVE,,,,,,",
+                ">STATE:1700000000,WAIT,,,,,,",
+                ">STATE:1700000000,AUTH,,,,,,",
+                ">STATE:1700000001,GET_CONFIG,,,,,,",
+                ">STATE:1700000001,ASSIGN_IP,,10.8.0.2,,,,",
+                ">STATE:1700000001,CONNECTED,SUCCESS,10.8.0.2,198.51.100.1,1194,,",
+                ">BYTECOUNT:1024,2048",
+                ">LOG:1700000001,I,Initialization Sequence Completed");
+
+        /* Pause, OpenVPN answers SIGUSR1 with a hold */
+        LevelListener paused = new LevelListener(ConnectionStatus.LEVEL_VPNPAUSED);
+        receiver.userPause(true);
+        daemon.expect("signal SIGUSR1", TIMEOUT_MS);
+        daemon.send(">STATE:1700000002,RECONNECTING,SIGUSR1,,,,,",
+                ">HOLD:Waiting for hold release:0");
+        paused.await();
+
+        /* Resume and reconnect */
+        receiver.userPause(false);
+        management.resume();
+        daemon.expect("hold release", TIMEOUT_MS);
+        daemon.send(">STATE:1700000003,CONNECTED,SUCCESS,10.8.0.2,198.51.100.1,1194,,",
+                ">BYTECOUNT:4096,8192");
+
+        /* Network change */
+        management.networkChange(true);
+        daemon.expect("network-change samenetwork", TIMEOUT_MS);
+
+        /* Let the main thread run what the cycle posted */
+        shadowOf(Looper.getMainLooper()).idle();
+
+        /* Disconnect */
+        long managementAllocated = allocatedBytes(managementThread);
+        management.stopVPN(false);
+        managementThread.join(TIMEOUT_MS);
+        Assert.assertFalse("management thread did not exit", managementThread.isAlive());
+        daemon.close();
+        return managementAllocated;
+    }
+
+    /**
+     * Waits for a state with level that is set after the listener has been created
+     */
+    private static class LevelListener implements VpnStatus.StateListener {
+        private final ConnectionStatus mLevel;
+        private final CountDownLatch mLatch = new CountDownLatch(1);
+        private volatile boolean mArmed;
+
+        LevelListener(ConnectionStatus level) {
+            mLevel = level;
+            /* addStateListener reports the current state, which might be from the last cycle */
+            VpnStatus.addStateListener(this);
+            mArmed = true;
+        }
+
+        @Override
+        public void updateState(String state, String logmessage, int localizedResId, ConnectionStatus level, Intent intent) {
+            if (mArmed && level == mLevel)
+                mLatch.countDown();
+        }
+
+        @Override
+        public void setConnectedVPN(String uuid) {
+        }
+
+        void await() throws InterruptedException {
+            boolean reached = mLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            VpnStatus.removeStateListener(this);
+            Assert.assertTrue("State " + mLevel + " not reached", reached);
+        }
+    }
+
+    private long allocatedBytes(Thread t) {
+        if (mThreadBean instanceof com.sun.management.ThreadMXBean)
+            return Math.max(0, ((com.sun.management.ThreadMXBean) mThreadBean).getThreadAllocatedBytes(t.getId()));
+        return 0;
+    }
+
+    private static long countFds() {
+        String[] fds = new File("/proc/self/fd").list();
+        return fds == null ? 0 : fds.length;
+    }
+
+    private static long sizeOf(Class<?> clazz, Object o, String fieldName) throws ReflectiveOperationException {
+        Field field = clazz.getDeclaredField(fieldName);
+        field.setAccessible(true);
+        return ((Collection<?>) field.get(o)).size();
+    }
+
+    private void record(String metric, long value) {
+        List<Long> values = mMetrics.get(metric);
+        if (values == null) {
+            values = new ArrayList<>();
+            mMetrics.put(metric, values);
+        }
+        values.add(value);
+    }
+
+    /**
+     * The first quarter of the samples is warm up (class loading, JIT, lazily created
+     * singletons). After that the maximum and mean of the last quarter must not be above
+     * those of the second quarter by more than the allowed slack.
+     *
+     * @param absoluteSlack allowed absolute growth
+     * @param relativeSlack allowed growth relative to the second quarter
+     */
+    private void assertBounded(String metric, long absoluteSlack, double relativeSlack) {
+        List<Long> values = mMetrics.get(metric);
+        int quarter = values.size() / 4;
+        if (quarter == 0)
+            return;
+
+        List<Long> second = values.subList(quarter, 2 * quarter);
+        List<Long> last = values.subList(values.size() - quarter, values.size());
+
+        long allowedMax = max(second) + absoluteSlack + (long) (relativeSlack * max(second));
+        long allowedMean = mean(second) + absoluteSlack + (long) (relativeSlack * mean(second));
+        String description = describe(metric, values);
+        Assert.assertTrue(description, max(last) <= allowedMax);
+        Assert.assertTrue(description, mean(last) <= allowedMean);
+    }
+
+    private static String describe(String metric, List<Long> values) {
+        int quarter = Math.max(1, values.size() / 4);
+        return String.format(Locale.US, "%s: first %d, mean of last quarter %d, max %d",
+                metric, values.get(0), mean(values.subList(values.size() - quarter, values.size())), max(values));
+    }
+
+    private static long max(List<Long> values) {
+        long max = Long.MIN_VALUE;
+        for (long v : values)
+            max = Math.max(max, v);
+        return max;
+    }
+
+    private static long mean(List<Long> values) {
+        long sum = 0;
+        for (long v : values)
+            sum += v;
+        return sum / values.size();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Vector;
+
+import de.blinkt.openvpn.core.NetworkSpace.IpAddress;
+
+public class TestRouteAggregator {
+
+    private static IpAddress net(String ip, int len) {
+        return new IpAddress(new CIDRIP(ip, len), true);
+    }
+
+    private static Vector<IpAddress> nets(String... routes) {
+        Vector<IpAddress> result = new Vector<>();
+        for (String r : routes) {
+            String[] parts = r.split("/");
+            result.add(net(parts[0], Integer.parseInt(parts[1])));
+        }
+        return result;
+    }
+
+    @Test
+    public void mergeSiblings() {
+        Collection<IpAddress> merged = RouteAggregator.mergeLossless(
+                nets("10.0.3.0/24", "10.0.0.0/24", "10.0.1.0/24", "10.0.2.0/24", "10.1.0.0/24"),
+                Collections.<IpAddress>emptyList());
+        Assert.assertEquals("[10.0.0.0/22, 10.1.0.0/24]", merged.toString());
+
+        /* not aligned, must not be merged */
+        merged = RouteAggregator.mergeLossless(nets("10.0.1.0/24", "10.0.2.0/24"), Collections.<IpAddress>emptyList());
+        Assert.assertEquals(2, merged.size());
+    }
+
+    @Test
+    public void nestedRoutes() {
+        Vector<IpAddress> routes = nets("10.0.0.0/8", "10.1.2.0/24", "10.20.0.0/16");
+        Assert.assertEquals("[10.0.0.0/8]", RouteAggregator.mergeLossless(routes, Collections.<IpAddress>emptyList()).toString());
+
+        /* 10.1.2.0/24 is more specific than the excluded 10.1.0.0/16 and has to stay */
+        Collection<IpAddress> merged = RouteAggregator.mergeLossless(routes, nets("10.1.0.0/16"));
+        Assert.assertEquals("[10.0.0.0/8, 10.1.2.0/24]", merged.toString());
+    }
+
+    @Test
+    public void supernetKeepsExclusions() {
+        Vector<IpAddress> routes = new Vector<>();
+        for (int i = 0; i < 256; i += 2)
+            routes.add(net("10.0." + i + ".0", 24));
+        Vector<IpAddress> exclusions = nets("10.0.129.0/24");
+
+        Collection<IpAddress> aggregated = RouteAggregator.supernet(
+                RouteAggregator.mergeLossless(routes, exclusions), exclusions, 16);
+        Assert.assertTrue(aggregated.size() <= 16);
+
+        for (IpAddress route : routes) {
+            boolean covered = false;
+            for (IpAddress a : aggregated)
+                covered |= a.containsNet(route);
+            Assert.assertTrue(route.toString(), covered);
+        }
+        for (IpAddress a : aggregated)
+            Assert.assertFalse(a.toString(), a.containsNet(exclusions.get(0)));
+    }
+}
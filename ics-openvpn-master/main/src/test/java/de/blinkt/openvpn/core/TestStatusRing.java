@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Vector;
+
+public class TestStatusRing {
+
+    private static byte[] record(int i, int len) {
+        ByteBuffer bb = ByteBuffer.allocate(len);
+        bb.putInt(i);
+        return bb.array();
+    }
+
+    private static StatusRing openReader(File ringFile) throws IOException {
+        try (FileInputStream in = new FileInputStream(ringFile)) {
+            return StatusRing.openReader(in);
+        }
+    }
+
+    @Test
+    public void testReadWrite() throws IOException {
+        File ringFile = File.createTempFile("statusring", ".dat");
+        StatusRing writer = StatusRing.createWriter(ringFile);
+        StatusRing reader = openReader(ringFile);
+        Assert.assertEquals(writer.getGeneration(), reader.getGeneration());
+
+        reader.setReadSeq(writer.getNextSeq());
+        for (int i = 0; i < 10; i++)
+            writer.append(record(i, 100));
+        writer.updateByteCount(1234, 5678);
+
+        Vector<byte[]> records = reader.readNewRecords();
+        Assert.assertEquals(10, records.size());
+        for (int i = 0; i < 10; i++)
+            Assert.assertEquals(i, ByteBuffer.wrap(records.get(i)).getInt());
+        Assert.assertEquals(0, reader.readNewRecords().size());
+
+        long[] byteCount = reader.readByteCountIfChanged();
+        Assert.assertArrayEquals(new long[]{1234, 5678}, byteCount);
+        Assert.assertNull(reader.readByteCountIfChanged());
+        ringFile.delete();
+    }
+
+    @Test
+    public void testWrapAroundAndOverrun() throws IOException {
+        File ringFile = File.createTempFile("statusring", ".dat");
+        StatusRing writer = StatusRing.createWriter(ringFile);
+        StatusRing reader = openReader(ringFile);
+        reader.setReadSeq(0);
+
+        /* Fill the ring more than three times, the reader only gets the newest records */
+        int recordLen = 1000;
+        int count = 3 * StatusRing.DATA_SIZE / recordLen;
+        for (int i = 0; i < count; i++)
+            writer.append(record(i, recordLen));
+
+        Vector<byte[]> records = reader.readNewRecords();
+        Assert.assertTrue(records.size() < StatusRing.DATA_SIZE / recordLen);
+        Assert.assertEquals(count - 1, ByteBuffer.wrap(records.lastElement()).getInt());
+        Assert.assertFalse(writer.containsSeq(0));
+        Assert.assertTrue(writer.containsSeq(count - 1));
+
+        /* Records that wrap around the end of the ring */
+        for (int i = count; i < count + 500; i++) {
+            writer.append(record(i, recordLen + (i % 7)));
+            Vector<byte[]> newRecords = reader.readNewRecords();
+            Assert.assertEquals(1, newRecords.size());
+            Assert.assertEquals(i, ByteBuffer.wrap(newRecords.get(0)).getInt());
+        }
+        ringFile.delete();
+    }
+
+    @Test
+    public void testDamagedRecordIsNotReturned() throws IOException {
+        File ringFile = File.createTempFile("statusring", ".dat");
+        StatusRing writer = StatusRing.createWriter(ringFile);
+        StatusRing reader = openReader(ringFile);
+        reader.setReadSeq(writer.getNextSeq());
+        for (int i = 0; i < 3; i++)
+            writer.append(record(i, 100));
+
+        /* Like a record the reader sees only partially */
+        try (RandomAccessFile raf = new RandomAccessFile(ringFile, "rw")) {
+            long payload = StatusRing.HEADER_SIZE + StatusRing.RECORD_HEADER_SIZE + 100 + StatusRing.RECORD_HEADER_SIZE;
+            raf.seek(payload);
+            raf.write(0x55);
+        }
+
+        Vector<byte[]> records = reader.readNewRecords();
+        Assert.assertEquals(1, records.size());
+        Assert.assertEquals(0, ByteBuffer.wrap(records.get(0)).getInt());
+
+        /* The reader waits for the record a few times before giving up on it and continues
+         * with the next intact record */
+        Assert.assertEquals(0, reader.readNewRecords().size());
+        records = reader.readNewRecords();
+        Assert.assertEquals(1, records.size());
+        Assert.assertEquals(2, ByteBuffer.wrap(records.get(0)).getInt());
+        writer.append(record(3, 100));
+        records = reader.readNewRecords();
+        Assert.assertEquals(1, records.size());
+        Assert.assertEquals(3, ByteBuffer.wrap(records.get(0)).getInt());
+        ringFile.delete();
+    }
+
+    @Test
+    public void testDamagedLengthIsSkipped() throws IOException {
+        File ringFile = File.createTempFile("statusring", ".dat");
+        StatusRing writer = StatusRing.createWriter(ringFile);
+        StatusRing reader = openReader(ringFile);
+        reader.setReadSeq(writer.getNextSeq());
+        for (int i = 0; i < 4; i++)
+            writer.append(record(i, 100));
+
+        /* The length of the second record points into the middle of the third one */
+        try (RandomAccessFile raf = new RandomAccessFile(ringFile, "rw")) {
+            raf.seek(StatusRing.HEADER_SIZE + StatusRing.RECORD_HEADER_SIZE + 100);
+            raf.writeInt(150);
+        }
+
+        Vector<byte[]> records = new Vector<>();
+        for (int i = 0; i < 3; i++)
+            records.addAll(reader.readNewRecords());
+        Assert.assertEquals(3, records.size());
+        Assert.assertEquals(0, ByteBuffer.wrap(records.get(0)).getInt());
+        Assert.assertEquals(2, ByteBuffer.wrap(records.get(1)).getInt());
+        Assert.assertEquals(3, ByteBuffer.wrap(records.get(2)).getInt());
+        ringFile.delete();
+    }
+
+    @Test
+    public void testHalfWrittenHeaderDoesNotBlock() throws IOException {
+        File ringFile = File.createTempFile("statusring", ".dat");
+        StatusRing writer = StatusRing.createWriter(ringFile);
+        StatusRing reader = openReader(ringFile);
+        reader.setReadSeq(writer.getNextSeq());
+        writer.append(record(0, 100));
+        writer.updateByteCount(1, 2);
+
+        /* Like a writer that died while updating the header and the byte counters */
+        try (RandomAccessFile raf = new RandomAccessFile(ringFile, "rw")) {
+            raf.seek(StatusRing.OFF_NEXT_SEQ);
+            raf.writeLong(99);
+            raf.seek(StatusRing.OFF_BYTES_IN);
+            raf.writeLong(99);
+        }
+
+        Assert.assertEquals(0, reader.readNewRecords().size());
+        Assert.assertNull(reader.readByteCountIfChanged());
+
+        writer.append(record(1, 100));
+        writer.updateByteCount(3, 4);
+        Assert.assertEquals(2, reader.readNewRecords().size());
+        Assert.assertArrayEquals(new long[]{3, 4}, reader.readByteCountIfChanged());
+        ringFile.delete();
+    }
+}
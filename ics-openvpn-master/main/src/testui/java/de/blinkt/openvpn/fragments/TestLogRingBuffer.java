@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.fragments;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.blinkt.openvpn.VpnProfile;
+import de.blinkt.openvpn.core.LogItem;
+import de.blinkt.openvpn.core.VpnStatus;
+
+public class TestLogRingBuffer {
+
+    @Test
+    public void testLevelIndex() {
+        LogRingBuffer rb = new LogRingBuffer(10);
+        rb.add(new LogItem(VpnStatus.LogLevel.INFO, 1, "verb1"), 1);
+        Assert.assertFalse(rb.add(new LogItem(VpnStatus.LogLevel.INFO, 3, "verb3"), 1));
+        rb.add(new LogItem(VpnStatus.LogLevel.INFO, 7, "verb7"), 1);
+
+        Assert.assertEquals(1, rb.size(1));
+        Assert.assertEquals(2, rb.size(3));
+        Assert.assertEquals(3, rb.size(VpnProfile.MAXLOGLEVEL));
+        Assert.assertEquals("verb3", rb.get(3, 1).toString());
+        Assert.assertEquals("verb7", rb.get(VpnProfile.MAXLOGLEVEL, 2).toString());
+    }
+
+    @Test
+    public void testWrapAround() {
+        LogRingBuffer rb = new LogRingBuffer(4);
+        for (int i = 0; i < 10; i++)
+            rb.add(new LogItem(VpnStatus.LogLevel.INFO, (i % 2 == 0) ? 1 : 3, "item" + i), 1);
+
+        Assert.assertEquals(4, rb.totalSize());
+        Assert.assertEquals("item6", rb.getAny(0).toString());
+        Assert.assertEquals(2, rb.size(1));
+        Assert.assertEquals("item6", rb.get(1, 0).toString());
+        Assert.assertEquals("item8", rb.get(1, 1).toString());
+        Assert.assertEquals(4, rb.size(3));
+        Assert.assertEquals(9, rb.getSequence(3, 3));
+
+        rb.clear();
+        Assert.assertEquals(0, rb.totalSize());
+        Assert.assertEquals(0, rb.size(VpnProfile.MAXLOGLEVEL));
+    }
+}
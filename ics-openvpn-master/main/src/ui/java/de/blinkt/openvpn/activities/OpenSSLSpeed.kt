@@ -6,28 +6,39 @@
 package de.blinkt.openvpn.activities
 
 import android.content.Context
+import android.content.Intent
+import android.net.Uri
 import android.os.AsyncTask
 import android.os.Bundle
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
 import android.widget.ArrayAdapter
+import android.widget.Button
 import android.widget.EditText
 import android.widget.ListView
 import android.widget.TextView
 import androidx.lifecycle.lifecycleScope
 import de.blinkt.openvpn.R
+import de.blinkt.openvpn.core.CryptoBenchmark
 import de.blinkt.openvpn.core.NativeUtils
 import de.blinkt.openvpn.core.OpenVPNService
+import de.blinkt.openvpn.core.VpnStatus
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.runInterruptible
 import kotlinx.coroutines.withContext
+import org.json.JSONException
+import java.io.File
+import java.io.IOException
 import java.util.*
 
 class OpenSSLSpeed : BaseActivity() {
     private lateinit var mCipher: EditText
     private lateinit var mAdapter: SpeedArrayAdapter
     private lateinit var mListView: ListView
+    private var mBenchmark: Job? = null
 
 
     internal class SpeedArrayAdapter(private val mContext: Context) :
@@ -108,6 +119,7 @@ class OpenSSLSpeed : BaseActivity() {
         supportActionBar!!.setDisplayHomeAsUpEnabled(true)
 
         findViewById<View>(R.id.testSpecific).setOnClickListener { _ -> runAlgorithms(mCipher.text.toString()) }
+        findViewById<Button>(R.id.benchmarkMatrix).setOnClickListener { v -> toggleBenchmarkMatrix(v as Button, mCipher.text.toString()) }
         mCipher = findViewById<View>(R.id.ciphername) as EditText
 
         mListView = findViewById(R.id.results)
@@ -124,6 +136,74 @@ class OpenSSLSpeed : BaseActivity() {
     }
 
 
+    /**
+     * Starts the [CryptoBenchmark] matrix for the selected algorithms or cancels the
+     * running one. The matrix takes several minutes, every result is shown as soon as it
+     * has been measured and at the end the results are logged and shared as a JSON file.
+     */
+    private fun toggleBenchmarkMatrix(button: Button, text: String) {
+        mBenchmark?.let {
+            it.cancel()
+            return
+        }
+
+        val algorithms = text.split(" ").filter { it.isNotEmpty() }
+        if (algorithms.isEmpty()) {
+            mCipher.error = getString(R.string.benchmark_no_algorithms)
+            return
+        }
+
+        mAdapter.clear()
+        button.setText(R.string.cancel_benchmark)
+        mBenchmark = lifecycleScope.launch {
+            try {
+                /* Cancelling interrupts the benchmark thread */
+                val dump = runInterruptible(Dispatchers.IO) { runBenchmarkMatrix(algorithms) }
+                if (dump != null)
+                    shareBenchmark(dump)
+            } finally {
+                mBenchmark = null
+                button.setText(R.string.benchmark_matrix)
+            }
+        }
+    }
+
+    private fun runBenchmarkMatrix(algorithms: List<String>): File? {
+        try {
+            val results = CryptoBenchmark.createDefault(algorithms).run { result ->
+                runOnUiThread { showBenchmarkResult(result) }
+            }
+            CryptoBenchmark.logResults(results)
+            return CryptoBenchmark.writeResults(cacheDir, results)
+        } catch (e: IOException) {
+            VpnStatus.logException("Writing the benchmark results failed", e)
+        } catch (e: JSONException) {
+            VpnStatus.logException("Writing the benchmark results failed", e)
+        }
+        return null
+    }
+
+    private fun showBenchmarkResult(result: CryptoBenchmark.Result) {
+        val speed = SpeedResult(getString(R.string.benchmark_threads, result.algorithm, result.threads))
+        speed.length = result.blockSize
+        speed.failed = result.failed
+        if (!result.failed) {
+            /* The benchmark measures bytes per second */
+            speed.time = 1.0
+            speed.count = result.mean / result.blockSize
+        }
+        speed.running = false
+        mAdapter.add(speed)
+    }
+
+    private fun shareBenchmark(dump: File) {
+        val shareIntent = Intent(Intent.ACTION_SEND)
+        shareIntent.putExtra(Intent.EXTRA_STREAM, Uri.parse("content://" + packageName + ".FileProvider/" + dump.name))
+        shareIntent.type = "application/json"
+        shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION)
+        startActivity(Intent.createChooser(shareIntent, getString(R.string.benchmark_matrix)))
+    }
+
     internal class SpeedResult(var algorithm: String) {
         var failed = false
 
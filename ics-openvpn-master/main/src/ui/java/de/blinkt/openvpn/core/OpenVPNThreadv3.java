@@ -53,7 +53,7 @@ public class OpenVPNThreadv3 extends ClientAPI_OpenVPNClient implements Runnable
 
     @Override
     public void run() {
-        String configstr = mVp.getConfigFile((Context) mService, true);
+        String configstr = mVp.getConfigFile((Context) mService, true, true);
         if (!setConfig(configstr))
             return;
         setUserPW();
@@ -219,7 +219,7 @@ public class OpenVPNThreadv3 extends ClientAPI_OpenVPNClient implements Runnable
     @Override
     public void external_pki_cert_request(ClientAPI_ExternalPKICertRequest certreq) {
         VpnStatus.logDebug("Got external PKI certificate request from OpenVPN core");
-        String[] ks = mVp.getExternalCertificates(mService);
+        String[] ks = mVp.awaitExternalCertificates(mService);
         if (ks == null) {
             certreq.setError(true);
             certreq.setErrorText("Error in pki cert request");
@@ -337,8 +337,8 @@ public class OpenVPNThreadv3 extends ClientAPI_OpenVPNClient implements Runnable
     public net.openvpn.ovpn3.ClientAPI_StringVec tun_builder_get_local_networks(boolean ipv6) {
 
         net.openvpn.ovpn3.ClientAPI_StringVec nets = new net.openvpn.ovpn3.ClientAPI_StringVec();
-        for (String net : NetworkUtils.getLocalNetworks(mService, ipv6))
-            nets.add(net);
+        for (LollipopDeviceStateListener.LocalPrefix net : LollipopDeviceStateListener.getLocalNetworks(mService).get(ipv6))
+            nets.add(net.toString());
         return nets;
     }
 
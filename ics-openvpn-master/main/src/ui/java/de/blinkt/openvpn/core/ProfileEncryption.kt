@@ -6,60 +6,131 @@ package de.blinkt.openvpn.core
 
 import android.content.Context
 import android.os.Build
-import androidx.security.crypto.EncryptedFile
+import android.os.SystemClock
 import androidx.security.crypto.MasterKey
+import com.google.crypto.tink.KeyTemplates
+import com.google.crypto.tink.StreamingAead
+import com.google.crypto.tink.integration.android.AndroidKeysetManager
+import com.google.crypto.tink.streamingaead.StreamingAeadConfig
 import java.io.File
 import java.io.FileInputStream
 import java.io.FileOutputStream
 import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.nio.charset.StandardCharsets
 import java.security.GeneralSecurityException
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Future
+import java.util.concurrent.FutureTask
 
+/**
+ * Encryption of the profile files. Getting the master key from the Android Keystore and
+ * decrypting the keyset with it takes from tens of milliseconds up to seconds on some
+ * devices, so it is done once in the background. The resulting StreamingAead is shared by
+ * all profile files instead of building an EncryptedFile (and loading the keyset again)
+ * for every file. The files stay compatible with EncryptedFile: same keyset, same key
+ * template and the file name as associated data.
+ */
 internal class ProfileEncryption {
 
     companion object {
+        /* The names EncryptedFile uses for its keyset */
+        private const val KEYSET_PREF_NAME = "__androidx_security_crypto_encrypted_file_pref__"
+        private const val KEYSET_ALIAS = "__androidx_security_crypto_encrypted_file_keyset__"
+        private const val KEY_TEMPLATE = "AES256_GCM_HKDF_4KB"
+        private const val KEYSTORE_PATH_URI = "android-keystore://"
+
+        private var mStreamingAead: Future<StreamingAead?>? = null
+
+        /**
+         * Blocks until the key is ready if [initMasterCryptAlias] is still running
+         */
         @JvmStatic
         fun encryptionEnabled(): Boolean {
-            return mMasterKey != null
+            return getStreamingAead() != null
         }
 
-        private var mMasterKey: MasterKey? = null
+        /**
+         * Starts loading the key in the background, calling it again does nothing
+         */
         @JvmStatic
-        fun initMasterCryptAlias(context:Context) {
+        @Synchronized
+        fun initMasterCryptAlias(context: Context): Future<StreamingAead?> {
+            mStreamingAead?.let { return it }
+
+            val appContext = context.applicationContext
+            val task = FutureTask { createStreamingAead(appContext) }
+            mStreamingAead = task
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M)
+                task.run()
+            else
+                Thread(task, "ProfileEncryptionInit").start()
+            return task
+        }
+
+        private fun createStreamingAead(context: Context): StreamingAead? {
             if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M)
-                return
+                return null
+            val start = SystemClock.elapsedRealtime()
             try {
-                mMasterKey = MasterKey.Builder(context)
-                      .setKeyScheme(MasterKey.KeyScheme.AES256_GCM)
-                      .build()
+                /* Creates the key in the keystore on first use */
+                MasterKey.Builder(context)
+                    .setKeyScheme(MasterKey.KeyScheme.AES256_GCM)
+                    .build()
+                StreamingAeadConfig.register()
+                val keysetHandle = AndroidKeysetManager.Builder()
+                    .withKeyTemplate(KeyTemplates.get(KEY_TEMPLATE))
+                    .withSharedPref(context, KEYSET_ALIAS, KEYSET_PREF_NAME)
+                    .withMasterKeyUri(KEYSTORE_PATH_URI + MasterKey.DEFAULT_MASTER_KEY_ALIAS)
+                    .build().keysetHandle
+                val streamingAead = keysetHandle.getPrimitive(StreamingAead::class.java)
+                VpnStatus.logDebug("Profile encryption key ready after " + (SystemClock.elapsedRealtime() - start) + " ms")
+                return streamingAead
             } catch (e: GeneralSecurityException) {
                 VpnStatus.logException("Could not initialise file encryption key.", e)
             } catch (e: IOException) {
                 VpnStatus.logException("Could not initialise file encryption key.", e)
             }
+            return null
+        }
+
+        private fun getStreamingAead(): StreamingAead? {
+            val future = synchronized(this) { mStreamingAead } ?: return null
+            var interrupted = false
+            try {
+                while (true) {
+                    try {
+                        return future.get()
+                    } catch (e: InterruptedException) {
+                        interrupted = true
+                    } catch (e: ExecutionException) {
+                        VpnStatus.logException("Could not initialise file encryption key.", e.cause ?: e)
+                        return null
+                    }
+                }
+            } finally {
+                if (interrupted)
+                    Thread.currentThread().interrupt()
+            }
+        }
+
+        private fun requireStreamingAead(): StreamingAead {
+            return getStreamingAead() ?: throw GeneralSecurityException("file encryption key not available")
         }
 
         @JvmStatic
         @Throws(GeneralSecurityException::class, IOException::class)
-        fun getEncryptedVpInput(context: Context, file: File): FileInputStream {
-            val encryptedFile = EncryptedFile.Builder(
-                context,
-                file,
-                mMasterKey!!,
-                EncryptedFile.FileEncryptionScheme.AES256_GCM_HKDF_4KB
-            ).build()
-            return encryptedFile.openFileInput()
+        fun getEncryptedVpInput(context: Context, file: File): InputStream {
+            return requireStreamingAead().newDecryptingStream(FileInputStream(file),
+                file.name.toByteArray(StandardCharsets.UTF_8))
         }
 
         @JvmStatic
         @Throws(GeneralSecurityException::class, IOException::class)
-        fun getEncryptedVpOutput(context: Context, file: File): FileOutputStream {
-            val encryptedFile = EncryptedFile.Builder(
-                context,
-                file,
-                mMasterKey!!,
-                EncryptedFile.FileEncryptionScheme.AES256_GCM_HKDF_4KB
-            ).build()
-            return encryptedFile.openFileOutput()
+        fun getEncryptedVpOutput(context: Context, file: File): OutputStream {
+            return requireStreamingAead().newEncryptingStream(FileOutputStream(file),
+                file.name.toByteArray(StandardCharsets.UTF_8))
         }
     }
-}
\ No newline at end of file
+}
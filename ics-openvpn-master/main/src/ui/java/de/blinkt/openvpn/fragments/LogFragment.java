@@ -18,6 +18,7 @@ import android.content.Intent;
 import android.content.res.Resources;
 import android.database.DataSetObserver;
 import android.graphics.drawable.Drawable;
+import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Handler.Callback;
@@ -32,6 +33,7 @@ import androidx.fragment.app.ListFragment;
 import android.text.SpannableString;
 import android.text.format.DateFormat;
 import android.text.style.ImageSpan;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -50,11 +52,13 @@ import android.widget.SeekBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import java.io.File;
 import java.text.SimpleDateFormat;
-import java.util.Collections;
 import java.util.Date;
 import java.util.Locale;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import de.blinkt.openvpn.LaunchVPN;
 import de.blinkt.openvpn.R;
@@ -67,6 +71,7 @@ import de.blinkt.openvpn.core.OpenVPNManagement;
 import de.blinkt.openvpn.core.OpenVPNService;
 import de.blinkt.openvpn.core.Preferences;
 import de.blinkt.openvpn.core.ProfileManager;
+import de.blinkt.openvpn.core.RouteLog;
 import de.blinkt.openvpn.core.VpnStatus;
 import de.blinkt.openvpn.core.LogItem;
 import de.blinkt.openvpn.core.VpnStatus.LogListener;
@@ -143,9 +148,12 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
     }
 
 
-    class LogWindowListAdapter implements ListAdapter, LogListener, Callback {
-
-        private static final int MESSAGE_NEWLOG = 0;
+    /**
+     * Log items are not delivered one by one to the list. New items are queued and
+     * the queue is drained once per frame, so a burst of log items results in only one
+     * change notification of the list.
+     */
+    class LogWindowListAdapter implements ListAdapter, LogListener, Callback, Choreographer.FrameCallback {
 
         private static final int MESSAGE_CLEARLOG = 1;
 
@@ -157,9 +165,13 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
         public static final int TIME_FORMAT_ISO = 2;
         private static final int MAX_STORED_LOG_ENTRIES = 1000;
 
-        private Vector<LogItem> allEntries = new Vector<>();
+        private final LogRingBuffer mEntries = new LogRingBuffer(MAX_STORED_LOG_ENTRIES);
+
+        private final ConcurrentLinkedQueue<LogItem> mPendingEntries = new ConcurrentLinkedQueue<>();
 
-        private Vector<LogItem> currentLevelEntries = new Vector<LogItem>();
+        private final AtomicBoolean mFrameScheduled = new AtomicBoolean(false);
+
+        private final Choreographer mChoreographer;
 
         private Handler mHandler;
 
@@ -170,6 +182,7 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
 
 
         public LogWindowListAdapter() {
+            mChoreographer = Choreographer.getInstance();
             initLogBuffer();
             if (mHandler == null) {
                 mHandler = new Handler(this);
@@ -180,17 +193,19 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
 
 
         private void initLogBuffer() {
-            allEntries.clear();
-            Collections.addAll(allEntries, VpnStatus.getlogbuffer());
-            initCurrentMessages();
+            mPendingEntries.clear();
+            mEntries.clear();
+            for (LogItem li : VpnStatus.getlogbuffer())
+                mEntries.add(li, mLogLevel);
         }
 
         String getLogStr() {
-            String str = "";
-            for (LogItem entry : allEntries) {
-                str += getTime(entry, TIME_FORMAT_ISO) + entry.getString(getActivity()) + '\n';
+            StringBuilder str = new StringBuilder();
+            for (int i = 0; i < mEntries.totalSize(); i++) {
+                LogItem entry = mEntries.getAny(i);
+                str.append(getTime(entry, TIME_FORMAT_ISO)).append(entry.getString(getActivity())).append('\n');
             }
-            return str;
+            return str.toString();
         }
 
 
@@ -199,6 +214,12 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
             shareIntent.putExtra(Intent.EXTRA_TEXT, getLogStr());
             shareIntent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.ics_openvpn_log_file));
             shareIntent.setType("text/plain");
+
+            File routeDump = RouteLog.getLatestDump(requireContext().getCacheDir());
+            if (routeDump != null) {
+                shareIntent.putExtra(Intent.EXTRA_STREAM, Uri.parse("content://" + requireContext().getPackageName() + ".FileProvider/" + routeDump.getName()));
+                shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            }
             startActivity(Intent.createChooser(shareIntent, "Send Logfile"));
         }
 
@@ -215,17 +236,17 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
 
         @Override
         public int getCount() {
-            return currentLevelEntries.size();
+            return mEntries.size(mLogLevel);
         }
 
         @Override
         public Object getItem(int position) {
-            return currentLevelEntries.get(position);
+            return mEntries.get(mLogLevel, position);
         }
 
         @Override
         public long getItemId(int position) {
-            return ((Object) currentLevelEntries.get(position)).hashCode();
+            return mEntries.getSequence(mLogLevel, position);
         }
 
         @Override
@@ -241,7 +262,7 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
             else
                 v = (TextView) convertView;
 
-            LogItem le = currentLevelEntries.get(position);
+            LogItem le = mEntries.get(mLogLevel, position);
             String msg = le.getString(getActivity());
             String time = getTime(le, mTimeFormat);
             msg = time + msg;
@@ -312,7 +333,7 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
 
         @Override
         public boolean isEmpty() {
-            return currentLevelEntries.isEmpty();
+            return getCount() == 0;
 
         }
 
@@ -328,26 +349,35 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
 
         @Override
         public void newLog(LogItem logMessage) {
-            Message msg = Message.obtain();
-            assert (msg != null);
-            msg.what = MESSAGE_NEWLOG;
-            Bundle bundle = new Bundle();
-            bundle.putParcelable("logmessage", logMessage);
-            msg.setData(bundle);
-            mHandler.sendMessage(msg);
+            mPendingEntries.offer(logMessage);
+            if (mFrameScheduled.compareAndSet(false, true))
+                mChoreographer.postFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mFrameScheduled.set(false);
+
+            boolean changed = false;
+            LogItem li;
+            while ((li = mPendingEntries.poll()) != null)
+                changed |= mEntries.add(li, mLogLevel);
+
+            if (changed)
+                for (DataSetObserver observer : observers) {
+                    observer.onChanged();
+                }
+        }
+
+        void stopUpdates() {
+            mChoreographer.removeFrameCallback(this);
+            mFrameScheduled.set(false);
         }
 
         @Override
         public boolean handleMessage(Message msg) {
             // We have been called
-            if (msg.what == MESSAGE_NEWLOG) {
-
-                LogItem logMessage = msg.getData().getParcelable("logmessage");
-                if (addLogMessage(logMessage))
-                    for (DataSetObserver observer : observers) {
-                        observer.onChanged();
-                    }
-            } else if (msg.what == MESSAGE_CLEARLOG) {
+            if (msg.what == MESSAGE_CLEARLOG) {
                 for (DataSetObserver observer : observers) {
                     observer.onInvalidated();
                 }
@@ -357,8 +387,9 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
                     observer.onInvalidated();
                 }
             } else if (msg.what == MESSAGE_NEWLOGLEVEL) {
-                initCurrentMessages();
-
+                /* Switch the level together with the notification, the ListView must not
+                 * see a different count before it has been told about the change */
+                mLogLevel = msg.arg1;
                 for (DataSetObserver observer : observers) {
                     observer.onChanged();
                 }
@@ -368,40 +399,6 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
             return true;
         }
 
-        private void initCurrentMessages() {
-            currentLevelEntries.clear();
-            for (LogItem li : allEntries) {
-                if (li.getVerbosityLevel() <= mLogLevel ||
-                        mLogLevel == VpnProfile.MAXLOGLEVEL)
-                    currentLevelEntries.add(li);
-            }
-        }
-
-        /**
-         * @param logmessage
-         * @return True if the current entries have changed
-         */
-        private boolean addLogMessage(LogItem logmessage) {
-            allEntries.add(logmessage);
-
-            if (allEntries.size() > MAX_STORED_LOG_ENTRIES) {
-                Vector<LogItem> oldAllEntries = allEntries;
-                allEntries = new Vector<LogItem>(allEntries.size());
-                for (int i = 50; i < oldAllEntries.size(); i++) {
-                    allEntries.add(oldAllEntries.elementAt(i));
-                }
-                initCurrentMessages();
-                return true;
-            } else {
-                if (logmessage.getVerbosityLevel() <= mLogLevel) {
-                    currentLevelEntries.add(logmessage);
-                    return true;
-                } else {
-                    return false;
-                }
-            }
-        }
-
         void clearLog() {
             // Actually is probably called from GUI Thread as result of the user
             // pressing a button. But better safe than sorry
@@ -417,8 +414,7 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
         }
 
         public void setLogLevel(int logLevel) {
-            mLogLevel = logLevel;
-            mHandler.sendEmptyMessage(MESSAGE_NEWLOGLEVEL);
+            mHandler.sendMessage(mHandler.obtainMessage(MESSAGE_NEWLOGLEVEL, logLevel, 0));
         }
 
     }
@@ -684,6 +680,7 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
     @Override
     public void onDestroy() {
         VpnStatus.removeLogListener(ladapter);
+        ladapter.stopUpdates();
         super.onDestroy();
     }
 
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.fragments;
+
+import java.util.Arrays;
+
+import de.blinkt.openvpn.VpnProfile;
+import de.blinkt.openvpn.core.LogItem;
+
+/**
+ * Fixed size circular store of log items for the log window.
+ * <p>
+ * Every item gets a sequence number, the item with sequence s lives in slot
+ * s % capacity. For each log level the buffer keeps a circular array with the
+ * sequence numbers of the items visible at that level. Switching the level
+ * only switches the index that is used and dropping the oldest items does not
+ * copy anything.
+ * <p>
+ * Not thread safe, only used from the UI thread.
+ */
+class LogRingBuffer {
+    private final LogItem[] mItems;
+    private final int mCapacity;
+    /* Sequence number of the oldest and the next item */
+    private long mFirstSeq = 0;
+    private long mNextSeq = 0;
+
+    /* mLevelIndex[l] contains the items shown for log level l+1 */
+    private final long[][] mLevelIndex;
+    private final int[] mLevelStart;
+    private final int[] mLevelSize;
+
+    LogRingBuffer(int capacity) {
+        mCapacity = capacity;
+        mItems = new LogItem[capacity];
+        mLevelIndex = new long[VpnProfile.MAXLOGLEVEL][capacity];
+        mLevelStart = new int[VpnProfile.MAXLOGLEVEL];
+        mLevelSize = new int[VpnProfile.MAXLOGLEVEL];
+    }
+
+    /**
+     * @return true if the items visible for logLevel changed
+     */
+    boolean add(LogItem li, int logLevel) {
+        boolean changed = false;
+        if (mNextSeq - mFirstSeq == mCapacity)
+            changed = dropOldest(logLevel);
+
+        mItems[(int) (mNextSeq % mCapacity)] = li;
+        for (int l = 1; l <= VpnProfile.MAXLOGLEVEL; l++) {
+            if (isVisible(li, l)) {
+                int idx = l - 1;
+                mLevelIndex[idx][(mLevelStart[idx] + mLevelSize[idx]) % mCapacity] = mNextSeq;
+                mLevelSize[idx]++;
+                if (l == logLevel)
+                    changed = true;
+            }
+        }
+        mNextSeq++;
+        return changed;
+    }
+
+    private boolean dropOldest(int logLevel) {
+        boolean changed = false;
+        for (int idx = 0; idx < VpnProfile.MAXLOGLEVEL; idx++) {
+            if (mLevelSize[idx] > 0 && mLevelIndex[idx][mLevelStart[idx]] == mFirstSeq) {
+                mLevelStart[idx] = (mLevelStart[idx] + 1) % mCapacity;
+                mLevelSize[idx]--;
+                if (idx == logLevel - 1)
+                    changed = true;
+            }
+        }
+        mItems[(int) (mFirstSeq % mCapacity)] = null;
+        mFirstSeq++;
+        return changed;
+    }
+
+    static boolean isVisible(LogItem li, int logLevel) {
+        return li.getVerbosityLevel() <= logLevel || logLevel == VpnProfile.MAXLOGLEVEL;
+    }
+
+    void clear() {
+        Arrays.fill(mItems, null);
+        Arrays.fill(mLevelStart, 0);
+        Arrays.fill(mLevelSize, 0);
+        mFirstSeq = mNextSeq;
+    }
+
+    /**
+     * @return Number of items visible at logLevel
+     */
+    int size(int logLevel) {
+        return mLevelSize[logLevel - 1];
+    }
+
+    /**
+     * @return the position-th item visible at logLevel
+     */
+    LogItem get(int logLevel, int position) {
+        return mItems[(int) (getSequence(logLevel, position) % mCapacity)];
+    }
+
+    /**
+     * The sequence number is stable for an item as long as it is in the buffer
+     */
+    long getSequence(int logLevel, int position) {
+        int idx = logLevel - 1;
+        return mLevelIndex[idx][(mLevelStart[idx] + position) % mCapacity];
+    }
+
+    /**
+     * @return total number of items in the buffer, regardless of level
+     */
+    int totalSize() {
+        return (int) (mNextSeq - mFirstSeq);
+    }
+
+    /**
+     * @return the position-th item of all items in the buffer
+     */
+    LogItem getAny(int position) {
+        return mItems[(int) ((mFirstSeq + position) % mCapacity)];
+    }
+}
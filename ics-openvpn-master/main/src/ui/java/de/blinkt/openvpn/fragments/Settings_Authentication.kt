@@ -35,6 +35,7 @@ class Settings_Authentication : OpenVpnPreferencesFragment(), Preference.OnPrefe
     private lateinit var mTLSAuthFile: Preference
     private lateinit var mUseTLSAuth: SwitchPreference
     private lateinit var mDataCiphers: EditTextPreference
+    private lateinit var mAutoTuneDataCiphers: CheckBoxPreference
     private var mTlsAuthFileData: String? = null
     private lateinit var mAuth: EditTextPreference
     private lateinit var mRemoteX509Name: EditTextPreference
@@ -61,6 +62,7 @@ class Settings_Authentication : OpenVpnPreferencesFragment(), Preference.OnPrefe
         mTLSAuthFile.onPreferenceClickListener = this
         mTLSAuthDirection = findPreference("tls_direction")!!
         mDataCiphers = findPreference("dataciphers")!!
+        mAutoTuneDataCiphers = findPreference("dataciphers_autotune")!!
         mAuth = findPreference("auth")!!
         mTLSProfile = findPreference("tls_profile")!!
 
@@ -82,6 +84,7 @@ class Settings_Authentication : OpenVpnPreferencesFragment(), Preference.OnPrefe
         mTLSAuthDirection.value = mProfile.mTLSAuthDirection
 
         mDataCiphers.text = mProfile.mDataCiphers
+        mAutoTuneDataCiphers.isChecked = mProfile.mAutoTuneDataCiphers
         mAuth.text = mProfile.mAuth
 
         if (mProfile.mAuthenticationType == VpnProfile.TYPE_STATICKEYS) {
@@ -108,6 +111,7 @@ class Settings_Authentication : OpenVpnPreferencesFragment(), Preference.OnPrefe
         mProfile.mx509UsernameField = mRemoteX509Name.text
         mProfile.mTLSAuthDirection = mTLSAuthDirection.value
         mProfile.mDataCiphers = mDataCiphers.text
+        mProfile.mAutoTuneDataCiphers = mAutoTuneDataCiphers.isChecked
         mProfile.mAuth = mAuth.text
         mProfile.mTlSCertProfile = mTLSProfile.value
     }
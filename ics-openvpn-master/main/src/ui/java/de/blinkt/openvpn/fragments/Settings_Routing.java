@@ -6,6 +6,8 @@
 package de.blinkt.openvpn.fragments;
 import android.os.Build;
 import android.os.Bundle;
+import android.text.InputType;
+import android.widget.Toast;
 
 import androidx.preference.CheckBoxPreference;
 import androidx.preference.EditTextPreference;
@@ -24,6 +26,7 @@ public class Settings_Routing extends OpenVpnPreferencesFragment implements Pref
     private EditTextPreference mExcludedRoutes;
     private EditTextPreference mExcludedRoutesv6;
 	private CheckBoxPreference mBlockUnusedAF;
+	private EditTextPreference mRouteBudget;
 
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
@@ -42,12 +45,16 @@ public class Settings_Routing extends OpenVpnPreferencesFragment implements Pref
         mLocalVPNAccess = findPreference("unblockLocal");
 
 		mBlockUnusedAF = findPreference("blockUnusedAF");
+		mRouteBudget = findPreference("routeBudget");
 
 		mCustomRoutes.setOnPreferenceChangeListener(this);
 		mCustomRoutesv6.setOnPreferenceChangeListener(this);
         mExcludedRoutes.setOnPreferenceChangeListener(this);
         mExcludedRoutesv6.setOnPreferenceChangeListener(this);
 		mBlockUnusedAF.setOnPreferenceChangeListener(this);
+		mRouteBudget.setOnPreferenceChangeListener(this);
+		/* The androidx EditTextPreference ignores android:inputType */
+		mRouteBudget.setOnBindEditTextListener(editText -> editText.setInputType(InputType.TYPE_CLASS_NUMBER));
 
 		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP)
 			getPreferenceScreen().removePreference(mBlockUnusedAF);
@@ -77,6 +84,9 @@ public class Settings_Routing extends OpenVpnPreferencesFragment implements Pref
 
         mBlockUnusedAF.setChecked(mProfile.mBlockUnusedAddressFamilies);
 
+		mRouteBudget.setText(String.valueOf(mProfile.mRouteBudget));
+		setRouteBudgetSummary(mProfile.mRouteBudget);
+
 		// Sets Summary
 		onPreferenceChange(mCustomRoutes, mCustomRoutes.getText());
 		onPreferenceChange(mCustomRoutesv6, mCustomRoutesv6.getText());
@@ -97,6 +107,14 @@ public class Settings_Routing extends OpenVpnPreferencesFragment implements Pref
         mProfile.mExcludedRoutes = mExcludedRoutes.getText();
         mProfile.mExcludedRoutesv6 = mExcludedRoutesv6.getText();
         mProfile.mBlockUnusedAddressFamilies = mBlockUnusedAF.isChecked();
+		mProfile.mRouteBudget = Integer.parseInt(mRouteBudget.getText());
+	}
+
+	private void setRouteBudgetSummary(int budget) {
+		if (budget == 0)
+			mRouteBudget.setSummary(R.string.route_budget_unlimited);
+		else
+			mRouteBudget.setSummary(getString(R.string.route_budget_summary, budget));
 	}
 
 	@Override
@@ -106,6 +124,19 @@ public class Settings_Routing extends OpenVpnPreferencesFragment implements Pref
                 || preference == mExcludedRoutes || preference == mExcludedRoutesv6)
 			preference.setSummary((String)newValue);
 
+		if (preference == mRouteBudget) {
+			try {
+				int budget = Integer.parseInt((String) newValue);
+				if (budget < 0)
+					throw new NumberFormatException("route budget");
+				mRouteBudget.setText((String) newValue);
+				setRouteBudgetSummary(budget);
+			} catch (NumberFormatException e) {
+				Toast.makeText(getActivity(), R.string.route_budget_invalid, Toast.LENGTH_LONG).show();
+				return false;
+			}
+		}
+
 		saveSettings();
 		return true;
 	}
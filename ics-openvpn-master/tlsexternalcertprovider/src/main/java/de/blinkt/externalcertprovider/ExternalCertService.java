@@ -11,15 +11,16 @@ import android.os.Bundle;
 import android.os.IBinder;
 import android.os.RemoteException;
 import android.text.TextUtils;
+import android.util.Log;
 import de.blinkt.openvpn.api.ExternalCertificateProvider;
+import org.bouncycastle.operator.OperatorCreationException;
 
-import javax.crypto.BadPaddingException;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
+import javax.crypto.Cipher;
 import java.io.IOException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.security.spec.InvalidKeySpecException;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.Locale;
 
 import static de.blinkt.externalcertprovider.SelectCertificateActivity.EXTRA_ALIAS;
 import static de.blinkt.externalcertprovider.SelectCertificateActivity.EXTRA_DESCRIPTION;
@@ -28,60 +29,127 @@ import static de.blinkt.externalcertprovider.SelectCertificateActivity.EXTRA_DES
  * This is a VERY basic implementation.
  * It does not even check if the service is even allowed to use the API
  * see ExternalOpenVPNService for an example of checking caller's creditionals
+ *
+ * Besides the static example key it serves the keys of {@link ReferenceKeys} and delays or
+ * fails calls as configured in {@link ProviderConfig}, to measure the external auth path
+ * of the VPN app with different key types and slow providers.
  */
 public class ExternalCertService extends Service {
-    private byte[] doSign(byte[] data)
+    private static final String TAG = "ExternalCertService";
+    static final String EXAMPLE_ALIAS = "mynicecert";
+
+    private static final String EXTRA_RSA_PADDING_TYPE = "de.blinkt.openvpn.api.RSA_PADDING_TYPE";
+    private static final String EXTRA_DIGEST = "de.blinkt.openvpn.api.DIGEST";
+    private static final String EXTRA_NEEDS_DIGEST = "de.blinkt.openvpn.api.NEEDS_DIGEST";
+    /* Ordinals of RsaPaddingType in the VPN app */
+    private static final int NO_PADDING = 0;
+    private static final int PKCS1_PADDING = 1;
+    private static final int RSAPSS_PADDING = 2;
+
+    private byte[] doSign(String alias, byte[] data, int padding, String digest, boolean needDigest)
     {
-        try {
-            return SimpleSigner.signData(data, false);
+        ProviderConfig config = ProviderConfig.load(this);
+        config.delay();
+        if (config.shouldFail()) {
+            Log.i(TAG, "Failing signature for " + alias + " as configured");
+            return null;
+        }
 
-        } catch (IOException e) {
-            e.printStackTrace();
-        } catch (NoSuchPaddingException e) {
-            e.printStackTrace();
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        } catch (IllegalBlockSizeException e) {
-            e.printStackTrace();
-        } catch (BadPaddingException e) {
-            e.printStackTrace();
-        } catch (InvalidKeySpecException e) {
-            e.printStackTrace();
-        } catch (InvalidKeyException e) {
+        try {
+            PrivateKey key;
+            if (ReferenceKeys.isReferenceAlias(alias))
+                key = ReferenceKeys.get(getFilesDir(), alias).key;
+            else
+                key = SimpleSigner.getPrivateKey();
+
+            if (needDigest) {
+                /* data is the message itself, hash it like VpnProfile.doDigestSign does */
+                String algorithm;
+                if (key.getAlgorithm().equals("EC"))
+                    algorithm = (TextUtils.isEmpty(digest) ? "NONE" : digest) + "withECDSA";
+                else if (padding == RSAPSS_PADDING)
+                    algorithm = digest + "withRSA/PSS";
+                else if (padding == PKCS1_PADDING)
+                    algorithm = digest + "withRSA";
+                else
+                    return null;
+                Signature signer = Signature.getInstance(algorithm.toUpperCase(Locale.ROOT));
+                signer.initSign(key);
+                signer.update(data);
+                return signer.sign();
+            }
+
+            /* data is already the digest (with DigestInfo for PKCS1) */
+            if (key.getAlgorithm().equals("EC")) {
+                Signature signer = Signature.getInstance("NONEwithECDSA");
+                signer.initSign(key);
+                signer.update(data);
+                return signer.sign();
+            } else if (padding == RSAPSS_PADDING) {
+                /* PSS is only available together with the digest */
+                return null;
+            } else {
+                Cipher signer = Cipher.getInstance(padding == PKCS1_PADDING ? "RSA/ECB/PKCS1PADDING" : "RSA/ECB/NoPadding");
+                signer.init(Cipher.ENCRYPT_MODE, key);
+                return signer.doFinal(data);
+            }
+        } catch (IOException | GeneralSecurityException | OperatorCreationException | IllegalArgumentException e) {
             e.printStackTrace();
         }
         // Something failed, return null
         return null;
     }
 
+    private byte[] getChain(String alias)
+    {
+        ProviderConfig config = ProviderConfig.load(this);
+        config.delay();
+        if (config.shouldFail())
+            return null;
+
+        if (!ReferenceKeys.isReferenceAlias(alias))
+            return TextUtils.join("\n", SimpleSigner.certchain).getBytes();
+        try {
+            return ReferenceKeys.get(getFilesDir(), alias).getCertificatePem().getBytes();
+        } catch (IOException | GeneralSecurityException | OperatorCreationException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     private final ExternalCertificateProvider.Stub mBinder = new ExternalCertificateProvider.Stub() {
 
 
 
         @Override
         public byte[] getSignedData(String alias, byte[] data) throws RemoteException {
-
-            return null;
-
+            /* The old API always used PKCS1 padding */
+            return doSign(alias, data, PKCS1_PADDING, null, false);
         }
 
         @Override
         public byte[] getCertificateChain(String alias) throws RemoteException {
 
-            return TextUtils.join("\n", SimpleSigner.certchain).getBytes();
+            return getChain(alias);
         }
 
         @Override
         public Bundle getCertificateMetaData(String alias){
             Bundle b = new Bundle();
-            b.putString(EXTRA_ALIAS, "mynicecert");
-            b.putString(EXTRA_DESCRIPTION, "Super secret example key!");
+            if (ReferenceKeys.isReferenceAlias(alias)) {
+                b.putString(EXTRA_ALIAS, alias);
+                b.putString(EXTRA_DESCRIPTION, "Reference key " + alias);
+            } else {
+                b.putString(EXTRA_ALIAS, EXAMPLE_ALIAS);
+                b.putString(EXTRA_DESCRIPTION, "Super secret example key!");
+            }
             return b;
         }
 
         @Override
         public byte[] getSignedDataWithExtra(String alias, byte[] data, Bundle extra) throws RemoteException {
-            return new byte[0];
+            return doSign(alias, data, extra.getInt(EXTRA_RSA_PADDING_TYPE, PKCS1_PADDING),
+                    extra.getString(EXTRA_DIGEST), extra.getBoolean(EXTRA_NEEDS_DIGEST, false));
         }
     };
 
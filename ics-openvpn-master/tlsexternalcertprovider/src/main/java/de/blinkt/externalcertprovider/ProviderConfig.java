@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2012-2018 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.externalcertprovider;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+
+import java.util.Random;
+
+/**
+ * Artificial latency and failures of the provider, to measure how the VPN app copes with
+ * slow or unreliable providers like smart cards
+ */
+public class ProviderConfig {
+    private static final String PREFS_NAME = "provider_config";
+    private static final String LATENCY_MS = "latency_ms";
+    private static final String JITTER_MS = "jitter_ms";
+    private static final String FAILURE_PERCENT = "failure_percent";
+
+    private static final Random sRandom = new Random();
+
+    public final int latencyMs;
+    public final int jitterMs;
+    public final int failurePercent;
+
+    ProviderConfig(int latencyMs, int jitterMs, int failurePercent) {
+        this.latencyMs = latencyMs;
+        this.jitterMs = jitterMs;
+        this.failurePercent = failurePercent;
+    }
+
+    public static ProviderConfig load(Context c) {
+        SharedPreferences prefs = c.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return new ProviderConfig(prefs.getInt(LATENCY_MS, 0), prefs.getInt(JITTER_MS, 0),
+                prefs.getInt(FAILURE_PERCENT, 0));
+    }
+
+    public void save(Context c) {
+        c.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putInt(LATENCY_MS, latencyMs)
+                .putInt(JITTER_MS, jitterMs)
+                .putInt(FAILURE_PERCENT, failurePercent)
+                .apply();
+    }
+
+    /**
+     * Waits like a slow provider would
+     */
+    void delay() {
+        int ms = latencyMs;
+        if (jitterMs > 0)
+            ms += sRandom.nextInt(jitterMs + 1);
+        if (ms > 0)
+            SystemClock.sleep(ms);
+    }
+
+    /**
+     * @return true if this call should fail
+     */
+    boolean shouldFail() {
+        return failurePercent > 0 && sRandom.nextInt(100) < failurePercent;
+    }
+}
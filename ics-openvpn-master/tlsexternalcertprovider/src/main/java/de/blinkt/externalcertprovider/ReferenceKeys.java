@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2012-2018 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.externalcertprovider;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Date;
+import java.util.HashMap;
+
+/**
+ * Keys of different types and sizes for measuring the signing path. An alias like rsa2048
+ * or ec256 names the key, it is generated with a self signed certificate on first use and
+ * kept in the files of the app, so the certificate stays the same for the VPN app.
+ */
+public class ReferenceKeys {
+    public static final String[] ALIASES = {"rsa1024", "rsa2048", "rsa3072", "rsa4096", "ec256", "ec384", "ec521"};
+
+    private static final HashMap<String, Entry> sKeys = new HashMap<>();
+
+    public static class Entry {
+        public final PrivateKey key;
+        public final X509Certificate certificate;
+
+        Entry(PrivateKey key, X509Certificate certificate) {
+            this.key = key;
+            this.certificate = certificate;
+        }
+
+        public boolean isEC() {
+            return key.getAlgorithm().equals("EC");
+        }
+
+        public String getCertificatePem() throws IOException {
+            StringWriter sw = new StringWriter();
+            try (JcaPEMWriter pw = new JcaPEMWriter(sw)) {
+                pw.writeObject(certificate);
+            }
+            return sw.toString();
+        }
+    }
+
+    public static boolean isReferenceAlias(String alias) {
+        for (String a : ALIASES)
+            if (a.equals(alias))
+                return true;
+        return false;
+    }
+
+    public static synchronized Entry get(File dir, String alias) throws GeneralSecurityException, IOException, OperatorCreationException {
+        if (!isReferenceAlias(alias))
+            throw new IllegalArgumentException("Unknown alias " + alias);
+
+        Entry entry = sKeys.get(alias);
+        if (entry != null)
+            return entry;
+
+        File keyFile = new File(dir, alias + ".key");
+        File certFile = new File(dir, alias + ".crt");
+        boolean ec = alias.startsWith("ec");
+        if (keyFile.exists() && certFile.exists()) {
+            PrivateKey key = KeyFactory.getInstance(ec ? "EC" : "RSA")
+                    .generatePrivate(new PKCS8EncodedKeySpec(readFile(keyFile)));
+            X509Certificate cert = (X509Certificate) CertificateFactory.getInstance("X.509")
+                    .generateCertificate(new ByteArrayInputStream(readFile(certFile)));
+            entry = new Entry(key, cert);
+        } else {
+            entry = generate(alias, ec);
+            writeFile(keyFile, entry.key.getEncoded());
+            writeFile(certFile, entry.certificate.getEncoded());
+        }
+        sKeys.put(alias, entry);
+        return entry;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) > 0)
+                out.write(buf, 0, n);
+            return out.toByteArray();
+        }
+    }
+
+    private static void writeFile(File file, byte[] data) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+    }
+
+    private static Entry generate(String alias, boolean ec) throws GeneralSecurityException, OperatorCreationException {
+        KeyPair pair;
+        String sigalg;
+        if (ec) {
+            int bits = Integer.parseInt(alias.substring(2));
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+            generator.initialize(new ECGenParameterSpec("secp" + bits + "r1"));
+            pair = generator.generateKeyPair();
+            sigalg = "SHA256withECDSA";
+        } else {
+            int bits = Integer.parseInt(alias.substring(3));
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(bits);
+            pair = generator.generateKeyPair();
+            sigalg = "SHA256withRSA";
+        }
+
+        X500Name name = new X500Name("CN=" + alias + ", O=Blinkt Demo Provider");
+        long now = System.currentTimeMillis();
+        JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(name, BigInteger.valueOf(now),
+                new Date(now - 24L * 3600 * 1000), new Date(now + 10 * 365L * 24 * 3600 * 1000), name, pair.getPublic());
+        X509Certificate cert = new JcaX509CertificateConverter()
+                .getCertificate(builder.build(new JcaContentSignerBuilder(sigalg).build(pair.getPrivate())));
+        return new Entry(pair.getPrivate(), cert);
+    }
+}
@@ -7,25 +7,64 @@ package de.blinkt.externalcertprovider;
 
 import android.app.Activity;
 import android.content.Intent;
-import android.security.KeyChain;
 import android.os.Bundle;
+import android.text.TextUtils;
+import android.widget.Button;
+import android.widget.EditText;
+import android.widget.LinearLayout;
 
 public class SelectCertificateActivity extends Activity {
     public static final String EXTRA_ALIAS = "de.blinkt.openvpn.api.KEY_ALIAS";
     public static final String EXTRA_DESCRIPTION = "de.blinkt.openvpn.api.KEY_DESCRIPTION";
 
+    private EditText mLatency;
+    private EditText mJitter;
+    private EditText mFailures;
+
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+
+        mLatency = findViewById(R.id.latency);
+        mJitter = findViewById(R.id.jitter);
+        mFailures = findViewById(R.id.failures);
+        ProviderConfig config = ProviderConfig.load(this);
+        mLatency.setText(String.valueOf(config.latencyMs));
+        mJitter.setText(String.valueOf(config.jitterMs));
+        mFailures.setText(String.valueOf(config.failurePercent));
+
         findViewById(R.id.nicecert).setOnClickListener((v) ->
-        {
-            Intent intent = new Intent();
-            intent.putExtra(EXTRA_ALIAS, "mynicecert");
-            intent.putExtra(EXTRA_DESCRIPTION, "Super secret example key!");
-            setResult(RESULT_OK, intent);
-            finish();
-        });
+                select(ExternalCertService.EXAMPLE_ALIAS, "Super secret example key!"));
+
+        LinearLayout keys = findViewById(R.id.reference_keys);
+        for (String alias : ReferenceKeys.ALIASES) {
+            Button button = new Button(this);
+            button.setText(getString(R.string.use_reference_key, alias));
+            button.setOnClickListener((v) -> select(alias, "Reference key " + alias));
+            keys.addView(button);
+        }
+    }
+
+    private static int parse(EditText field) {
+        String text = field.getText().toString().trim();
+        if (TextUtils.isEmpty(text))
+            return 0;
+        try {
+            return Math.max(0, Integer.parseInt(text));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private void select(String alias, String description) {
+        new ProviderConfig(parse(mLatency), parse(mJitter), Math.min(100, parse(mFailures))).save(this);
+
+        Intent intent = new Intent();
+        intent.putExtra(EXTRA_ALIAS, alias);
+        intent.putExtra(EXTRA_DESCRIPTION, description);
+        setResult(RESULT_OK, intent);
+        finish();
     }
 }